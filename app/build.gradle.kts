@@ -14,9 +14,17 @@ android {
         versionName = "1.0"
 
         testInstrumentationRunner = "androidx.test.runner.AndroidJUnitRunner"
+        buildConfigField("boolean", "PRESERVE_EGL_CONTEXT", "true")
     }
 
     buildTypes {
+        debug {
+            // -PloseContextOnPause releases the EGL context on every pause, as low-memory devices
+            // may, so the snapshot restore can be checked by backgrounding the app.
+            if (project.hasProperty("loseContextOnPause")) {
+                buildConfigField("boolean", "PRESERVE_EGL_CONTEXT", "false")
+            }
+        }
         release {
             isMinifyEnabled = false
             proguardFiles(
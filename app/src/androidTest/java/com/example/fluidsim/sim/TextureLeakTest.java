@@ -0,0 +1,124 @@
+package com.example.fluidsim.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks on an offscreen context that quality changes and resets return every texture they
+ * replace to the pool.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TextureLeakTest {
+
+    private static final int WIDTH = 360;
+    private static final int HEIGHT = 640;
+
+    private EGLDisplay display = EGL14.EGL_NO_DISPLAY;
+    private EGLContext context = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface surface = EGL14.EGL_NO_SURFACE;
+    private FluidSimulation simulation;
+
+    @Before
+    public void setUp() {
+        display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        assertTrue(EGL14.eglInitialize(display, version, 0, version, 1));
+        int[] configAttributes = {
+                EGL14.EGL_RENDERABLE_TYPE, EGLExt.EGL_OPENGL_ES3_BIT_KHR,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] count = new int[1];
+        assertTrue(EGL14.eglChooseConfig(display, configAttributes, 0, configs, 0, 1, count, 0));
+        assumeTrue("No OpenGL ES 3 config", count[0] > 0);
+        int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 3, EGL14.EGL_NONE};
+        context = EGL14.eglCreateContext(display, configs[0], EGL14.EGL_NO_CONTEXT,
+                contextAttributes, 0);
+        int[] surfaceAttributes = {EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE};
+        surface = EGL14.eglCreatePbufferSurface(display, configs[0], surfaceAttributes, 0);
+        assertTrue(EGL14.eglMakeCurrent(display, surface, surface, context));
+        String glVersion = GLES20.glGetString(GLES20.GL_VERSION);
+        assumeTrue("Compute shaders need OpenGL ES 3.1", glVersion != null
+                && (glVersion.contains("OpenGL ES 3.1") || glVersion.contains("OpenGL ES 3.2")));
+
+        simulation = new FluidSimulation(
+                InstrumentationRegistry.getInstrumentation().getTargetContext());
+        simulation.setProgressiveStartup(false);
+        simulation.onSurfaceCreated();
+        simulation.onSurfaceChanged(WIDTH, HEIGHT);
+        simulation.setQuality(128, 256, 20);
+    }
+
+    @After
+    public void tearDown() {
+        if (simulation != null) {
+            simulation.destroy();
+        }
+        if (display != EGL14.EGL_NO_DISPLAY) {
+            EGL14.eglMakeCurrent(display, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
+                    EGL14.EGL_NO_CONTEXT);
+            EGL14.eglDestroySurface(display, surface);
+            EGL14.eglDestroyContext(display, context);
+            EGL14.eglTerminate(display);
+        }
+    }
+
+    @Test
+    public void qualityRoundTripReturnsTextures() throws InterruptedException {
+        int acquired = settle();
+
+        simulation.setQuality(64, 128, 20);
+        settle();
+        simulation.setQuality(128, 256, 20);
+
+        assertEquals(acquired, settle());
+    }
+
+    @Test
+    public void resetKeepsTextures() throws InterruptedException {
+        int acquired = settle();
+
+        simulation.reset();
+
+        assertEquals(acquired, settle());
+    }
+
+    @Test
+    public void contextLossForgetsTextures() throws InterruptedException {
+        int acquired = settle();
+
+        // The same context stands in for a new one; the old names are forgotten, not reused.
+        simulation.onSurfaceCreated();
+        simulation.onSurfaceChanged(WIDTH, HEIGHT);
+
+        assertEquals(acquired, settle());
+    }
+
+    // Steps long enough for programs compiled on demand to be in use, and returns the count.
+    private int settle() throws InterruptedException {
+        for (int i = 0; i < 10; i++) {
+            simulation.step();
+            Thread.sleep(16);
+        }
+        GLES20.glFinish();
+        return simulation.getAcquiredTextureCount();
+    }
+}
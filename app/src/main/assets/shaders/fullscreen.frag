@@ -1,4 +1,4 @@
-#version 310 es
+#version 300 es
 precision mediump float;
 
 in vec2 vUv;
@@ -6,6 +6,9 @@ out vec4 fragColor;
 
 uniform int uPalette;
 uniform sampler2D uDensity;
+// Dye of the tick before uDensity, blended in for frames that fall between ticks.
+uniform sampler2D uPreviousDensity;
+uniform float uBlend;
 uniform float uAspect;
 uniform int uHasDensity;
 
@@ -29,7 +32,7 @@ void main() {
         fragColor = vec4(paletteWarm(t), 1.0);
         return;
     }
-    vec4 densitySample = texture(uDensity, vUv);
+    vec4 densitySample = mix(texture(uPreviousDensity, vUv), texture(uDensity, vUv), uBlend);
     vec3 dye = densitySample.xyz;
     float strength = clamp(length(dye), 0.0, 1.5);
     vec3 paletteColor = (uPalette == 0) ? paletteWarm(strength) : paletteRainbow(strength);
@@ -1,4 +1,4 @@
-#version 310 es
+#version 300 es
 layout(location = 0) in vec2 aPosition;
 layout(location = 1) in vec2 aTexCoord;
 
@@ -4,12 +4,23 @@ import android.content.Context;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.os.SystemClock;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.example.fluidsim.sim.AdvectionScheme;
 import com.example.fluidsim.sim.FluidSimulation;
+import com.example.fluidsim.sim.PassTimer;
+import com.example.fluidsim.sim.PressureSolverType;
+import com.example.fluidsim.sim.StartupTimeline;
+import com.example.fluidsim.sim.input.TouchRecorder;
+import com.example.fluidsim.sim.input.TouchReplayer;
+import com.example.fluidsim.sim.snapshot.FieldSnapshot;
+import com.example.fluidsim.sim.snapshot.SnapshotFile;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.microedition.khronos.egl.EGLConfig;
@@ -27,24 +38,138 @@ public class FluidRenderer implements GLSurfaceView.Renderer {
     public static final class RendererStats {
         public final float fps;
         public final int gridSize;
+        public final int dyeGridSize;
         public final int pressureIterations;
+        /** Iterations (or V-cycles) the pressure solve actually ran; at most the configured count. */
+        public final int pressureIterationsUsed;
+        /** RMS residual after the pressure solve, or NaN when no tolerance is set. */
+        public final float pressureResidual;
+        /** Frame budget the quality governor works towards, or 0 when it is off. */
+        public final float frameBudgetMs;
+        /** Mean frame interval of the governor's last measurement window. */
+        public final float frameTimeMs;
+        @NonNull
+        public final QualityGovernor.Decision governorDecision;
+        /** Field textures alive on the GPU, including ones pooled for reuse. */
+        public final int liveTextures;
+        public final long liveTextureBytes;
+        /**
+         * Rolling GPU and CPU milliseconds per run of each pass, indexed by
+         * {@link PassTimer.Pass#ordinal()}, or {@code null} while pass timing is off.
+         */
+        @Nullable
+        public final float[] gpuPassMs;
+        @Nullable
+        public final float[] cpuPassMs;
+        /** Frame interval distribution over the same period as {@link #fps}, in milliseconds. */
+        public final float frameP50Ms;
+        public final float frameP95Ms;
+        public final float frameP99Ms;
+        public final float frameMaxMs;
+        public final int frames;
+        /** Frames that missed at least one vsync, and that took more than two. */
+        public final int framesOverVsync;
+        public final int framesOverDoubleVsync;
+        public final float vsyncMs;
+        /**
+         * Milliseconds from GL context creation to the first simulated frame and to running at
+         * full quality; NaN until reached.
+         */
+        public final float startupFirstFrameMs;
+        public final float startupFullQualityMs;
+        /** Fraction of the simulation grid's tiles and of the dye grid's that were simulated. */
+        public final float velocityTileCoverage;
+        public final float dyeTileCoverage;
 
-        public RendererStats(float fps, int gridSize, int pressureIterations) {
+        public RendererStats(float fps, int gridSize, int dyeGridSize, int pressureIterations,
+                             int pressureIterationsUsed, float pressureResidual,
+                             float frameBudgetMs, float frameTimeMs,
+                             @NonNull QualityGovernor.Decision governorDecision,
+                             int liveTextures, long liveTextureBytes,
+                             @Nullable float[] gpuPassMs, @Nullable float[] cpuPassMs,
+                             @NonNull FrameTimeHistogram frameTimes,
+                             @NonNull StartupTimeline startup,
+                             float velocityTileCoverage, float dyeTileCoverage) {
             this.fps = fps;
             this.gridSize = gridSize;
+            this.dyeGridSize = dyeGridSize;
             this.pressureIterations = pressureIterations;
+            this.pressureIterationsUsed = pressureIterationsUsed;
+            this.pressureResidual = pressureResidual;
+            this.frameBudgetMs = frameBudgetMs;
+            this.frameTimeMs = frameTimeMs;
+            this.governorDecision = governorDecision;
+            this.liveTextures = liveTextures;
+            this.liveTextureBytes = liveTextureBytes;
+            this.gpuPassMs = gpuPassMs;
+            this.cpuPassMs = cpuPassMs;
+            this.frameP50Ms = frameTimes.getPercentileMs(0.50f);
+            this.frameP95Ms = frameTimes.getPercentileMs(0.95f);
+            this.frameP99Ms = frameTimes.getPercentileMs(0.99f);
+            this.frameMaxMs = frameTimes.getMaxMs();
+            this.frames = frameTimes.getFrameCount();
+            this.framesOverVsync = frameTimes.getOverVsyncCount();
+            this.framesOverDoubleVsync = frameTimes.getOverDoubleVsyncCount();
+            this.vsyncMs = frameTimes.getVsyncPeriodNs() / 1_000_000f;
+            this.startupFirstFrameMs = startup.getFirstFrameMs();
+            this.startupFullQualityMs = startup.getFullQualityMs();
+            this.velocityTileCoverage = velocityTileCoverage;
+            this.dyeTileCoverage = dyeTileCoverage;
         }
     }
 
+    private static final String TAG = "FluidRenderer";
+
     private final FluidSimulation simulation;
     private final AtomicReference<FrameListener> frameListener = new AtomicReference<>();
+    private final QualityGovernor governor = new QualityGovernor();
+    // GL thread only; reset each time stats are published.
+    private final FrameTimeHistogram frameTimes = new FrameTimeHistogram();
+
+    // Quality chosen by the user. It is the governor's ceiling; the simulation may run below it.
+    private volatile int selectedGridSize;
+    private volatile int selectedDyeGridSize;
+    private volatile int selectedPressureIterations;
+    private long lastFrameStartNs = 0;
 
     private long frameCounter = 0;
     private long lastTimestampNs = 0;
     private float fpsAverage = 60f;
 
+    private static final int MIN_GOVERNOR_GRID_SIZE = 256;
+    private static final int MIN_GOVERNOR_ITERATIONS = 4;
+    // Grid changes wait until the selection has been still this long, so scrolling through sizes
+    // reallocates once rather than at every step.
+    private static final long QUALITY_DEBOUNCE_NS = 150_000_000L;
+
+    // GL thread only: a grid or dye change waiting for the debounce interval to pass.
+    private boolean qualityPending = false;
+    private long qualityRequestNs = 0L;
+
+    // Frames drawn so far; written on the GL thread, read by the recorder on the UI thread.
+    private volatile int frameIndex = 0;
+    private volatile int surfaceWidth = 1;
+    private volatile int surfaceHeight = 1;
+    // UI thread only, apart from the volatile reference.
+    private volatile TouchRecorder recorder;
+    private int recordStartFrame = 0;
+    // GL thread only, apart from the volatile reference.
+    private volatile TouchReplayer replayer;
+    private int replayStartFrame = 0;
+    private final TouchReplayer.Sink replaySink = this::injectReplayedTouch;
+
+    private volatile File snapshotFile;
+    // Decoded on a loader thread, handed to the GL thread at the next frame.
+    private final AtomicReference<FieldSnapshot> loadedSnapshot = new AtomicReference<>();
+
     public FluidRenderer(@NonNull Context context) {
         this.simulation = new FluidSimulation(context);
+        this.selectedGridSize = simulation.getGridSize();
+        this.selectedDyeGridSize = simulation.getDyeGridSize();
+        this.selectedPressureIterations = simulation.getPressureIterations();
+        governor.setLimits(MIN_GOVERNOR_GRID_SIZE, selectedGridSize,
+                MIN_GOVERNOR_ITERATIONS, selectedPressureIterations);
+        governor.reset(selectedGridSize, selectedPressureIterations);
     }
 
     @Override
@@ -52,45 +177,308 @@ public class FluidRenderer implements GLSurfaceView.Renderer {
         GLES20.glDisable(GLES20.GL_DEPTH_TEST);
         simulation.onSurfaceCreated();
         lastTimestampNs = SystemClock.elapsedRealtimeNanos();
+        // A new context starts from empty textures; pick up where the last snapshot left off.
+        loadSnapshot();
     }
 
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
         GLES20.glViewport(0, 0, width, height);
+        surfaceWidth = width;
+        surfaceHeight = height;
         simulation.onSurfaceChanged(width, height);
     }
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        long frameStartNs = SystemClock.elapsedRealtimeNanos();
+        if (lastFrameStartNs != 0) {
+            frameTimes.record(frameStartNs - lastFrameStartNs);
+            if (governor.onFrame(frameStartNs - lastFrameStartNs)) {
+                applyGovernorQuality();
+            }
+        }
+        lastFrameStartNs = frameStartNs;
+        if (qualityPending && frameStartNs - qualityRequestNs >= QUALITY_DEBOUNCE_NS) {
+            qualityPending = false;
+            simulation.setQuality(governor.getGridSize(), selectedDyeGridSize,
+                    governor.getPressureIterations());
+        }
+        FieldSnapshot snapshot = loadedSnapshot.getAndSet(null);
+        if (snapshot != null) {
+            simulation.restoreSnapshot(snapshot);
+        }
+        replayTouches();
         simulation.step();
         simulation.render();
         publishStats();
+        frameIndex++;
+    }
+
+    /**
+     * Sets the user-selected quality. With the governor enabled the simulation grid and iterations
+     * are the ceiling it may lower quality from and probe back up to; the dye resolution is left
+     * alone. Iterations apply at once; grid and dye changes are applied, resampling the current
+     * state, once no further change has arrived for {@link #QUALITY_DEBOUNCE_NS}.
+     */
+    public void setQuality(int gridSize, int dyeGridSize, int pressureIterations) {
+        selectedGridSize = gridSize;
+        selectedDyeGridSize = dyeGridSize;
+        selectedPressureIterations = pressureIterations;
+        governor.setLimits(Math.min(MIN_GOVERNOR_GRID_SIZE, gridSize), gridSize,
+                Math.min(MIN_GOVERNOR_ITERATIONS, pressureIterations), pressureIterations);
+        governor.reset(gridSize, pressureIterations);
+        simulation.setPressureIterations(governor.getPressureIterations());
+        requestGrid();
+    }
+
+    /**
+     * Sets the user-selected pressure iterations without touching the grid, so dragging a slider
+     * never reallocates. With the governor enabled it keeps its current grid.
+     */
+    public void setPressureIterations(int pressureIterations) {
+        selectedPressureIterations = pressureIterations;
+        governor.setLimits(Math.min(MIN_GOVERNOR_GRID_SIZE, selectedGridSize), selectedGridSize,
+                Math.min(MIN_GOVERNOR_ITERATIONS, pressureIterations), pressureIterations);
+        governor.reset(governor.getGridSize(), pressureIterations);
+        simulation.setPressureIterations(governor.getPressureIterations());
     }
 
-    public void setQuality(int gridSize, int pressureIterations) {
-        simulation.setQuality(gridSize, pressureIterations);
+    /** Sets the display refresh period that frame times are judged against. */
+    public void setVsyncPeriodNs(long vsyncNs) {
+        frameTimes.setVsyncPeriodNs(vsyncNs);
     }
 
+    /** See {@link FluidSimulation#setPassTimingEnabled}. */
+    public void setPassTimingEnabled(boolean enabled) {
+        simulation.setPassTimingEnabled(enabled);
+    }
+
+    /** See {@link FluidSimulation#setDissipation}. */
+    public void setDissipation(float velocityDissipation, float dyeDissipation) {
+        simulation.setDissipation(velocityDissipation, dyeDissipation);
+    }
+
+    private void requestGrid() {
+        if (governor.getGridSize() != simulation.getGridSize()
+                || selectedDyeGridSize != simulation.getDyeGridSize()) {
+            qualityPending = true;
+            qualityRequestNs = SystemClock.elapsedRealtimeNanos();
+        } else {
+            qualityPending = false;
+        }
+    }
+
+    /** The user-selected grid size; see {@link RendererStats#gridSize} for the one in use. */
     public int getGridSize() {
-        return simulation.getGridSize();
+        return selectedGridSize;
     }
 
+    /** The user-selected dye resolution. */
+    public int getDyeGridSize() {
+        return selectedDyeGridSize;
+    }
+
+    /** The user-selected iteration count; see {@link RendererStats#pressureIterations}. */
     public int getPressureIterations() {
-        return simulation.getPressureIterations();
+        return selectedPressureIterations;
+    }
+
+    /**
+     * Enables the quality governor with a frame budget in milliseconds, e.g. 16.6 or 8.3. {@code 0}
+     * disables it and restores the user-selected quality.
+     */
+    public void setFrameBudget(float budgetMs) {
+        governor.setBudgetNs((long) (budgetMs * 1_000_000L));
+        governor.reset(selectedGridSize, selectedPressureIterations);
+        simulation.setPressureIterations(selectedPressureIterations);
+        requestGrid();
+    }
+
+    /** See {@link FluidSimulation#setSimulationRate}. */
+    public void setSimulationRate(float hz) {
+        simulation.setSimulationRate(hz);
+    }
+
+    /** See {@link FluidSimulation#setDyeInterpolation}. */
+    public void setDyeInterpolation(boolean enabled) {
+        simulation.setDyeInterpolation(enabled);
+    }
+
+    /** See {@link FluidSimulation#setSparseTiles}. */
+    public void setSparseTiles(boolean enabled) {
+        simulation.setSparseTiles(enabled);
+    }
+
+    /** See {@link FluidSimulation#setVorticity}. */
+    public void setVorticity(float strength) {
+        simulation.setVorticity(strength);
+    }
+
+    /** See {@link FluidSimulation#setAdvectionScheme}. */
+    public void setAdvectionScheme(@NonNull AdvectionScheme velocityScheme,
+                                   @NonNull AdvectionScheme dyeScheme) {
+        simulation.setAdvectionScheme(velocityScheme, dyeScheme);
+    }
+
+    public void setPressureSolver(@NonNull PressureSolverType pressureSolver) {
+        simulation.setPressureSolver(pressureSolver);
+    }
+
+    public void setPressureTolerance(float tolerance) {
+        simulation.setPressureTolerance(tolerance);
+    }
+
+    public void setOverRelaxation(float omega) {
+        simulation.setOverRelaxation(omega);
+    }
+
+    public float getOverRelaxation() {
+        return simulation.getOverRelaxation();
     }
 
     public void setPalette(int paletteId) {
         simulation.setPalette(paletteId);
     }
 
-    public void onTouch(float x, float y, float dx, float dy, int colorId) {
-        simulation.enqueueTouch(x, y, dx, dy, colorId);
+    /**
+     * Queues a touch sample. Call from the UI thread, without {@code queueEvent}; see
+     * {@link FluidSimulation#enqueueTouch}.
+     */
+    public void onTouch(float x, float y, float dx, float dy, int colorId, int pointerId) {
+        if (replayer != null) {
+            return;
+        }
+        TouchRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.record(SystemClock.elapsedRealtimeNanos(), frameIndex - recordStartFrame,
+                    x, y, dx, dy, colorId, pointerId);
+        }
+        simulation.enqueueTouch(x, y, dx, dy, colorId, pointerId);
+    }
+
+    /**
+     * Starts recording the samples passed to {@link #onTouch} into {@code file}, replacing any
+     * earlier recording. UI thread.
+     */
+    public void startRecording(@NonNull File file) throws IOException {
+        stopRecording();
+        recordStartFrame = frameIndex;
+        recorder = new TouchRecorder(file, surfaceWidth, surfaceHeight,
+                SystemClock.elapsedRealtimeNanos());
+    }
+
+    /** Finishes the recording, if any. UI thread. */
+    public void stopRecording() throws IOException {
+        TouchRecorder recorder = this.recorder;
+        this.recorder = null;
+        if (recorder != null) {
+            recorder.close();
+        }
+    }
+
+    public boolean isRecording() {
+        return recorder != null;
+    }
+
+    /**
+     * Plays {@code replayer} back from its start, one recorded frame per drawn frame, and takes
+     * ownership of it. Live touches are ignored until it ends. GL thread.
+     */
+    public void startReplay(@NonNull TouchReplayer replayer) {
+        stopReplay();
+        replayer.rewind();
+        replayStartFrame = frameIndex;
+        this.replayer = replayer;
+    }
+
+    /** Ends the replay, if any, and closes it. GL thread. */
+    public void stopReplay() {
+        TouchReplayer replayer = this.replayer;
+        this.replayer = null;
+        if (replayer != null) {
+            try {
+                replayer.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Closing touch replay failed", e);
+            }
+        }
+    }
+
+    public boolean isReplaying() {
+        return replayer != null;
+    }
+
+    private void replayTouches() {
+        TouchReplayer replayer = this.replayer;
+        if (replayer == null) {
+            return;
+        }
+        replayer.replayUntil(frameIndex - replayStartFrame, surfaceWidth, surfaceHeight, replaySink);
+        if (replayer.isFinished()) {
+            stopReplay();
+        }
+    }
+
+    private void injectReplayedTouch(float x, float y, float dx, float dy, int colorId, int pointerId) {
+        simulation.injectTouch(x, y, dx, dy, colorId, pointerId);
+    }
+
+    /**
+     * Sets the file snapshots are saved to and restored from whenever a GL context is created.
+     * Call from the UI thread before the surface is created; {@code null} disables snapshots.
+     */
+    public void setSnapshotFile(@Nullable File file) {
+        snapshotFile = file;
+    }
+
+    /**
+     * Saves the fluid state to the snapshot file; see {@link FluidSimulation#saveSnapshot}. The
+     * readback completes over the next frames, or before returning with {@code finish}, which is
+     * meant for right before the GL thread pauses. GL thread.
+     */
+    public void saveSnapshot(boolean finish) {
+        File file = snapshotFile;
+        if (file == null) {
+            return;
+        }
+        simulation.saveSnapshot(file);
+        if (finish) {
+            simulation.finishSnapshot();
+        }
+    }
+
+    private void loadSnapshot() {
+        File file = snapshotFile;
+        if (file == null) {
+            return;
+        }
+        // The save queued on pause may still be writing the file.
+        simulation.afterSnapshotWrites(() -> {
+            if (!file.isFile()) {
+                return;
+            }
+            try {
+                loadedSnapshot.set(SnapshotFile.read(file));
+            } catch (IOException e) {
+                Log.w(TAG, "Reading snapshot " + file + " failed", e);
+            }
+        });
     }
 
     public void reset() {
         simulation.reset();
     }
 
+    /**
+     * Deletes the simulation's GL objects; textures never returned to the pool are reported then.
+     * GL thread, while the context is still current, e.g. queued right before the activity
+     * finishes.
+     */
+    public void release() {
+        simulation.destroy();
+    }
+
     public void setOnFrameListener(@Nullable FrameListener listener) {
         frameListener.set(listener);
     }
@@ -109,11 +497,49 @@ public class FluidRenderer implements GLSurfaceView.Renderer {
             lastTimestampNs = now;
             FrameListener listener = frameListener.get();
             if (listener != null) {
+                PassTimer timer = simulation.getPassTimer();
+                float[] gpuPassMs = null;
+                float[] cpuPassMs = null;
+                if (timer.isEnabled()) {
+                    PassTimer.Pass[] passes = PassTimer.Pass.values();
+                    gpuPassMs = new float[passes.length];
+                    cpuPassMs = new float[passes.length];
+                    for (PassTimer.Pass pass : passes) {
+                        gpuPassMs[pass.ordinal()] = timer.getGpuMs(pass);
+                        cpuPassMs[pass.ordinal()] = timer.getCpuMs(pass);
+                    }
+                }
                 listener.onStats(new RendererStats(
                         fpsAverage,
-                        simulation.getGridSize(),
-                        simulation.getPressureIterations()));
+                        simulation.getActiveGridSize(),
+                        simulation.getActiveDyeGridSize(),
+                        simulation.getPressureIterations(),
+                        simulation.getPressureIterationsUsed(),
+                        simulation.getPressureResidual(),
+                        governor.getBudgetNs() / 1_000_000f,
+                        governor.getLastFrameMs(),
+                        governor.getLastDecision(),
+                        simulation.getLiveTextureCount(),
+                        simulation.getLiveTextureBytes(),
+                        gpuPassMs,
+                        cpuPassMs,
+                        frameTimes,
+                        simulation.getStartupTimeline(),
+                        simulation.getVelocityTileCoverage(),
+                        simulation.getDyeTileCoverage()));
             }
+            frameTimes.reset();
+        }
+    }
+
+    private void applyGovernorQuality() {
+        int gridSize = governor.getGridSize();
+        int iterations = governor.getPressureIterations();
+        if (gridSize != simulation.getGridSize()) {
+            // Keep the live dye grid: a pending dye change still waits for the debounce.
+            simulation.setQuality(gridSize, simulation.getDyeGridSize(), iterations);
+        } else {
+            simulation.setPressureIterations(iterations);
         }
     }
 }
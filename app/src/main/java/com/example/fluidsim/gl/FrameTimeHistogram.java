@@ -0,0 +1,98 @@
+package com.example.fluidsim.gl;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-bucket histogram of frame intervals. Recording is a bucket increment and never allocates,
+ * so it can run every frame; percentiles are read back at bucket resolution.
+ *
+ * <p>Besides the distribution it counts frames longer than the vsync period, which missed at least
+ * one refresh, and frames longer than twice the period, which the eye reads as a stutter.
+ */
+public final class FrameTimeHistogram {
+
+    static final long BUCKET_NS = 250_000L;
+    // 100 ms in quarter milliseconds; longer frames land in the last bucket.
+    static final int BUCKET_COUNT = 400;
+    private static final long DEFAULT_VSYNC_NS = 16_666_667L;
+
+    private final int[] buckets = new int[BUCKET_COUNT];
+    private int frames = 0;
+    private long maxNs = 0L;
+    private int overVsync = 0;
+    private int overDoubleVsync = 0;
+    private long vsyncNs = DEFAULT_VSYNC_NS;
+
+    /** Sets the display refresh period frames are judged against. */
+    public void setVsyncPeriodNs(long vsyncNs) {
+        this.vsyncNs = Math.max(1L, vsyncNs);
+    }
+
+    public long getVsyncPeriodNs() {
+        return vsyncNs;
+    }
+
+    public void record(long frameNs) {
+        if (frameNs <= 0L) {
+            return;
+        }
+        int bucket = (int) Math.min(frameNs / BUCKET_NS, BUCKET_COUNT - 1);
+        buckets[bucket]++;
+        frames++;
+        if (frameNs > maxNs) {
+            maxNs = frameNs;
+        }
+        // A little slack so vsync jitter does not count as a miss.
+        if (frameNs * 10 > vsyncNs * 11) {
+            overVsync++;
+            if (frameNs * 10 > vsyncNs * 21) {
+                overDoubleVsync++;
+            }
+        }
+    }
+
+    public void reset() {
+        Arrays.fill(buckets, 0);
+        frames = 0;
+        maxNs = 0L;
+        overVsync = 0;
+        overDoubleVsync = 0;
+    }
+
+    public int getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Frame time at {@code fraction} (e.g. 0.95) of the recorded frames, in milliseconds: the upper
+     * edge of the bucket it falls in, never more than the longest frame. 0 when empty.
+     */
+    public float getPercentileMs(float fraction) {
+        if (frames == 0) {
+            return 0f;
+        }
+        int rank = Math.max(1, (int) Math.ceil(fraction * frames));
+        int seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min((i + 1) * BUCKET_NS, maxNs) / 1_000_000f;
+            }
+        }
+        return maxNs / 1_000_000f;
+    }
+
+    public float getMaxMs() {
+        return maxNs / 1_000_000f;
+    }
+
+    /** Frames that missed at least one refresh. */
+    public int getOverVsyncCount() {
+        return overVsync;
+    }
+
+    /** Frames that took more than two refreshes. */
+    public int getOverDoubleVsyncCount() {
+        return overDoubleVsync;
+    }
+}
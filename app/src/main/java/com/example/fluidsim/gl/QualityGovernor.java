@@ -0,0 +1,276 @@
+package com.example.fluidsim.gl;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Closed-loop controller that trades pressure iterations and grid resolution for frame time.
+ *
+ * <p>Frame intervals are averaged over windows of {@link #WINDOW_FRAMES} frames, ignoring the
+ * slowest tenth so that isolated hitches (GC, a missed vsync) do not count as load. A window more than
+ * 10% over budget lowers quality in proportion to the overshoot, shedding pressure iterations
+ * before resolution since a grid change rebuilds the simulation textures. Raising quality is a
+ * probe: one step after several consecutive windows within budget. A probe that immediately goes
+ * over budget returns to the level it started from and doubles the number of good windows required
+ * before the next one, up to {@link #MAX_PROBE_WAIT_NS}, which keeps the governor from oscillating
+ * around a level it cannot sustain. Each change is followed by a settling window that is not
+ * judged.
+ *
+ * <p>Grid size and iterations always stay within the floors and ceilings given to
+ * {@link #setLimits}.
+ */
+public final class QualityGovernor {
+
+    public enum Decision {
+        /** Governor disabled. */
+        OFF,
+        /** Within budget, or at the floor/ceiling; nothing changed. */
+        HOLD,
+        /** Ignoring the window after a change while the new level settles. */
+        SETTLING,
+        LOWER_ITERATIONS,
+        LOWER_GRID,
+        RAISE_ITERATIONS,
+        RAISE_GRID
+    }
+
+    static final int[] GRID_LEVELS = {256, 384, 512, 768, 1024};
+    static final int WINDOW_FRAMES = 30;
+    private static final int TRIMMED_FRAMES = WINDOW_FRAMES / 10;
+
+    private static final float OVER_BUDGET = 1.1f;
+    // Vsync jitter puts a frame that meets its budget slightly above it on average.
+    private static final float WITHIN_BUDGET = 1.03f;
+    private static final float DEGRADE_HEADROOM = 0.95f;
+    private static final int MIN_PROBE_WINDOWS = 4;
+    // Longest wait between probes, so a relieved device regains quality within half a minute.
+    static final long MAX_PROBE_WAIT_NS = 30_000_000_000L;
+    private static final int GRID_SETTLE_WINDOWS = 2;
+    // Full-grid passes per frame besides the pressure iterations (advect x2, splats, divergence,
+    // projection), used to estimate the cost of a quality level.
+    private static final int FIXED_PASSES = 8;
+    // Longer gaps (pauses, surface recreation) say nothing about sustained frame time.
+    private static final long MAX_FRAME_NS = 250_000_000L;
+
+    private long budgetNs = 0L;
+    private int minGridSize = GRID_LEVELS[0];
+    private int maxGridSize = GRID_LEVELS[GRID_LEVELS.length - 1];
+    private int minIterations = 4;
+    private int maxIterations = 40;
+
+    private int gridSize = maxGridSize;
+    private int pressureIterations = 24;
+
+    private final long[] windowNs = new long[WINDOW_FRAMES];
+    private int windowFrames = 0;
+    private int settleWindows = 0;
+    private int goodWindows = 0;
+    private int probeWindows = MIN_PROBE_WINDOWS;
+    private int maxProbeWindows = MIN_PROBE_WINDOWS;
+    private boolean probing = false;
+    private int probeFromGridSize;
+    private int probeFromIterations;
+
+    private Decision lastDecision = Decision.OFF;
+    private float lastFrameMs = 0f;
+
+    /**
+     * Sets the frame budget in nanoseconds, e.g. 16.6 ms for 60 fps. {@code 0} disables the
+     * governor.
+     */
+    public void setBudgetNs(long budgetNs) {
+        this.budgetNs = Math.max(0L, budgetNs);
+        resetWindow();
+        probeWindows = MIN_PROBE_WINDOWS;
+        maxProbeWindows = this.budgetNs > 0L
+                ? Math.max(MIN_PROBE_WINDOWS, (int) (MAX_PROBE_WAIT_NS / (WINDOW_FRAMES * this.budgetNs)))
+                : MIN_PROBE_WINDOWS;
+        probing = false;
+        lastDecision = isEnabled() ? Decision.HOLD : Decision.OFF;
+    }
+
+    public long getBudgetNs() {
+        return budgetNs;
+    }
+
+    public boolean isEnabled() {
+        return budgetNs > 0L;
+    }
+
+    /**
+     * Sets the range the governor may move in. The current level is clamped into it.
+     */
+    public void setLimits(int minGridSize, int maxGridSize, int minIterations, int maxIterations) {
+        this.maxGridSize = Math.max(1, maxGridSize);
+        this.minGridSize = Math.min(Math.max(1, minGridSize), this.maxGridSize);
+        this.maxIterations = Math.max(1, maxIterations);
+        this.minIterations = Math.min(Math.max(1, minIterations), this.maxIterations);
+        gridSize = clamp(gridSize, this.minGridSize, this.maxGridSize);
+        pressureIterations = clamp(pressureIterations, this.minIterations, this.maxIterations);
+    }
+
+    /**
+     * Starts from an externally chosen level, e.g. after the user changed quality.
+     */
+    public void reset(int gridSize, int pressureIterations) {
+        this.gridSize = clamp(gridSize, minGridSize, maxGridSize);
+        this.pressureIterations = clamp(pressureIterations, minIterations, maxIterations);
+        resetWindow();
+        settleWindows = 1;
+        probing = false;
+    }
+
+    public int getGridSize() {
+        return gridSize;
+    }
+
+    public int getPressureIterations() {
+        return pressureIterations;
+    }
+
+    @NonNull
+    public Decision getLastDecision() {
+        return lastDecision;
+    }
+
+    /** Mean frame interval of the last completed window, in milliseconds. */
+    public float getLastFrameMs() {
+        return lastFrameMs;
+    }
+
+    /**
+     * Records one frame interval. Returns {@code true} when the level changed and should be
+     * applied; {@link #getLastDecision()} says how.
+     */
+    public boolean onFrame(long frameIntervalNs) {
+        if (!isEnabled() || frameIntervalNs <= 0L || frameIntervalNs > MAX_FRAME_NS) {
+            return false;
+        }
+        windowNs[windowFrames] = frameIntervalNs;
+        if (++windowFrames < WINDOW_FRAMES) {
+            return false;
+        }
+        Arrays.sort(windowNs);
+        long sumNs = 0L;
+        for (int i = 0; i < WINDOW_FRAMES - TRIMMED_FRAMES; i++) {
+            sumNs += windowNs[i];
+        }
+        float meanNs = sumNs / (float) (WINDOW_FRAMES - TRIMMED_FRAMES);
+        resetWindow();
+        lastFrameMs = meanNs / 1_000_000f;
+        return evaluate(meanNs);
+    }
+
+    private boolean evaluate(float meanNs) {
+        if (settleWindows > 0) {
+            settleWindows--;
+            lastDecision = Decision.SETTLING;
+            return false;
+        }
+        boolean probeFailed = probing && meanNs > budgetNs * OVER_BUDGET;
+        probing = false;
+        if (meanNs > budgetNs * OVER_BUDGET) {
+            goodWindows = 0;
+            if (probeFailed) {
+                // The level before the probe held, so return to it rather than scaling down from
+                // the probe's exaggerated cost.
+                probeWindows = Math.min(probeWindows * 2, maxProbeWindows);
+                return apply(probeFromGridSize, probeFromIterations,
+                        probeFromGridSize != gridSize ? Decision.LOWER_GRID : Decision.LOWER_ITERATIONS);
+            }
+            return lower(budgetNs / meanNs);
+        }
+        if (meanNs <= budgetNs * WITHIN_BUDGET) {
+            if (++goodWindows >= probeWindows) {
+                goodWindows = 0;
+                return raise();
+            }
+        } else {
+            goodWindows = 0;
+        }
+        lastDecision = Decision.HOLD;
+        return false;
+    }
+
+    private boolean lower(float scale) {
+        float targetCost = cost(gridSize, pressureIterations) * scale * DEGRADE_HEADROOM;
+        // Vsync quantisation exaggerates the overshoot, so the iteration floor is always tried before
+        // paying for a grid change.
+        if (pressureIterations > minIterations) {
+            int iterations = Math.min(iterationsForCost(targetCost, gridSize), pressureIterations - 1);
+            return apply(gridSize, Math.max(iterations, minIterations), Decision.LOWER_ITERATIONS);
+        }
+        int lowerGrid = lowerGridLevel(gridSize);
+        if (lowerGrid < gridSize) {
+            int iterations = clamp(iterationsForCost(targetCost, lowerGrid), minIterations, maxIterations);
+            return apply(lowerGrid, iterations, Decision.LOWER_GRID);
+        }
+        lastDecision = Decision.HOLD;
+        return false;
+    }
+
+    private boolean raise() {
+        probeFromGridSize = gridSize;
+        probeFromIterations = pressureIterations;
+        if (pressureIterations < maxIterations) {
+            int iterations = Math.min(maxIterations,
+                    pressureIterations + Math.max(1, pressureIterations / 4));
+            probing = true;
+            return apply(gridSize, iterations, Decision.RAISE_ITERATIONS);
+        }
+        int higherGrid = higherGridLevel(gridSize);
+        if (higherGrid > gridSize) {
+            // Enter the finer grid at roughly the current cost and let later probes add iterations.
+            float currentCost = cost(gridSize, pressureIterations);
+            int iterations = clamp(iterationsForCost(currentCost, higherGrid), minIterations, maxIterations);
+            probing = true;
+            return apply(higherGrid, iterations, Decision.RAISE_GRID);
+        }
+        lastDecision = Decision.HOLD;
+        return false;
+    }
+
+    private boolean apply(int gridSize, int iterations, Decision decision) {
+        settleWindows = gridSize != this.gridSize ? GRID_SETTLE_WINDOWS : 1;
+        this.gridSize = gridSize;
+        this.pressureIterations = iterations;
+        lastDecision = decision;
+        return true;
+    }
+
+    private int lowerGridLevel(int size) {
+        int result = size;
+        for (int level : GRID_LEVELS) {
+            if (level < size && level >= minGridSize) {
+                result = level;
+            }
+        }
+        return result == size && size > minGridSize ? minGridSize : result;
+    }
+
+    private int higherGridLevel(int size) {
+        for (int level : GRID_LEVELS) {
+            if (level > size && level <= maxGridSize) {
+                return level;
+            }
+        }
+        return size < maxGridSize ? maxGridSize : size;
+    }
+
+    private void resetWindow() {
+        windowFrames = 0;
+    }
+
+    private static float cost(int gridSize, int iterations) {
+        return (float) gridSize * gridSize * (FIXED_PASSES + iterations);
+    }
+
+    private static int iterationsForCost(float cost, int gridSize) {
+        return (int) (cost / ((float) gridSize * gridSize)) - FIXED_PASSES;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.fluidsim.sim;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.GLES31;
+
+import androidx.annotation.NonNull;
+
+import com.example.fluidsim.sim.cpu.ActiveTileReference;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The 8x8 tiles of one field that a tick needs to simulate, for passes dispatched with
+ * {@code glDispatchComputeIndirect}. {@code tile_classify.comp} flags the tiles where the field or
+ * the velocity beneath it exceeds a threshold as hot, and {@code tile_compact.comp} lists every
+ * tile within {@link #HALO} tiles of one that is hot or was hot the tick before, along with the
+ * indirect dispatch arguments. {@link ActiveTileReference} is the CPU reference of both passes.
+ *
+ * <p>Tiled passes leave the tiles off the list untouched. Those hold values under the thresholds
+ * in both halves of a ping-pong pair, since a tile stays listed for the tick after it cools down,
+ * so skipping them only drops changes too small to see. The halo lets fluid move into still tiles
+ * before they are classified hot themselves.
+ *
+ * <p>The number of listed tiles is copied into a ring of readback buffers and collected by
+ * {@link #poll()} once their fence has signalled, so {@link #getCoverage()} lags a frame or two.
+ */
+final class ActiveTiles implements AutoCloseable {
+
+    /** Tiles around a hot one that are simulated with it, enough for two tiles' travel a tick. */
+    static final int HALO = 2;
+
+    // ActiveTiles layout (std430), matching tile_compact.comp and the tiled passes: uvec4 indirect
+    // group counts, uvec4 whose x is the number of listed tiles, then the packed tiles.
+    private static final int GROUPS_OFFSET = 0;
+    private static final int COUNT_OFFSET = 16;
+    private static final int HEADER_BYTES = 32;
+    private static final int COMPACT_GROUP_SIZE = 64;
+    private static final int READBACK_FRAMES = 3;
+    // Ticks that list every tile after sparse simulation is turned back on, while the flags catch up
+    // with the two ticks simulated without them.
+    private static final int WARMUP_TICKS = 2;
+
+    private final ComputeProgram classifyProgram;
+    private final ComputeProgram compactProgram;
+    private final TextureFormat format;
+    private final float fieldThreshold;
+    private final float velocityThreshold;
+    private final int fieldThresholdLocation;
+    private final int velocityThresholdLocation;
+    private final int tilesLocation;
+    private final int haloLocation;
+    private final int allActiveLocation;
+
+    private final ByteBuffer header = ByteBuffer.allocateDirect(HEADER_BYTES)
+            .order(ByteOrder.nativeOrder());
+    private final int[] readbackBuffers = new int[READBACK_FRAMES];
+    private final long[] readbackFences = new long[READBACK_FRAMES];
+    private int readbackIndex = 0;
+
+    private int flagBuffer = 0;
+    private int listBuffer = 0;
+    private int tilesX;
+    private int tilesY;
+    private int warmupTicks = 0;
+    private int lastTileCount = 0;
+
+    /**
+     * Lists tiles of a field stored as {@code format} where a channel exceeds
+     * {@code fieldThreshold} in magnitude or the velocity exceeds {@code velocityThreshold}.
+     */
+    ActiveTiles(@NonNull Context context, @NonNull TextureFormat format, float fieldThreshold,
+                float velocityThreshold) {
+        this.format = format;
+        this.fieldThreshold = fieldThreshold;
+        this.velocityThreshold = velocityThreshold;
+        classifyProgram = ComputeProgram.create(context, "shaders/tile_classify.comp",
+                FieldFormats.fieldDefine(format));
+        fieldThresholdLocation = classifyProgram.getUniformLocation("uFieldThreshold");
+        velocityThresholdLocation = classifyProgram.getUniformLocation("uVelocityThreshold");
+        compactProgram = ComputeProgram.create(context, "shaders/tile_compact.comp");
+        tilesLocation = compactProgram.getUniformLocation("uTiles");
+        haloLocation = compactProgram.getUniformLocation("uHalo");
+        allActiveLocation = compactProgram.getUniformLocation("uAllActive");
+    }
+
+    /** Sizes the flags and the list for a {@code width x height} field; every tile starts cold. */
+    void allocate(int width, int height) {
+        destroyBuffers();
+        tilesX = ActiveTileReference.tilesAcross(width);
+        tilesY = ActiveTileReference.tilesAcross(height);
+        int tiles = tilesX * tilesY;
+        int[] buffers = new int[2 + READBACK_FRAMES];
+        GLES20.glGenBuffers(buffers.length, buffers, 0);
+        flagBuffer = buffers[0];
+        listBuffer = buffers[1];
+        ByteBuffer zeros = ByteBuffer.allocateDirect(tiles * Integer.BYTES).order(ByteOrder.nativeOrder());
+        GLES20.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, flagBuffer);
+        GLES20.glBufferData(GLES31.GL_SHADER_STORAGE_BUFFER, tiles * Integer.BYTES, zeros,
+                GLES30.GL_DYNAMIC_COPY);
+        GLES20.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, listBuffer);
+        GLES20.glBufferData(GLES31.GL_SHADER_STORAGE_BUFFER, HEADER_BYTES + tiles * Integer.BYTES,
+                null, GLES30.GL_DYNAMIC_COPY);
+        GLES20.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, 0);
+        for (int i = 0; i < READBACK_FRAMES; i++) {
+            readbackBuffers[i] = buffers[2 + i];
+            GLES20.glBindBuffer(GLES30.GL_COPY_WRITE_BUFFER, readbackBuffers[i]);
+            GLES20.glBufferData(GLES30.GL_COPY_WRITE_BUFFER, Integer.BYTES, null,
+                    GLES30.GL_DYNAMIC_READ);
+        }
+        GLES20.glBindBuffer(GLES30.GL_COPY_WRITE_BUFFER, 0);
+        readbackIndex = 0;
+        warmupTicks = 0;
+        lastTileCount = tiles;
+    }
+
+    /**
+     * Rebuilds the list from {@code fieldTexture} and {@code velocityTexture}, which may be the
+     * same texture. Without {@code sparse} every tile is listed and nothing is classified.
+     */
+    void update(int fieldTexture, int velocityTexture, boolean sparse) {
+        header.clear();
+        header.putInt(GROUPS_OFFSET, 0);
+        header.putInt(GROUPS_OFFSET + 4, 0);
+        header.putInt(GROUPS_OFFSET + 8, 1);
+        header.putInt(GROUPS_OFFSET + 12, 0);
+        header.putInt(COUNT_OFFSET, 0);
+        GLES20.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, listBuffer);
+        GLES20.glBufferSubData(GLES31.GL_SHADER_STORAGE_BUFFER, 0, HEADER_BYTES, header);
+        GLES20.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, 0);
+        GLES31.glBindBufferBase(GLES31.GL_SHADER_STORAGE_BUFFER, 0, flagBuffer);
+        GLES31.glBindBufferBase(GLES31.GL_SHADER_STORAGE_BUFFER, 1, listBuffer);
+
+        if (sparse) {
+            classifyProgram.use();
+            GLES20.glUniform1f(fieldThresholdLocation, fieldThreshold);
+            GLES20.glUniform1f(velocityThresholdLocation, velocityThreshold);
+            ComputeProgram.bindImage(0, fieldTexture, GLES31.GL_READ_ONLY, format);
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, velocityTexture);
+            GLES31.glDispatchCompute(tilesX, tilesY, 1);
+            GLES31.glMemoryBarrier(GLES31.GL_SHADER_STORAGE_BARRIER_BIT);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        }
+
+        compactProgram.use();
+        GLES20.glUniform2i(tilesLocation, tilesX, tilesY);
+        GLES20.glUniform1i(haloLocation, HALO);
+        GLES20.glUniform1i(allActiveLocation, !sparse || warmupTicks > 0 ? 1 : 0);
+        GLES31.glDispatchCompute((tilesX * tilesY + COMPACT_GROUP_SIZE - 1) / COMPACT_GROUP_SIZE, 1, 1);
+        GLES31.glMemoryBarrier(GLES31.GL_COMMAND_BARRIER_BIT
+                | GLES31.GL_SHADER_STORAGE_BARRIER_BIT
+                | GLES31.GL_BUFFER_UPDATE_BARRIER_BIT);
+        if (!sparse) {
+            warmupTicks = WARMUP_TICKS;
+        } else if (warmupTicks > 0) {
+            warmupTicks--;
+        }
+        queueReadback();
+    }
+
+    /**
+     * Dispatches the bound program over the listed tiles, one workgroup per tile, with the list
+     * bound at shader storage binding 1.
+     */
+    void dispatch() {
+        GLES31.glBindBufferBase(GLES31.GL_SHADER_STORAGE_BUFFER, 1, listBuffer);
+        GLES20.glBindBuffer(GLES31.GL_DISPATCH_INDIRECT_BUFFER, listBuffer);
+        GLES31.glDispatchComputeIndirect(GROUPS_OFFSET);
+        GLES20.glBindBuffer(GLES31.GL_DISPATCH_INDIRECT_BUFFER, 0);
+        GLES31.glMemoryBarrier(GLES31.GL_SHADER_IMAGE_ACCESS_BARRIER_BIT
+                | GLES31.GL_TEXTURE_FETCH_BARRIER_BIT);
+    }
+
+    /** Collects every finished tile count, oldest first, without blocking. */
+    void poll() {
+        for (int n = 0; n < READBACK_FRAMES; n++) {
+            int slot = (readbackIndex + n) % READBACK_FRAMES;
+            long fence = readbackFences[slot];
+            if (fence == 0L) {
+                continue;
+            }
+            int status = GLES30.glClientWaitSync(fence, 0, 0L);
+            if (status != GLES30.GL_ALREADY_SIGNALED && status != GLES30.GL_CONDITION_SATISFIED) {
+                return;
+            }
+            GLES30.glDeleteSync(fence);
+            readbackFences[slot] = 0L;
+            readCount(readbackBuffers[slot]);
+        }
+    }
+
+    /** Fraction of the field's tiles the last collected list covered, in [0, 1]. */
+    float getCoverage() {
+        int tiles = tilesX * tilesY;
+        return tiles > 0 ? Math.min(1f, lastTileCount / (float) tiles) : 1f;
+    }
+
+    @Override
+    public void close() {
+        destroyBuffers();
+        classifyProgram.close();
+        compactProgram.close();
+    }
+
+    /** Queues a copy of this tick's tile count for {@link #poll()}, dropping the oldest if full. */
+    private void queueReadback() {
+        GLES20.glBindBuffer(GLES30.GL_COPY_READ_BUFFER, listBuffer);
+        GLES20.glBindBuffer(GLES30.GL_COPY_WRITE_BUFFER, readbackBuffers[readbackIndex]);
+        GLES30.glCopyBufferSubData(GLES30.GL_COPY_READ_BUFFER, GLES30.GL_COPY_WRITE_BUFFER,
+                COUNT_OFFSET, 0, Integer.BYTES);
+        GLES20.glBindBuffer(GLES30.GL_COPY_READ_BUFFER, 0);
+        GLES20.glBindBuffer(GLES30.GL_COPY_WRITE_BUFFER, 0);
+        if (readbackFences[readbackIndex] != 0L) {
+            GLES30.glDeleteSync(readbackFences[readbackIndex]);
+        }
+        readbackFences[readbackIndex] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        readbackIndex = (readbackIndex + 1) % READBACK_FRAMES;
+    }
+
+    private void readCount(int buffer) {
+        GLES20.glBindBuffer(GLES30.GL_COPY_WRITE_BUFFER, buffer);
+        Buffer mapped = GLES30.glMapBufferRange(GLES30.GL_COPY_WRITE_BUFFER, 0, Integer.BYTES,
+                GLES30.GL_MAP_READ_BIT);
+        if (mapped instanceof ByteBuffer) {
+            lastTileCount = ((ByteBuffer) mapped).order(ByteOrder.nativeOrder()).getInt(0);
+            GLES30.glUnmapBuffer(GLES30.GL_COPY_WRITE_BUFFER);
+        }
+        GLES20.glBindBuffer(GLES30.GL_COPY_WRITE_BUFFER, 0);
+    }
+
+    private void destroyBuffers() {
+        for (int i = 0; i < READBACK_FRAMES; i++) {
+            if (readbackFences[i] != 0L) {
+                GLES30.glDeleteSync(readbackFences[i]);
+                readbackFences[i] = 0L;
+            }
+        }
+        if (flagBuffer != 0) {
+            int[] buffers = new int[2 + READBACK_FRAMES];
+            buffers[0] = flagBuffer;
+            buffers[1] = listBuffer;
+            System.arraycopy(readbackBuffers, 0, buffers, 2, READBACK_FRAMES);
+            GLES20.glDeleteBuffers(buffers.length, buffers, 0);
+            flagBuffer = 0;
+            listBuffer = 0;
+        }
+    }
+}
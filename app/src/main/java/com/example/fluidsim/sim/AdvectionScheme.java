@@ -0,0 +1,15 @@
+package com.example.fluidsim.sim;
+
+/**
+ * Ways velocity and dye can be carried along the velocity field, selectable per field.
+ */
+public enum AdvectionScheme {
+    /** First-order back-trace with bilinear sampling; one pass, but smears detail every tick. */
+    SEMI_LAGRANGIAN,
+    /**
+     * MacCormack: a semi-Lagrangian prediction, a reverse trace of it to estimate the error, and a
+     * correction clamped to the values around the back-traced point. About twice the cost of
+     * {@link #SEMI_LAGRANGIAN} and one more field-sized texture, with far less numerical diffusion.
+     */
+    MACCORMACK
+}
@@ -2,22 +2,36 @@ package com.example.fluidsim.sim;
 
 import android.content.Context;
 import android.content.res.AssetManager;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.opengl.GLES31;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
-import java.io.BufferedReader;
+import com.example.fluidsim.sim.cache.ProgramBinaryStore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Minimal wrapper for OpenGL ES compute shader programs.
+ *
+ * <p>Linked programs are cached on disk as driver binaries, keyed by their final source and the
+ * driver, so later contexts and launches skip compiling. A binary the driver rejects is deleted
+ * and the program compiled from source.
  */
 final class ComputeProgram implements AutoCloseable {
 
     private static final String TAG = "ComputeProgram";
+    private static final String BINARY_CACHE_DIR = "programs";
+
+    // GL thread only; created on first use.
+    private static ProgramBinaryStore binaryStore;
 
     private final int program;
 
@@ -25,8 +39,74 @@ final class ComputeProgram implements AutoCloseable {
         this.program = program;
     }
 
-    static ComputeProgram create(@NonNull Context context, @NonNull String assetPath) {
-        String source = readAsset(context, assetPath);
+    /**
+     * Compiles the compute shader at {@code assetPath}, or links it from the binary cache. Each of
+     * {@code defines} is a complete preprocessor line inserted right after the {@code #version}
+     * directive, e.g. a format macro from {@link TextureFormat#define}.
+     */
+    static ComputeProgram create(@NonNull Context context, @NonNull String assetPath,
+                                 @NonNull String... defines) {
+        String source = withDefines(readAsset(context, assetPath), defines);
+        int[] formats = new int[1];
+        GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+        if (formats[0] == 0) {
+            return new ComputeProgram(compile(source, false));
+        }
+        ProgramBinaryStore store = binaryStore(context);
+        String key = ProgramBinaryStore.key(source, GLES20.glGetString(GLES20.GL_RENDERER),
+                GLES20.glGetString(GLES20.GL_VERSION));
+        int program = loadBinary(store, key);
+        if (program == 0) {
+            program = compile(source, true);
+            saveBinary(store, key, program);
+        }
+        return new ComputeProgram(program);
+    }
+
+    /** Links a program from a cached binary, or returns 0 on a miss or a rejected binary. */
+    private static int loadBinary(ProgramBinaryStore store, String key) {
+        ProgramBinaryStore.Binary binary;
+        try {
+            binary = store.load(key);
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding cached program: " + e.getMessage());
+            return 0;
+        }
+        if (binary == null) {
+            return 0;
+        }
+        int program = GLES31.glCreateProgram();
+        GLES30.glProgramBinary(program, binary.format, binary.data, binary.data.remaining());
+        int[] status = new int[1];
+        GLES31.glGetProgramiv(program, GLES31.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            // Usually a driver update that kept its version string; rebuild from source.
+            Log.i(TAG, "Driver rejected cached program binary; compiling from source.");
+            GLES31.glDeleteProgram(program);
+            store.remove(key);
+            return 0;
+        }
+        return program;
+    }
+
+    private static void saveBinary(ProgramBinaryStore store, String key, int program) {
+        int[] length = new int[1];
+        int[] format = new int[1];
+        GLES31.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(length[0]);
+        GLES30.glGetProgramBinary(program, length[0], length, 0, format, 0, binary);
+        binary.limit(length[0]);
+        try {
+            store.store(key, format[0], binary);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to cache program binary", e);
+        }
+    }
+
+    private static int compile(@NonNull String source, boolean retrievable) {
         int shader = GLES31.glCreateShader(GLES31.GL_COMPUTE_SHADER);
         GLES31.glShaderSource(shader, source);
         GLES31.glCompileShader(shader);
@@ -39,6 +119,9 @@ final class ComputeProgram implements AutoCloseable {
         }
         int program = GLES31.glCreateProgram();
         GLES31.glAttachShader(program, shader);
+        if (retrievable) {
+            GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+        }
         GLES31.glLinkProgram(program);
         GLES31.glGetProgramiv(program, GLES31.GL_LINK_STATUS, status, 0);
         if (status[0] == 0) {
@@ -49,7 +132,14 @@ final class ComputeProgram implements AutoCloseable {
             throw new IllegalStateException("Unable to link compute program");
         }
         GLES31.glDeleteShader(shader);
-        return new ComputeProgram(program);
+        return program;
+    }
+
+    private static ProgramBinaryStore binaryStore(@NonNull Context context) {
+        if (binaryStore == null) {
+            binaryStore = new ProgramBinaryStore(new File(context.getCacheDir(), BINARY_CACHE_DIR));
+        }
+        return binaryStore;
     }
 
     int getProgram() {
@@ -69,16 +159,45 @@ final class ComputeProgram implements AutoCloseable {
         GLES31.glDeleteProgram(program);
     }
 
+    /**
+     * Dispatches 8x8 workgroups covering a {@code width x height} grid, followed by a barrier so
+     * the next pass sees the results through image loads or texture fetches.
+     */
+    static void dispatch(int width, int height) {
+        int groupsX = (width + 7) / 8;
+        int groupsY = (height + 7) / 8;
+        GLES31.glDispatchCompute(groupsX, groupsY, 1);
+        GLES31.glMemoryBarrier(GLES31.GL_SHADER_IMAGE_ACCESS_BARRIER_BIT
+                | GLES31.GL_TEXTURE_FETCH_BARRIER_BIT);
+    }
+
+    static void bindImage(int unit, int texture, int access, @NonNull TextureFormat format) {
+        GLES31.glBindImageTexture(unit, texture, 0, false, 0, access, format.internalFormat);
+    }
+
+    private static String withDefines(@NonNull String source, @NonNull String[] defines) {
+        if (defines.length == 0) {
+            return source;
+        }
+        int versionEnd = source.indexOf('\n') + 1;
+        StringBuilder builder = new StringBuilder(source.length() + 64 * defines.length);
+        builder.append(source, 0, versionEnd);
+        for (String define : defines) {
+            builder.append(define);
+        }
+        return builder.append(source, versionEnd, source.length()).toString();
+    }
+
     private static String readAsset(@NonNull Context context, @NonNull String path) {
         AssetManager assets = context.getAssets();
-        try (InputStream input = assets.open(path);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(input))) {
-            StringBuilder builder = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                builder.append(line).append('\n');
+        try (InputStream input = assets.open(path)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(input.available(), 1024));
+            byte[] chunk = new byte[4096];
+            int count;
+            while ((count = input.read(chunk)) > 0) {
+                bytes.write(chunk, 0, count);
             }
-            return builder.toString();
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
         } catch (IOException e) {
             throw new IllegalStateException("Unable to load shader asset " + path, e);
         }
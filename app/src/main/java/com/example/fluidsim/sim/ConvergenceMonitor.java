@@ -0,0 +1,246 @@
+package com.example.fluidsim.sim;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.GLES31;
+
+import androidx.annotation.NonNull;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Residual-driven early termination for the iterative pressure solvers, without stalling on the
+ * GPU. Relaxation passes are issued with {@code glDispatchComputeIndirect} from a small state
+ * buffer. Each {@link #check} reduces the residual on the GPU and, once it is within tolerance,
+ * zeroes the indirect group counts so the remaining passes of the frame dispatch nothing.
+ *
+ * <p>The iteration count and residual are copied into a ring of readback buffers and collected by
+ * {@link #poll()} once their fence has signalled, so the reported values lag a frame or two.
+ */
+final class ConvergenceMonitor implements AutoCloseable {
+
+    // SolverState layout (std430), matching pressure_residual.comp and pressure_converge.comp.
+    private static final int RELAX_GROUPS_OFFSET = 0;
+    private static final int RESIDUAL_GROUPS_OFFSET = 16;
+    private static final int RESULT_OFFSET = 32;
+    private static final int RESULT_BYTES = 16;
+    private static final int HEADER_BYTES = 48;
+    private static final int PARTIAL_BYTES = 8;
+
+    private static final int GROUP_SIZE = 8;
+    private static final int READBACK_FRAMES = 3;
+
+    private final ComputeProgram residualProgram;
+    private final ComputeProgram convergeProgram;
+    private final int partialCountLocation;
+    private final int pendingIterationsLocation;
+    private final int cellCountLocation;
+    private final int toleranceLocation;
+
+    private final ByteBuffer header = ByteBuffer.allocateDirect(HEADER_BYTES)
+            .order(ByteOrder.nativeOrder());
+    private final int[] readbackBuffers = new int[READBACK_FRAMES];
+    private final long[] readbackFences = new long[READBACK_FRAMES];
+    private int readbackIndex = 0;
+
+    private int stateBuffer = 0;
+    private int width;
+    private int height;
+    private int residualGroupsX;
+    private int residualGroupsY;
+
+    private int lastIterations = 0;
+    private float lastResidualMax = Float.NaN;
+    private float lastResidualRms = Float.NaN;
+
+    ConvergenceMonitor(@NonNull Context context) {
+        residualProgram = ComputeProgram.create(context, "shaders/pressure_residual.comp",
+                FieldFormats.DIVERGENCE_DEFINE);
+        convergeProgram = ComputeProgram.create(context, "shaders/pressure_converge.comp");
+        partialCountLocation = convergeProgram.getUniformLocation("uPartialCount");
+        pendingIterationsLocation = convergeProgram.getUniformLocation("uPendingIterations");
+        cellCountLocation = convergeProgram.getUniformLocation("uCellCount");
+        toleranceLocation = convergeProgram.getUniformLocation("uTolerance");
+    }
+
+    void allocate(int width, int height) {
+        destroyBuffers();
+        this.width = width;
+        this.height = height;
+        residualGroupsX = (width + GROUP_SIZE - 1) / GROUP_SIZE;
+        residualGroupsY = (height + GROUP_SIZE - 1) / GROUP_SIZE;
+        int[] buffers = new int[1 + READBACK_FRAMES];
+        GLES20.glGenBuffers(buffers.length, buffers, 0);
+        stateBuffer = buffers[0];
+        GLES20.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, stateBuffer);
+        GLES20.glBufferData(GLES31.GL_SHADER_STORAGE_BUFFER,
+                HEADER_BYTES + residualGroupsX * residualGroupsY * PARTIAL_BYTES, null,
+                GLES30.GL_DYNAMIC_COPY);
+        GLES20.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, 0);
+        for (int i = 0; i < READBACK_FRAMES; i++) {
+            readbackBuffers[i] = buffers[1 + i];
+            GLES20.glBindBuffer(GLES30.GL_COPY_WRITE_BUFFER, readbackBuffers[i]);
+            GLES20.glBufferData(GLES30.GL_COPY_WRITE_BUFFER, RESULT_BYTES, null,
+                    GLES30.GL_DYNAMIC_READ);
+        }
+        GLES20.glBindBuffer(GLES30.GL_COPY_WRITE_BUFFER, 0);
+        readbackIndex = 0;
+    }
+
+    boolean isAllocated() {
+        return stateBuffer != 0;
+    }
+
+    /**
+     * Resets the state for a new solve whose relaxation dispatches cover {@code relaxWidth x
+     * relaxHeight} invocations.
+     */
+    void begin(int relaxWidth, int relaxHeight) {
+        header.clear();
+        putGroups(RELAX_GROUPS_OFFSET, (relaxWidth + GROUP_SIZE - 1) / GROUP_SIZE,
+                (relaxHeight + GROUP_SIZE - 1) / GROUP_SIZE);
+        putGroups(RESIDUAL_GROUPS_OFFSET, residualGroupsX, residualGroupsY);
+        header.putInt(RESULT_OFFSET, 0);
+        header.putInt(RESULT_OFFSET + 4, 0);
+        header.putFloat(RESULT_OFFSET + 8, 0f);
+        header.putFloat(RESULT_OFFSET + 12, 0f);
+        GLES20.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, stateBuffer);
+        GLES20.glBufferSubData(GLES31.GL_SHADER_STORAGE_BUFFER, 0, HEADER_BYTES, header);
+        GLES20.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, 0);
+        GLES31.glBindBufferBase(GLES31.GL_SHADER_STORAGE_BUFFER, 0, stateBuffer);
+    }
+
+    /**
+     * One relaxation dispatch with the current indirect group counts; empty once converged.
+     */
+    void dispatchRelax() {
+        GLES20.glBindBuffer(GLES31.GL_DISPATCH_INDIRECT_BUFFER, stateBuffer);
+        GLES31.glDispatchComputeIndirect(RELAX_GROUPS_OFFSET);
+        GLES31.glMemoryBarrier(GLES31.GL_SHADER_IMAGE_ACCESS_BARRIER_BIT
+                | GLES31.GL_TEXTURE_FETCH_BARRIER_BIT);
+    }
+
+    /**
+     * Measures the residual of {@code pressureTexture} against {@code divergenceTexture}, counting
+     * {@code pendingIterations} towards the total if the solve had not yet converged, and stops
+     * further relaxation if the RMS residual is at most {@code tolerance}.
+     */
+    void check(int pressureTexture, int divergenceTexture, int pendingIterations, float tolerance) {
+        residualProgram.use();
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, pressureTexture);
+        ComputeProgram.bindImage(0, divergenceTexture, GLES31.GL_READ_ONLY, FieldFormats.DIVERGENCE);
+        GLES31.glBindBufferBase(GLES31.GL_SHADER_STORAGE_BUFFER, 0, stateBuffer);
+        GLES20.glBindBuffer(GLES31.GL_DISPATCH_INDIRECT_BUFFER, stateBuffer);
+        GLES31.glDispatchComputeIndirect(RESIDUAL_GROUPS_OFFSET);
+        GLES31.glMemoryBarrier(GLES31.GL_SHADER_STORAGE_BARRIER_BIT);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        convergeProgram.use();
+        GLES20.glUniform1i(partialCountLocation, residualGroupsX * residualGroupsY);
+        GLES20.glUniform1i(pendingIterationsLocation, pendingIterations);
+        GLES20.glUniform1f(cellCountLocation, Math.max(1, (width - 2) * (height - 2)));
+        GLES20.glUniform1f(toleranceLocation, tolerance);
+        GLES31.glDispatchCompute(1, 1, 1);
+        GLES31.glMemoryBarrier(GLES31.GL_COMMAND_BARRIER_BIT
+                | GLES31.GL_SHADER_STORAGE_BARRIER_BIT
+                | GLES31.GL_BUFFER_UPDATE_BARRIER_BIT);
+    }
+
+    /**
+     * Queues a copy of this solve's result for {@link #poll()}. If the ring is full the oldest
+     * pending result is dropped.
+     */
+    void finish() {
+        GLES20.glBindBuffer(GLES30.GL_COPY_READ_BUFFER, stateBuffer);
+        GLES20.glBindBuffer(GLES30.GL_COPY_WRITE_BUFFER, readbackBuffers[readbackIndex]);
+        GLES30.glCopyBufferSubData(GLES30.GL_COPY_READ_BUFFER, GLES30.GL_COPY_WRITE_BUFFER,
+                RESULT_OFFSET, 0, RESULT_BYTES);
+        GLES20.glBindBuffer(GLES30.GL_COPY_READ_BUFFER, 0);
+        GLES20.glBindBuffer(GLES30.GL_COPY_WRITE_BUFFER, 0);
+        if (readbackFences[readbackIndex] != 0L) {
+            GLES30.glDeleteSync(readbackFences[readbackIndex]);
+        }
+        readbackFences[readbackIndex] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        readbackIndex = (readbackIndex + 1) % READBACK_FRAMES;
+    }
+
+    /**
+     * Collects every finished result, oldest first, without blocking.
+     */
+    void poll() {
+        for (int n = 0; n < READBACK_FRAMES; n++) {
+            int slot = (readbackIndex + n) % READBACK_FRAMES;
+            long fence = readbackFences[slot];
+            if (fence == 0L) {
+                continue;
+            }
+            int status = GLES30.glClientWaitSync(fence, 0, 0L);
+            if (status != GLES30.GL_ALREADY_SIGNALED && status != GLES30.GL_CONDITION_SATISFIED) {
+                return;
+            }
+            GLES30.glDeleteSync(fence);
+            readbackFences[slot] = 0L;
+            readResult(readbackBuffers[slot]);
+        }
+    }
+
+    int getLastIterations() {
+        return lastIterations;
+    }
+
+    float getLastResidualMax() {
+        return lastResidualMax;
+    }
+
+    float getLastResidualRms() {
+        return lastResidualRms;
+    }
+
+    @Override
+    public void close() {
+        destroyBuffers();
+        residualProgram.close();
+        convergeProgram.close();
+    }
+
+    private void readResult(int buffer) {
+        GLES20.glBindBuffer(GLES30.GL_COPY_WRITE_BUFFER, buffer);
+        Buffer mapped = GLES30.glMapBufferRange(GLES30.GL_COPY_WRITE_BUFFER, 0, RESULT_BYTES,
+                GLES30.GL_MAP_READ_BIT);
+        if (mapped instanceof ByteBuffer) {
+            ByteBuffer result = ((ByteBuffer) mapped).order(ByteOrder.nativeOrder());
+            lastIterations = result.getInt(0);
+            lastResidualMax = result.getFloat(8);
+            lastResidualRms = result.getFloat(12);
+            GLES30.glUnmapBuffer(GLES30.GL_COPY_WRITE_BUFFER);
+        }
+        GLES20.glBindBuffer(GLES30.GL_COPY_WRITE_BUFFER, 0);
+    }
+
+    private void putGroups(int offset, int groupsX, int groupsY) {
+        header.putInt(offset, groupsX);
+        header.putInt(offset + 4, groupsY);
+        header.putInt(offset + 8, 1);
+        header.putInt(offset + 12, 0);
+    }
+
+    private void destroyBuffers() {
+        for (int i = 0; i < READBACK_FRAMES; i++) {
+            if (readbackFences[i] != 0L) {
+                GLES30.glDeleteSync(readbackFences[i]);
+                readbackFences[i] = 0L;
+            }
+        }
+        if (stateBuffer != 0) {
+            int[] buffers = new int[1 + READBACK_FRAMES];
+            buffers[0] = stateBuffer;
+            System.arraycopy(readbackBuffers, 0, buffers, 1, READBACK_FRAMES);
+            GLES20.glDeleteBuffers(buffers.length, buffers, 0);
+            stateBuffer = 0;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.fluidsim.sim;
+
+/**
+ * Storage format of each simulation field. Textures are allocated with these, and the shaders'
+ * image qualifiers are generated from them through the {@code *_FORMAT} macros, so the two cannot
+ * drift apart.
+ *
+ * <p>Pressure, divergence and the multigrid levels only use their first channel and are stored as
+ * {@code R32F}, half the bytes per texel of {@code RGBA16F} in the bandwidth-bound relaxation
+ * passes. Velocity and dye have no narrower image format on GLES 3.1 and stay {@code RGBA16F}.
+ */
+final class FieldFormats {
+
+    static final TextureFormat VELOCITY = TextureFormat.RGBA16F;
+    static final TextureFormat DYE = TextureFormat.RGBA16F;
+    static final TextureFormat PRESSURE = TextureFormat.R32F;
+    /** Divergence, and the right-hand sides and residuals of the multigrid levels. */
+    static final TextureFormat DIVERGENCE = TextureFormat.R32F;
+
+    static final String VELOCITY_DEFINE = VELOCITY.define("VELOCITY_FORMAT");
+    static final String PRESSURE_DEFINE = PRESSURE.define("PRESSURE_FORMAT");
+    static final String DIVERGENCE_DEFINE = DIVERGENCE.define("DIVERGENCE_FORMAT");
+
+    private FieldFormats() {
+    }
+
+    /** Defines {@code FIELD_FORMAT} for the shaders shared by velocity and dye. */
+    static String fieldDefine(TextureFormat format) {
+        return format.define("FIELD_FORMAT");
+    }
+}
@@ -10,11 +10,16 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 
 import com.example.fluidsim.gl.ShaderHandle;
+import com.example.fluidsim.sim.cpu.CpuFluidSolver;
+import com.example.fluidsim.sim.cpu.HalfFloatField;
+import com.example.fluidsim.sim.input.TouchQueue;
+import com.example.fluidsim.sim.snapshot.FieldSnapshot;
 
+import java.io.File;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Locale;
 
 /**
  * Coordinates the compute shaders and draw passes for the fluid simulation. The implementation
@@ -24,14 +29,66 @@ public final class FluidSimulation {
 
     private static final String TAG = "FluidSimulation";
 
-    private static final float VELOCITY_DISSIPATION = 0.995f;
-    private static final float DYE_DISSIPATION = 0.999f;
+    private static final float DEFAULT_VELOCITY_DISSIPATION = 0.995f;
+    private static final float DEFAULT_DYE_DISSIPATION = 0.999f;
+    private static final float DEFAULT_VORTICITY = 10f;
     private static final float MAX_TIMESTEP = 1f / 30f;
+    private static final float DEFAULT_SIMULATION_RATE = 60f;
+    // Ticks one frame may run to catch up. Time beyond that is dropped, slowing the simulation down
+    // rather than letting a slow frame make the next one slower still.
+    private static final int MAX_SUBSTEPS = 3;
+    // Longer frame intervals (pauses, surface recreation) are not caught up on.
+    private static final float MAX_FRAME_DELTA = 0.25f;
     private static final float SPLAT_RADIUS = 0.02f;
     private static final float SPLAT_FORCE = 6f;
+    private static final int CPU_MAX_GRID_SIZE = 256;
+    // Touch samples applied per frame before runs from the same pointer are coalesced. The GPU
+    // budget is one splat batch; each CPU splat touches the whole grid.
+    private static final int GPU_TOUCH_BUDGET = SplatBatch.MAX_SPLATS;
+    private static final int CPU_TOUCH_BUDGET = 8;
+    private static final float[][][] PALETTE_COLORS = {
+            {{1.2f, 0.5f, 0.2f}, {0.1f, 0.3f, 0.9f}},
+            {{0.2f, 0.6f, 1.0f}, {1.0f, 0.4f, 0.7f}}
+    };
+    // Fewest cells along the shorter side, however extreme the aspect ratio; keeps two multigrid
+    // levels.
+    private static final int MIN_GRID_CELLS = 16;
+    // A V-cycle costs roughly as much as eight to ten fine Jacobi sweeps but removes far more
+    // error, so one cycle stands in for every twelve configured iterations.
+    private static final int ITERATIONS_PER_V_CYCLE = 12;
+    private static final float DEFAULT_OVER_RELAXATION = 1.8f;
+    // RMS pressure residual, in the units of the divergence field, at which the solve stops early.
+    private static final float DEFAULT_PRESSURE_TOLERANCE = 0.25f;
+    // Must be even so that iterations skipped after convergence never leave the Jacobi ping-pong
+    // pair pointing at the older texture.
+    private static final int RESIDUAL_CHECK_INTERVAL = CpuFluidSolver.RESIDUAL_CHECK_INTERVAL;
+    // With progressive startup a new context first runs both grids at this size, then doubles them
+    // every few frames until they reach the configured sizes.
+    private static final int STARTUP_GRID_SIZE = 128;
+    private static final int STARTUP_STEP_FRAMES = 8;
+    // Velocity, in cells per second, and dye intensity below which a tile is left alone when no
+    // tile near it exceeds them either.
+    private static final float VELOCITY_TILE_THRESHOLD = 0.05f;
+    private static final float DYE_TILE_THRESHOLD = 1f / 512f;
 
     private final Context context;
-    private final ConcurrentLinkedQueue<TouchEvent> touchQueue = new ConcurrentLinkedQueue<>();
+    private final TexturePool texturePool;
+    private final PassTimer passTimer = new PassTimer();
+    private final SnapshotReadback snapshotReadback = new SnapshotReadback();
+    // Restore requested before the textures existed; applied once they do.
+    private FieldSnapshot pendingRestore;
+    private final StartupTimeline startupTimeline = new StartupTimeline();
+    private boolean progressiveStartup = true;
+    // Cap on both grid sizes while starting up, or 0 once they run at the configured sizes.
+    private int startupGridLimit = 0;
+    private int startupFrames = 0;
+    private boolean passTimingRequested = false;
+    private final TouchQueue touchQueue = new TouchQueue();
+    // Touches injected on the GL thread, e.g. a replay; a queue of their own keeps both queues
+    // single-producer.
+    private final TouchQueue injectedTouches = new TouchQueue();
+    private final TouchQueue.Consumer gpuSplat = this::applyGpuSplat;
+    private final TouchQueue.Consumer cpuSplat = this::applyCpuSplat;
 
     private ShaderHandle fullscreenProgram;
     private int fullscreenVao;
@@ -39,18 +96,18 @@ public final class FluidSimulation {
     private int densityUniform;
     private int aspectUniform;
     private int hasDensityUniform;
+    private int previousDensityUniform;
+    private int blendUniform;
 
-    private ComputeProgram advectProgram;
-    private int advectDtLocation;
-    private int advectDissipationLocation;
+    private AdvectPass advectVelocity;
+    private AdvectPass advectDye;
+    // Created when a field first selects MacCormack advection.
+    private MacCormackPass macCormackVelocity;
+    private MacCormackPass macCormackDye;
+    private ResamplePass resampleVelocity;
+    private ResamplePass resampleDye;
 
-    private ComputeProgram splatProgram;
-    private int splatPointLocation;
-    private int splatDeltaLocation;
-    private int splatColorLocation;
-    private int splatRadiusLocation;
-    private int splatAspectLocation;
-    private int splatVelocityLocation;
+    private SplatBatch splats;
 
     private ComputeProgram divergenceProgram;
     private int divergenceTexelLocation;
@@ -58,10 +115,33 @@ public final class FluidSimulation {
     private ComputeProgram jacobiProgram;
     private int jacobiAlphaLocation;
     private int jacobiRBetaLocation;
+    private int jacobiWeightLocation;
+
+    private MultigridPressureSolver multigrid;
+
+    private ConvergenceMonitor convergence;
+    private boolean indirectRelax = false;
+    private int lastPressureIterations = 0;
+
+    private ComputeProgram redBlackProgram;
+    private int redBlackAlphaLocation;
+    private int redBlackRBetaLocation;
+    private int redBlackOmegaLocation;
+    private int redBlackParityLocation;
 
     private ComputeProgram projectProgram;
     private int projectTexelLocation;
 
+    private ComputeProgram vorticityProgram;
+    private int vorticityDtLocation;
+    private int vorticityStrengthLocation;
+    private int vorticityTexelLocation;
+
+    // Tiles of the simulation grid and of the dye grid that advection and projection run on.
+    private ActiveTiles velocityTiles;
+    private ActiveTiles dyeTiles;
+    private boolean sparseTiles = true;
+
     private final FloatBuffer fullscreenQuad = ByteBuffer
             .allocateDirect(4 * 4 * Float.BYTES)
             .order(ByteOrder.nativeOrder())
@@ -70,22 +150,61 @@ public final class FluidSimulation {
     private final PingPongTexture velocity = new PingPongTexture();
     private final PingPongTexture dye = new PingPongTexture();
     private final PingPongTexture pressure = new PingPongTexture();
+    // Single in-place R32F pressure image used by the red-black solver instead of the pair above.
+    private int redBlackPressure = 0;
     private int divergenceTexture = 0;
+    // Semi-Lagrangian predictions for fields advected with MacCormack, otherwise 0.
+    private int velocityPredicted = 0;
+    private int dyePredicted = 0;
+
+    private CpuFluidSolver cpuSolver;
+    private int cpuDyeTexture = 0;
+    private HalfFloatField cpuDyeUpload;
 
     private boolean computeSupported = false;
     private boolean texturesReady = false;
 
-    private int gridSize = 1024;
+    // Cells along the longer side of the surface for velocity and pressure; the shorter side gets
+    // proportionally fewer.
+    private int gridSize = 512;
+    private int gridWidth = 0;
+    private int gridHeight = 0;
+    // Cell spacing per axis in units of a cell along the longer side, which velocities are measured
+    // in. One of the two is exactly 1; the other differs from it only by rounding of the cell count.
+    private float cellWidth = 1f;
+    private float cellHeight = 1f;
+    // The dye is only advected and drawn, so it can be finer than the simulation grid.
+    private int dyeGridSize = 1024;
+    private int dyeWidth = 0;
+    private int dyeHeight = 0;
+    private float dyeCellWidth = 1f;
+    private float dyeCellHeight = 1f;
     private int pressureIterations = 24;
+    private float velocityDissipation = DEFAULT_VELOCITY_DISSIPATION;
+    private float dyeDissipation = DEFAULT_DYE_DISSIPATION;
+    private float vorticity = DEFAULT_VORTICITY;
+    private PressureSolverType pressureSolver = PressureSolverType.JACOBI;
+    private AdvectionScheme velocityAdvection = AdvectionScheme.SEMI_LAGRANGIAN;
+    private AdvectionScheme dyeAdvection = AdvectionScheme.SEMI_LAGRANGIAN;
+    private float overRelaxation = DEFAULT_OVER_RELAXATION;
+    private float pressureTolerance = DEFAULT_PRESSURE_TOLERANCE;
     private int paletteId = 0;
 
     private int surfaceWidth = 1;
     private int surfaceHeight = 1;
+    private boolean surfaceSized = false;
 
     private long lastStepTimestampNs = 0L;
+    private float simulationRate = DEFAULT_SIMULATION_RATE;
+    private boolean dyeInterpolation = true;
+    private float stepAccumulator = 0f;
+    // Position of the displayed frame between the previous and the current tick, in [0, 1].
+    private float dyeBlend = 1f;
+    private int lastSubsteps = 0;
 
     public FluidSimulation(@NonNull Context context) {
         this.context = context;
+        texturePool = new TexturePool(context);
         fullscreenQuad.put(new float[]{
                 -1f, -1f, 0f, 0f,
                 1f, -1f, 1f, 0f,
@@ -95,7 +214,26 @@ public final class FluidSimulation {
         fullscreenQuad.position(0);
     }
 
+    /**
+     * Compiles the programs the first frames need and allocates the grids. Programs only some
+     * solvers or quality changes use are compiled later, one per frame, and with
+     * {@link #setProgressiveStartup progressive startup} the grids start small.
+     */
     public void onSurfaceCreated() {
+        startupTimeline.start(SystemClock.elapsedRealtimeNanos());
+        startupGridLimit = 0;
+        startupFrames = 0;
+        snapshotReadback.discard();
+        // Nothing survives to resample from; the fields start cleared and a snapshot restore,
+        // when there is one, supplies the state.
+        discardTextures();
+        // Created on demand; anything left from a lost context is gone with it.
+        resampleVelocity = null;
+        resampleDye = null;
+        macCormackVelocity = null;
+        macCormackDye = null;
+        redBlackProgram = null;
+        multigrid = null;
         fullscreenProgram = ShaderHandle.createFullscreenProgram(context);
         fullscreenVao = GlObjects.createFullscreenVao(fullscreenQuad);
         int program = fullscreenProgram.getProgram();
@@ -103,46 +241,93 @@ public final class FluidSimulation {
         densityUniform = GLES20.glGetUniformLocation(program, "uDensity");
         aspectUniform = GLES20.glGetUniformLocation(program, "uAspect");
         hasDensityUniform = GLES20.glGetUniformLocation(program, "uHasDensity");
+        previousDensityUniform = GLES20.glGetUniformLocation(program, "uPreviousDensity");
+        blendUniform = GLES20.glGetUniformLocation(program, "uBlend");
+        passTimer.setEnabled(passTimingRequested);
 
         computeSupported = isComputeSupported();
         if (!computeSupported) {
-            Log.w(TAG, "OpenGL ES 3.1 is unavailable; falling back to gradient rendering.");
+            Log.w(TAG, "OpenGL ES 3.1 is unavailable; falling back to the CPU solver.");
+            if (surfaceSized) {
+                rebuildCpuSolver();
+            }
             return;
         }
 
-        advectProgram = ComputeProgram.create(context, "shaders/advect.comp");
-        advectDtLocation = advectProgram.getUniformLocation("uDt");
-        advectDissipationLocation = advectProgram.getUniformLocation("uDissipation");
+        advectVelocity = new AdvectPass(context, FieldFormats.VELOCITY);
+        advectDye = new AdvectPass(context, FieldFormats.DYE);
 
-        splatProgram = ComputeProgram.create(context, "shaders/splat.comp");
-        splatPointLocation = splatProgram.getUniformLocation("uPoint");
-        splatDeltaLocation = splatProgram.getUniformLocation("uDelta");
-        splatColorLocation = splatProgram.getUniformLocation("uColor");
-        splatRadiusLocation = splatProgram.getUniformLocation("uRadius");
-        splatAspectLocation = splatProgram.getUniformLocation("uAspect");
-        splatVelocityLocation = splatProgram.getUniformLocation("uAffectsVelocity");
+        splats = new SplatBatch(context);
 
-        divergenceProgram = ComputeProgram.create(context, "shaders/divergence.comp");
+        divergenceProgram = ComputeProgram.create(context, "shaders/divergence.comp",
+                FieldFormats.VELOCITY_DEFINE, FieldFormats.DIVERGENCE_DEFINE);
         divergenceTexelLocation = divergenceProgram.getUniformLocation("uTexelSize");
 
-        jacobiProgram = ComputeProgram.create(context, "shaders/jacobi.comp");
+        jacobiProgram = ComputeProgram.create(context, "shaders/jacobi.comp",
+                FieldFormats.PRESSURE_DEFINE, FieldFormats.DIVERGENCE_DEFINE);
         jacobiAlphaLocation = jacobiProgram.getUniformLocation("uAlpha");
         jacobiRBetaLocation = jacobiProgram.getUniformLocation("uRBeta");
+        jacobiWeightLocation = jacobiProgram.getUniformLocation("uWeight");
 
-        projectProgram = ComputeProgram.create(context, "shaders/project.comp");
+        projectProgram = ComputeProgram.create(context, "shaders/project.comp",
+                FieldFormats.VELOCITY_DEFINE);
         projectTexelLocation = projectProgram.getUniformLocation("uTexelSize");
 
-        rebuildTextures();
+        vorticityProgram = ComputeProgram.create(context, "shaders/vorticity.comp",
+                FieldFormats.VELOCITY_DEFINE);
+        vorticityDtLocation = vorticityProgram.getUniformLocation("uDt");
+        vorticityStrengthLocation = vorticityProgram.getUniformLocation("uStrength");
+        vorticityTexelLocation = vorticityProgram.getUniformLocation("uTexelSize");
+
+        convergence = new ConvergenceMonitor(context);
+
+        velocityTiles = new ActiveTiles(context, FieldFormats.VELOCITY, VELOCITY_TILE_THRESHOLD,
+                VELOCITY_TILE_THRESHOLD);
+        dyeTiles = new ActiveTiles(context, FieldFormats.DYE, DYE_TILE_THRESHOLD,
+                VELOCITY_TILE_THRESHOLD);
+
+        startupGridLimit = progressiveStartup ? STARTUP_GRID_SIZE : 0;
+        // The grid follows the surface's aspect ratio, so allocation waits for its size.
+        if (surfaceSized) {
+            rebuildTextures();
+        }
     }
 
+    /**
+     * Records the surface size and reallocates the grid if the new aspect ratio changes its
+     * dimensions, resampling the simulation state onto it.
+     */
     public void onSurfaceChanged(int width, int height) {
         surfaceWidth = Math.max(width, 1);
         surfaceHeight = Math.max(height, 1);
+        surfaceSized = true;
+        if (computeSupported) {
+            rebuildResizedTextures();
+        } else if (fullscreenProgram != null) {
+            int cpuGridSize = Math.min(gridSize, CPU_MAX_GRID_SIZE);
+            if (cpuSolver == null || cpuSolver.getWidth() != gridCells(surfaceWidth, cpuGridSize)
+                    || cpuSolver.getHeight() != gridCells(surfaceHeight, cpuGridSize)) {
+                rebuildCpuSolver();
+            }
+        }
     }
 
     public void step() {
+        passTimer.poll();
+        snapshotReadback.poll();
+        if (velocityTiles != null) {
+            velocityTiles.poll();
+            dyeTiles.poll();
+        }
         drainTouches();
-        if (!computeSupported || !texturesReady) {
+        boolean gpuReady = computeSupported && texturesReady;
+        if (gpuReady && pendingRestore != null) {
+            restoreSnapshot(pendingRestore);
+        }
+        if (gpuReady && startupTimeline.hasFirstFrame()) {
+            progressStartup();
+        }
+        if (!gpuReady && cpuDyeTexture == 0) {
             return;
         }
         long now = SystemClock.elapsedRealtimeNanos();
@@ -150,10 +335,38 @@ public final class FluidSimulation {
             lastStepTimestampNs = now;
             return;
         }
-        float dt = (now - lastStepTimestampNs) / 1_000_000_000f;
+        float frameDt = (now - lastStepTimestampNs) / 1_000_000_000f;
         lastStepTimestampNs = now;
-        dt = Math.min(dt, MAX_TIMESTEP);
-        simulate(dt);
+        if (simulationRate <= 0f) {
+            tick(gpuReady, Math.min(frameDt, MAX_TIMESTEP));
+            lastSubsteps = 1;
+            dyeBlend = 1f;
+        } else {
+            float tickDt = 1f / simulationRate;
+            stepAccumulator += Math.min(frameDt, MAX_FRAME_DELTA);
+            int substeps = 0;
+            while (stepAccumulator >= tickDt && substeps < MAX_SUBSTEPS) {
+                tick(gpuReady, tickDt);
+                stepAccumulator -= tickDt;
+                substeps++;
+            }
+            if (stepAccumulator >= tickDt) {
+                stepAccumulator %= tickDt;
+            }
+            lastSubsteps = substeps;
+            dyeBlend = stepAccumulator / tickDt;
+        }
+        if (!gpuReady && lastSubsteps > 0) {
+            uploadCpuDye();
+        }
+    }
+
+    private void tick(boolean gpuReady, float dt) {
+        if (gpuReady) {
+            simulate(dt);
+        } else {
+            simulateCpu(dt);
+        }
     }
 
     public void render() {
@@ -161,54 +374,442 @@ public final class FluidSimulation {
         GLES20.glClearColor(0f, 0f, 0f, 1f);
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
         GLES20.glUseProgram(fullscreenProgram.getProgram());
+        passTimer.begin(PassTimer.Pass.RENDER);
         GLES30.glBindVertexArray(fullscreenVao);
         GLES20.glUniform1i(paletteUniform, paletteId);
         GLES20.glUniform1f(aspectUniform, surfaceWidth / (float) surfaceHeight);
         if (computeSupported && texturesReady) {
-            GLES20.glUniform1i(hasDensityUniform, 1);
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, dye.read());
-            GLES20.glUniform1i(densityUniform, 0);
+            // After a tick the other half of the dye pair still holds the tick before it.
+            boolean interpolate = dyeInterpolation && simulationRate > 0f;
+            bindDensity(dye.read(), interpolate ? dye.write() : dye.read(), interpolate ? dyeBlend : 1f);
+        } else if (cpuDyeTexture != 0) {
+            bindDensity(cpuDyeTexture, cpuDyeTexture, 1f);
         } else {
             GLES20.glUniform1i(hasDensityUniform, 0);
         }
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        passTimer.end(PassTimer.Pass.RENDER);
+        if (!startupTimeline.hasFirstFrame() && (texturesReady || cpuDyeTexture != 0)) {
+            long now = SystemClock.elapsedRealtimeNanos();
+            startupTimeline.markFirstFrame(now);
+            Log.i(TAG, String.format(Locale.ROOT, "First frame %.1f ms after context creation",
+                    startupTimeline.getFirstFrameMs()));
+            if (!computeSupported) {
+                // The CPU fallback has nothing to upgrade.
+                startupTimeline.markFullQuality(now);
+            }
+        }
         GLES30.glBindVertexArray(0);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
     }
 
-    public void setQuality(int gridSize, int pressureIterations) {
+    private void bindDensity(int current, int previous, float blend) {
+        GLES20.glUniform1i(hasDensityUniform, 1);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, current);
+        GLES20.glUniform1i(densityUniform, 0);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, previous);
+        GLES20.glUniform1i(previousDensityUniform, 1);
+        GLES20.glUniform1f(blendUniform, blend);
+    }
+
+    /**
+     * Sets the fixed simulation tick rate in Hz. Each frame runs as many ticks as the elapsed time
+     * calls for, up to a small bound, so the simulation costs the same at any display rate.
+     * {@code 0} instead steps once per frame by the frame interval.
+     */
+    public void setSimulationRate(float hz) {
+        simulationRate = Math.max(0f, hz);
+        stepAccumulator = 0f;
+    }
+
+    public float getSimulationRate() {
+        return simulationRate;
+    }
+
+    /**
+     * With a fixed tick rate, draws the dye blended between the last two ticks by how far the frame
+     * falls between them, instead of holding the latest tick.
+     */
+    public void setDyeInterpolation(boolean enabled) {
+        dyeInterpolation = enabled;
+    }
+
+    /** Simulation ticks run during the last {@link #step()}. */
+    public int getLastSubsteps() {
+        return lastSubsteps;
+    }
+
+    /**
+     * Sets the simulation grid (velocity and pressure), the dye grid and the pressure iterations.
+     * Grid sizes count cells along the longer side of the surface. Only the textures whose size
+     * changes are reallocated; velocity and dye are resampled into them, pressure starts from zero.
+     * The CPU fallback runs the dye on the simulation grid and restarts when its grid changes.
+     */
+    public void setQuality(int gridSize, int dyeGridSize, int pressureIterations) {
+        boolean gridChanged = gridSize != this.gridSize;
+        boolean dyeChanged = dyeGridSize != this.dyeGridSize;
         this.gridSize = gridSize;
+        this.dyeGridSize = dyeGridSize;
         this.pressureIterations = Math.max(1, pressureIterations);
-        if (computeSupported) {
-            rebuildTextures();
+        if (computeSupported && surfaceSized) {
+            if (gridChanged || !texturesReady) {
+                rebuildSimulationTextures();
+            }
+            if (dyeChanged || !texturesReady) {
+                rebuildDyeTextures();
+            }
+        } else if (cpuSolver != null && gridChanged) {
+            rebuildCpuSolver();
+        }
+    }
+
+    /**
+     * Changes only the pressure iteration count. Unlike {@link #setQuality} this keeps the current
+     * simulation state.
+     */
+    public void setPressureIterations(int pressureIterations) {
+        this.pressureIterations = Math.max(1, pressureIterations);
+    }
+
+    /**
+     * Sets the fraction of velocity and of dye kept per simulation tick. Takes effect on the next
+     * tick without touching the simulation state.
+     */
+    public void setDissipation(float velocityDissipation, float dyeDissipation) {
+        this.velocityDissipation = Math.max(0f, Math.min(velocityDissipation, 1f));
+        this.dyeDissipation = Math.max(0f, Math.min(dyeDissipation, 1f));
+    }
+
+    public float getVelocityDissipation() {
+        return velocityDissipation;
+    }
+
+    public float getDyeDissipation() {
+        return dyeDissipation;
+    }
+
+    /**
+     * Sets the vorticity confinement strength, in cells along the longer side. Confinement feeds
+     * back the small swirls advection smooths away, so a coarser grid keeps its detail; {@code 0}
+     * turns it off. Takes effect on the next tick.
+     */
+    public void setVorticity(float strength) {
+        vorticity = Math.max(0f, strength);
+        if (cpuSolver != null) {
+            cpuSolver.setVorticity(vorticity);
         }
     }
 
+    public float getVorticity() {
+        return vorticity;
+    }
+
+    /** Configured cells along the longer side of the surface. */
     public int getGridSize() {
         return gridSize;
     }
 
+    /** Configured dye cells along the longer side of the surface. */
+    public int getDyeGridSize() {
+        return dyeGridSize;
+    }
+
+    /** Cells along the longer side the grid runs at now; below the configured size during startup. */
+    public int getActiveGridSize() {
+        return startupGridLimit > 0 ? Math.min(gridSize, startupGridLimit) : gridSize;
+    }
+
+    public int getActiveDyeGridSize() {
+        return startupGridLimit > 0 ? Math.min(dyeGridSize, startupGridLimit) : dyeGridSize;
+    }
+
+    /**
+     * Whether a new context starts at a small grid and steps up to the configured sizes by
+     * resampling, rather than allocating full size before the first frame. On by default; takes
+     * effect at the next {@link #onSurfaceCreated()}.
+     */
+    public void setProgressiveStartup(boolean enabled) {
+        progressiveStartup = enabled;
+    }
+
+    /** Startup milestones of the current context. */
+    @NonNull
+    public StartupTimeline getStartupTimeline() {
+        return startupTimeline;
+    }
+
+    /** Allocated grid width in cells, or 0 before the surface has a size. */
+    public int getGridWidth() {
+        return computeSupported ? gridWidth : (cpuSolver != null ? cpuSolver.getWidth() : 0);
+    }
+
+    /** Allocated grid height in cells, or 0 before the surface has a size. */
+    public int getGridHeight() {
+        return computeSupported ? gridHeight : (cpuSolver != null ? cpuSolver.getHeight() : 0);
+    }
+
     public int getPressureIterations() {
         return pressureIterations;
     }
 
+    public void setPressureSolver(@NonNull PressureSolverType pressureSolver) {
+        this.pressureSolver = pressureSolver;
+        if (cpuSolver != null) {
+            cpuSolver.setPressureSolver(pressureSolver);
+        }
+        if (computeSupported && texturesReady) {
+            allocatePressure();
+        }
+    }
+
+    @NonNull
+    public PressureSolverType getPressureSolver() {
+        return pressureSolver;
+    }
+
+    /**
+     * Selects how velocity and dye are advected. {@link AdvectionScheme#MACCORMACK} keeps detail a
+     * first-order back-trace smears out, so a coarser grid looks as sharp, at about twice the
+     * advection cost of that field and one more texture the size of it.
+     */
+    public void setAdvectionScheme(@NonNull AdvectionScheme velocityScheme,
+                                   @NonNull AdvectionScheme dyeScheme) {
+        velocityAdvection = velocityScheme;
+        dyeAdvection = dyeScheme;
+        if (cpuSolver != null) {
+            cpuSolver.setAdvectionScheme(velocityScheme, dyeScheme);
+        }
+        if (computeSupported && texturesReady) {
+            allocateVelocityPrediction();
+            allocateDyePrediction();
+        }
+    }
+
+    @NonNull
+    public AdvectionScheme getVelocityAdvection() {
+        return velocityAdvection;
+    }
+
+    @NonNull
+    public AdvectionScheme getDyeAdvection() {
+        return dyeAdvection;
+    }
+
+    /**
+     * Sets the red-black over-relaxation factor. 1 is plain Gauss-Seidel; values towards 2 speed up
+     * convergence of smooth pressure error. Clamped to keep the iteration stable.
+     */
+    public void setOverRelaxation(float omega) {
+        overRelaxation = Math.max(1f, Math.min(omega, 1.95f));
+        if (cpuSolver != null) {
+            cpuSolver.setOverRelaxation(overRelaxation);
+        }
+    }
+
+    public float getOverRelaxation() {
+        return overRelaxation;
+    }
+
+    /**
+     * Sets the RMS residual at which the pressure solve stops before using all of its iterations.
+     * {@code 0} disables the residual checks and always runs the configured iterations.
+     */
+    public void setPressureTolerance(float tolerance) {
+        pressureTolerance = Math.max(0f, tolerance);
+        if (cpuSolver != null) {
+            cpuSolver.setPressureTolerance(pressureTolerance);
+        }
+    }
+
+    public float getPressureTolerance() {
+        return pressureTolerance;
+    }
+
+    /**
+     * Pressure iterations (V-cycles for multigrid) the most recently measured frame actually ran.
+     * With a tolerance set on the GPU path this trails the current frame by a frame or two.
+     */
+    public int getPressureIterationsUsed() {
+        if (!computeSupported) {
+            return cpuSolver != null ? cpuSolver.getLastPressureSteps() : 0;
+        }
+        return pressureTolerance > 0f ? convergence.getLastIterations() : lastPressureIterations;
+    }
+
+    /**
+     * RMS pressure residual after the most recently measured solve, or NaN without a tolerance.
+     */
+    public float getPressureResidual() {
+        if (!computeSupported) {
+            return cpuSolver != null ? cpuSolver.getLastResidualRms() : Float.NaN;
+        }
+        return pressureTolerance > 0f ? convergence.getLastResidualRms() : Float.NaN;
+    }
+
+    /**
+     * Field textures currently allocated on the GPU, including released ones kept for reuse. A
+     * count that grows across quality changes or resets is a leak.
+     */
+    public int getLiveTextureCount() {
+        return texturePool.getLiveTextureCount();
+    }
+
+    /**
+     * Field textures currently handed out by the pool, i.e. live textures not kept for reuse.
+     * Settles at the same count after a quality change is undone or after a reset.
+     */
+    public int getAcquiredTextureCount() {
+        return texturePool.getAcquiredTextureCount();
+    }
+
+    /** Bytes of texture storage behind {@link #getLiveTextureCount()}. */
+    public long getLiveTextureBytes() {
+        return texturePool.getLiveBytes();
+    }
+
+    /**
+     * Turns per-pass GPU and CPU timing on or off; see {@link PassTimer}. Off by default, and free
+     * when off.
+     */
+    public void setPassTimingEnabled(boolean enabled) {
+        passTimingRequested = enabled;
+        if (fullscreenProgram != null) {
+            passTimer.setEnabled(enabled);
+        }
+    }
+
+    /**
+     * Whether advection and projection run only on the tiles where velocity or dye is non-negligible
+     * and their halo; see {@link ActiveTiles}. On by default. Off, every tile is simulated.
+     */
+    public void setSparseTiles(boolean enabled) {
+        sparseTiles = enabled;
+    }
+
+    public boolean isSparseTiles() {
+        return sparseTiles;
+    }
+
+    /**
+     * Fraction of the simulation grid's tiles, and of the dye grid's, that a recent tick
+     * simulated; 1 without the GPU solver. Trails the current frame by a frame or two.
+     */
+    public float getVelocityTileCoverage() {
+        return velocityTiles != null ? velocityTiles.getCoverage() : 1f;
+    }
+
+    public float getDyeTileCoverage() {
+        return dyeTiles != null ? dyeTiles.getCoverage() : 1f;
+    }
+
+    /** Per-pass timings; all zero while timing is disabled. */
+    @NonNull
+    public PassTimer getPassTimer() {
+        return passTimer;
+    }
+
     public void setPalette(int paletteId) {
         this.paletteId = paletteId;
     }
 
-    public void enqueueTouch(float x, float y, float dx, float dy, int colorId) {
-        touchQueue.add(new TouchEvent(x, y, dx, dy, colorId));
+    /**
+     * Queues a touch sample in surface pixels. Unlike the other methods this is called directly
+     * from the UI thread, which must be the only caller; it does not allocate.
+     */
+    public void enqueueTouch(float x, float y, float dx, float dy, int colorId, int pointerId) {
+        touchQueue.add(x, y, dx, dy, colorId, pointerId);
+    }
+
+    /**
+     * Like {@link #enqueueTouch}, for samples produced on the GL thread. They are applied together
+     * with the UI thread's, after them.
+     */
+    public void injectTouch(float x, float y, float dx, float dy, int colorId, int pointerId) {
+        injectedTouches.add(x, y, dx, dy, colorId, pointerId);
+    }
+
+    /**
+     * Starts saving velocity and dye to {@code file}. The textures are read back asynchronously
+     * and the file is written on a background thread, so this returns at once and the file
+     * appears a few frames later. Returns false if a snapshot is still in flight or there is
+     * nothing to save; the CPU fallback has no snapshots.
+     */
+    public boolean saveSnapshot(@NonNull File file) {
+        if (!computeSupported || !texturesReady) {
+            return false;
+        }
+        return snapshotReadback.start(file, velocity.read(), gridWidth, gridHeight,
+                dye.read(), dyeWidth, dyeHeight, getActiveGridSize(), getActiveDyeGridSize());
+    }
+
+    /**
+     * Waits for the readback started by {@link #saveSnapshot} and hands it to the writer, for
+     * when the GL thread is about to stop drawing frames.
+     */
+    public void finishSnapshot() {
+        snapshotReadback.finish();
+    }
+
+    /**
+     * Runs {@code task} on a background thread after every snapshot saved so far has been written,
+     * e.g. to read the file back once a new context starts without racing the pause's save.
+     */
+    public void afterSnapshotWrites(@NonNull Runnable task) {
+        snapshotReadback.afterWrites(task);
+    }
+
+    /**
+     * Replaces velocity and dye with {@code snapshot}, resampling fields whose size differs from
+     * the current grids. Before the textures exist the snapshot is kept and applied once they do.
+     * Decode the file off the GL thread with {@code SnapshotFile.read}; this only uploads.
+     */
+    public void restoreSnapshot(@NonNull FieldSnapshot snapshot) {
+        if (!computeSupported && fullscreenProgram != null) {
+            Log.w(TAG, "Snapshots need the GPU solver; restore skipped.");
+            return;
+        }
+        if (!texturesReady) {
+            pendingRestore = snapshot;
+            return;
+        }
+        pendingRestore = null;
+        long start = SystemClock.elapsedRealtimeNanos();
+        if (startupGridLimit > 0) {
+            // Stepping up would blur the restored state; go to full size while it is still empty.
+            startupGridLimit = 0;
+            rebuildResizedTextures();
+        }
+        HalfFloatField oldVelocity = snapshot.velocity;
+        HalfFloatField oldDye = snapshot.dye;
+        float velocityScale = Math.max(gridWidth, gridHeight)
+                / (float) Math.max(oldVelocity.getWidth(), oldVelocity.getHeight());
+        uploadField(resampleVelocityPass(), oldVelocity, velocity, gridWidth, gridHeight, velocityScale);
+        uploadField(resampleDyePass(), oldDye, dye, dyeWidth, dyeHeight, 1f);
+        clearPressure();
+        texturePool.clear(divergenceTexture);
+        dyeBlend = 1f;
+        lastStepTimestampNs = 0L;
+        stepAccumulator = 0f;
+        Log.i(TAG, String.format(Locale.ROOT, "Snapshot restored in %.1f ms",
+                (SystemClock.elapsedRealtimeNanos() - start) / 1_000_000f));
     }
 
     public void reset() {
+        if (cpuSolver != null) {
+            cpuSolver.clear();
+        }
         if (!texturesReady) {
             return;
         }
         velocity.clear();
         dye.clear();
-        pressure.clear();
-        clearTexture(divergenceTexture);
+        clearPressure();
+        texturePool.clear(divergenceTexture);
     }
 
     public void destroy() {
@@ -222,277 +823,765 @@ public final class FluidSimulation {
             fullscreenVao = 0;
         }
         destroyTextures();
-        advectProgram = closeProgram(advectProgram);
-        splatProgram = closeProgram(splatProgram);
+        if (multigrid != null) {
+            multigrid.close();
+            multigrid = null;
+        }
+        if (convergence != null) {
+            convergence.close();
+            convergence = null;
+        }
+        if (splats != null) {
+            splats.close();
+            splats = null;
+        }
+        if (velocityTiles != null) {
+            velocityTiles.close();
+            dyeTiles.close();
+            velocityTiles = null;
+            dyeTiles = null;
+        }
+        destroyCpuDyeTexture();
+        texturePool.close();
+        passTimer.close();
+        snapshotReadback.close();
+        if (cpuSolver != null) {
+            cpuSolver.close();
+            cpuSolver = null;
+        }
+        if (advectVelocity != null) {
+            advectVelocity.program.close();
+            advectDye.program.close();
+            advectVelocity = null;
+            advectDye = null;
+        }
+        if (resampleVelocity != null) {
+            resampleVelocity.program.close();
+            resampleVelocity = null;
+        }
+        if (resampleDye != null) {
+            resampleDye.program.close();
+            resampleDye = null;
+        }
+        if (macCormackVelocity != null) {
+            macCormackVelocity.program.close();
+            macCormackVelocity = null;
+        }
+        if (macCormackDye != null) {
+            macCormackDye.program.close();
+            macCormackDye = null;
+        }
         divergenceProgram = closeProgram(divergenceProgram);
         jacobiProgram = closeProgram(jacobiProgram);
+        redBlackProgram = closeProgram(redBlackProgram);
         projectProgram = closeProgram(projectProgram);
+        vorticityProgram = closeProgram(vorticityProgram);
         computeSupported = false;
         texturesReady = false;
     }
 
     private void simulate(float dt) {
+        passTimer.begin(PassTimer.Pass.SPLAT);
         applyPendingSplats();
+        passTimer.end(PassTimer.Pass.SPLAT);
+
+        // Classified after the splats so that new strokes are hot on the tick they land. The dye
+        // is classified against the velocity before it is advected; the halo covers the difference.
+        passTimer.begin(PassTimer.Pass.TILES);
+        velocityTiles.update(velocity.read(), velocity.read(), sparseTiles);
+        dyeTiles.update(dye.read(), velocity.read(), sparseTiles);
+        passTimer.end(PassTimer.Pass.TILES);
+
+        passTimer.begin(PassTimer.Pass.ADVECT_VELOCITY);
+        advectField(advectVelocity, velocityPredicted != 0 ? macCormackVelocityPass() : null,
+                velocityPredicted, velocity, velocityTiles, dt, velocityDissipation,
+                cellWidth, cellHeight);
+        passTimer.end(PassTimer.Pass.ADVECT_VELOCITY);
+        passTimer.begin(PassTimer.Pass.ADVECT_DYE);
+        advectField(advectDye, dyePredicted != 0 ? macCormackDyePass() : null, dyePredicted,
+                dye, dyeTiles, dt, dyeDissipation, dyeCellWidth, dyeCellHeight);
+        passTimer.end(PassTimer.Pass.ADVECT_DYE);
+
+        if (vorticity > 0f) {
+            passTimer.begin(PassTimer.Pass.VORTICITY);
+            confineVorticity(dt);
+            passTimer.end(PassTimer.Pass.VORTICITY);
+        }
 
-        advectField(velocity, velocity, dt, VELOCITY_DISSIPATION);
-        advectField(dye, dye, dt, DYE_DISSIPATION);
-
+        passTimer.begin(PassTimer.Pass.DIVERGENCE);
         computeDivergence();
-        pressure.clear();
-        for (int i = 0; i < pressureIterations; i++) {
-            jacobiIteration();
-        }
+        passTimer.end(PassTimer.Pass.DIVERGENCE);
+        passTimer.begin(PassTimer.Pass.PRESSURE);
+        solvePressure();
+        passTimer.end(PassTimer.Pass.PRESSURE);
+        passTimer.begin(PassTimer.Pass.PROJECT);
         projectVelocity();
+        passTimer.end(PassTimer.Pass.PROJECT);
+    }
+
+    private void simulateCpu(float dt) {
+        applyPendingCpuSplats();
+        int pressureSteps = pressureSolver == PressureSolverType.MULTIGRID
+                ? multigridCycles() : pressureIterations;
+        cpuSolver.step(dt, velocityDissipation, dyeDissipation, pressureSteps);
+    }
+
+    private void uploadCpuDye() {
+        cpuSolver.readDye(cpuDyeUpload);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, cpuDyeTexture);
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0,
+                cpuSolver.getWidth(), cpuSolver.getHeight(),
+                GLES20.GL_RGBA, GLES30.GL_HALF_FLOAT, cpuDyeUpload.getBuffer());
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
     }
 
     private void applyPendingSplats() {
-        TouchEvent evt;
-        while ((evt = touchQueue.poll()) != null) {
-            float width = Math.max(surfaceWidth, 1);
-            float height = Math.max(surfaceHeight, 1);
-            float px = evt.x / width;
-            float py = 1f - evt.y / height;
-            float aspect = width / height;
-            float velocityScale = gridSize * SPLAT_FORCE;
-            float vx = (evt.dx / width) * velocityScale;
-            float vy = (-evt.dy / height) * velocityScale;
-            float[] color = paletteColor(evt.colorId);
-
-            runSplat(velocity, px, py, aspect, SPLAT_RADIUS, vx, vy, 0f, true);
-            runSplat(dye, px, py, aspect, SPLAT_RADIUS, 0f, 0f,
-                    color[0], color[1], color[2], false);
-        }
-    }
-
-    private void runSplat(PingPongTexture target, float px, float py, float aspect,
-                          float radius, float vx, float vy, float colorR, float colorG, float colorB,
-                          boolean affectsVelocity) {
-        splatProgram.use();
-        GLES31.glUniform2f(splatPointLocation, px, py);
-        GLES31.glUniform2f(splatDeltaLocation, vx, vy);
-        GLES31.glUniform3f(splatColorLocation, colorR, colorG, colorB);
-        GLES31.glUniform1f(splatRadiusLocation, radius);
-        GLES31.glUniform1f(splatAspectLocation, aspect);
-        GLES31.glUniform1i(splatVelocityLocation, affectsVelocity ? 1 : 0);
-        bindImage(0, target.write(), GLES31.GL_WRITE_ONLY);
-        bindImage(1, target.read(), GLES31.GL_READ_ONLY);
-        dispatch(gridSize, gridSize);
-        target.swap();
-    }
-
-    private void runSplat(PingPongTexture target, float px, float py, float aspect,
-                          float radius, float vx, float vy, float color, boolean affectsVelocity) {
-        runSplat(target, px, py, aspect, radius, vx, vy, color, color, color, affectsVelocity);
-    }
-
-    private void advectField(PingPongTexture target, PingPongTexture source, float dt, float dissipation) {
-        advectProgram.use();
-        GLES31.glUniform1f(advectDtLocation, dt);
-        GLES31.glUniform1f(advectDissipationLocation, dissipation);
-        bindImage(0, target.write(), GLES31.GL_WRITE_ONLY);
-        bindImage(1, source.read(), GLES31.GL_READ_ONLY);
-        bindImage(2, velocity.read(), GLES31.GL_READ_ONLY);
-        dispatch(gridSize, gridSize);
-        target.swap();
+        touchQueue.drain(gpuSplat, GPU_TOUCH_BUDGET);
+        injectedTouches.drain(gpuSplat, GPU_TOUCH_BUDGET);
+        flushSplats();
+    }
+
+    private void flushSplats() {
+        float aspect = (gridWidth * cellWidth) / (gridHeight * cellHeight);
+        splats.apply(velocity.read(), gridWidth, gridHeight, dye.read(), dyeWidth, dyeHeight, aspect);
+    }
+
+    private void applyGpuSplat(float x, float y, float dx, float dy, int colorId) {
+        float px = x / surfaceWidth;
+        float py = 1f - y / surfaceHeight;
+        // Pixels map to the same number of velocity units on both axes.
+        float velocityScale = getActiveGridSize() * SPLAT_FORCE / Math.max(surfaceWidth, surfaceHeight);
+        float vx = dx * velocityScale;
+        float vy = -dy * velocityScale;
+        float[] color = paletteColor(colorId);
+
+        splats.add(px, py, SPLAT_RADIUS, vx, vy, color[0], color[1], color[2]);
+        if (splats.isFull()) {
+            flushSplats();
+        }
+    }
+
+    private void applyPendingCpuSplats() {
+        touchQueue.drain(cpuSplat, CPU_TOUCH_BUDGET);
+        injectedTouches.drain(cpuSplat, CPU_TOUCH_BUDGET);
+    }
+
+    private void applyCpuSplat(float x, float y, float dx, float dy, int colorId) {
+        float px = x / surfaceWidth;
+        float py = 1f - y / surfaceHeight;
+        float aspect = surfaceWidth / (float) surfaceHeight;
+        int longCells = Math.max(cpuSolver.getWidth(), cpuSolver.getHeight());
+        float velocityScale = longCells * SPLAT_FORCE / Math.max(surfaceWidth, surfaceHeight);
+        float vx = dx * velocityScale;
+        float vy = -dy * velocityScale;
+        float[] color = paletteColor(colorId);
+        cpuSolver.splat(px, py, aspect, SPLAT_RADIUS, vx, vy, color[0], color[1], color[2]);
+    }
+
+    /**
+     * Advects the listed tiles of {@code field}, a grid with the given cell spacing, along the
+     * velocity field. The shader samples velocity with filtering, so the field may be finer than
+     * the simulation grid. With a {@code correction} pass the back-trace is only a prediction,
+     * written undissipated into {@code predicted} and then corrected MacCormack-style.
+     */
+    private void advectField(AdvectPass pass, MacCormackPass correction, int predicted,
+                             PingPongTexture field, ActiveTiles tiles, float dt, float dissipation,
+                             float texelWidth, float texelHeight) {
+        pass.program.use();
+        GLES31.glUniform1f(pass.dtLocation, dt);
+        GLES31.glUniform1f(pass.dissipationLocation, correction != null ? 1f : dissipation);
+        GLES31.glUniform2f(pass.texelLocation, texelWidth, texelHeight);
+        ComputeProgram.bindImage(0, correction != null ? predicted : field.write(),
+                GLES31.GL_WRITE_ONLY, field.format());
+        ComputeProgram.bindImage(1, field.read(), GLES31.GL_READ_ONLY, field.format());
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, velocity.read());
+        tiles.dispatch();
+        if (correction != null) {
+            correction.program.use();
+            GLES31.glUniform1f(correction.dtLocation, dt);
+            GLES31.glUniform1f(correction.dissipationLocation, dissipation);
+            GLES31.glUniform2f(correction.texelLocation, texelWidth, texelHeight);
+            ComputeProgram.bindImage(0, field.write(), GLES31.GL_WRITE_ONLY, field.format());
+            ComputeProgram.bindImage(2, predicted, GLES31.GL_READ_ONLY, field.format());
+            tiles.dispatch();
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        field.swap();
+    }
+
+    /**
+     * Adds the vorticity confinement force on the listed tiles. The curl lives only in each
+     * workgroup's shared memory, so this is a single dispatch with no curl texture.
+     */
+    private void confineVorticity(float dt) {
+        vorticityProgram.use();
+        GLES31.glUniform1f(vorticityDtLocation, dt);
+        GLES31.glUniform1f(vorticityStrengthLocation, vorticity);
+        GLES31.glUniform2f(vorticityTexelLocation, cellWidth, cellHeight);
+        ComputeProgram.bindImage(0, velocity.write(), GLES31.GL_WRITE_ONLY, FieldFormats.VELOCITY);
+        ComputeProgram.bindImage(1, velocity.read(), GLES31.GL_READ_ONLY, FieldFormats.VELOCITY);
+        velocityTiles.dispatch();
+        velocity.swap();
     }
 
     private void computeDivergence() {
         divergenceProgram.use();
-        float texelX = 1f / gridSize;
-        float texelY = 1f / gridSize;
-        GLES31.glUniform2f(divergenceTexelLocation, texelX, texelY);
-        bindImage(0, divergenceTexture, GLES31.GL_WRITE_ONLY);
-        bindImage(1, velocity.read(), GLES31.GL_READ_ONLY);
-        dispatch(gridSize, gridSize);
+        GLES31.glUniform2f(divergenceTexelLocation, cellWidth, cellHeight);
+        ComputeProgram.bindImage(0, divergenceTexture, GLES31.GL_WRITE_ONLY, FieldFormats.DIVERGENCE);
+        ComputeProgram.bindImage(1, velocity.read(), GLES31.GL_READ_ONLY, FieldFormats.VELOCITY);
+        ComputeProgram.dispatch(gridWidth, gridHeight);
+    }
+
+    /**
+     * Improves last frame's pressure, which is kept as the initial guess. With a tolerance set,
+     * Jacobi and red-black relaxation run through {@link ConvergenceMonitor}: the residual is
+     * measured before the first iteration and every {@link #RESIDUAL_CHECK_INTERVAL} iterations,
+     * and the remaining dispatches are emptied on the GPU once it is met. Multigrid always runs its
+     * cycles and only has its final residual measured. The relaxation stencils treat cells as
+     * square, which holds to within the rounding of {@link #gridCells}.
+     */
+    private void solvePressure() {
+        convergence.poll();
+        boolean monitored = pressureTolerance > 0f && convergence.isAllocated();
+        if (pressureSolver == PressureSolverType.MULTIGRID && multigrid != null && multigrid.isAllocated()) {
+            int cycles = multigridCycles();
+            multigrid.solve(pressure, divergenceTexture, cycles);
+            lastPressureIterations = cycles;
+            if (monitored) {
+                convergence.begin(gridWidth, gridHeight);
+                convergence.check(pressure.read(), divergenceTexture, cycles, 0f);
+                convergence.finish();
+            }
+            return;
+        }
+        boolean redBlack = pressureSolver == PressureSolverType.RED_BLACK;
+        if (!monitored) {
+            for (int i = 0; i < pressureIterations; i++) {
+                relaxPressure(redBlack);
+            }
+            lastPressureIterations = pressureIterations;
+            return;
+        }
+        // Jacobi runs in pairs so that skipped iterations keep the ping-pong parity.
+        int iterations = redBlack ? pressureIterations : (pressureIterations + 1) & ~1;
+        convergence.begin(redBlack ? (gridWidth + 1) / 2 : gridWidth, gridHeight);
+        convergence.check(pressureTexture(), divergenceTexture, 0, pressureTolerance);
+        indirectRelax = true;
+        for (int done = 0; done < iterations; ) {
+            int block = Math.min(RESIDUAL_CHECK_INTERVAL, iterations - done);
+            for (int i = 0; i < block; i++) {
+                relaxPressure(redBlack);
+            }
+            done += block;
+            convergence.check(pressureTexture(), divergenceTexture, block, pressureTolerance);
+        }
+        indirectRelax = false;
+        convergence.finish();
+    }
+
+    private void relaxPressure(boolean redBlack) {
+        if (redBlack) {
+            redBlackIteration();
+        } else {
+            jacobiIteration();
+        }
+    }
+
+    private void dispatchRelax(int width, int height) {
+        if (indirectRelax) {
+            convergence.dispatchRelax();
+        } else {
+            ComputeProgram.dispatch(width, height);
+        }
     }
 
     private void jacobiIteration() {
         jacobiProgram.use();
         GLES31.glUniform1f(jacobiAlphaLocation, -1f);
         GLES31.glUniform1f(jacobiRBetaLocation, 0.25f);
-        bindImage(0, pressure.write(), GLES31.GL_WRITE_ONLY);
-        bindImage(1, pressure.read(), GLES31.GL_READ_ONLY);
-        bindImage(2, divergenceTexture, GLES31.GL_READ_ONLY);
-        dispatch(gridSize, gridSize);
+        GLES31.glUniform1f(jacobiWeightLocation, 1f);
+        ComputeProgram.bindImage(0, pressure.write(), GLES31.GL_WRITE_ONLY, FieldFormats.PRESSURE);
+        ComputeProgram.bindImage(1, pressure.read(), GLES31.GL_READ_ONLY, FieldFormats.PRESSURE);
+        ComputeProgram.bindImage(2, divergenceTexture, GLES31.GL_READ_ONLY, FieldFormats.DIVERGENCE);
+        dispatchRelax(gridWidth, gridHeight);
         pressure.swap();
     }
 
+    /**
+     * One red sweep followed by one black sweep. Each half dispatch packs two cells per invocation
+     * along x and updates the pressure image in place.
+     */
+    private void redBlackIteration() {
+        redBlackProgram.use();
+        GLES31.glUniform1f(redBlackAlphaLocation, -1f);
+        GLES31.glUniform1f(redBlackRBetaLocation, 0.25f);
+        GLES31.glUniform1f(redBlackOmegaLocation, overRelaxation);
+        ComputeProgram.bindImage(0, redBlackPressure, GLES31.GL_READ_WRITE, TextureFormat.R32F);
+        ComputeProgram.bindImage(1, divergenceTexture, GLES31.GL_READ_ONLY, FieldFormats.DIVERGENCE);
+        int halfWidth = (gridWidth + 1) / 2;
+        GLES31.glUniform1i(redBlackParityLocation, 0);
+        dispatchRelax(halfWidth, gridHeight);
+        GLES31.glUniform1i(redBlackParityLocation, 1);
+        dispatchRelax(halfWidth, gridHeight);
+    }
+
+    /**
+     * Subtracts the pressure gradient on the tiles listed for this tick, in place so that the
+     * other tiles keep their velocity.
+     */
     private void projectVelocity() {
         projectProgram.use();
-        float texelX = 1f / gridSize;
-        float texelY = 1f / gridSize;
-        GLES31.glUniform2f(projectTexelLocation, texelX, texelY);
-        bindImage(0, velocity.write(), GLES31.GL_WRITE_ONLY);
-        bindImage(1, velocity.read(), GLES31.GL_READ_ONLY);
-        bindImage(2, pressure.read(), GLES31.GL_READ_ONLY);
-        dispatch(gridSize, gridSize);
-        velocity.swap();
+        GLES31.glUniform2f(projectTexelLocation, cellWidth, cellHeight);
+        ComputeProgram.bindImage(0, velocity.read(), GLES31.GL_WRITE_ONLY, FieldFormats.VELOCITY);
+        ComputeProgram.bindImage(1, velocity.read(), GLES31.GL_READ_ONLY, FieldFormats.VELOCITY);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, pressureTexture());
+        velocityTiles.dispatch();
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    }
+
+    private int pressureTexture() {
+        return pressureSolver == PressureSolverType.RED_BLACK ? redBlackPressure : pressure.read();
+    }
+
+    private int multigridCycles() {
+        return Math.max(1, (pressureIterations + ITERATIONS_PER_V_CYCLE - 1) / ITERATIONS_PER_V_CYCLE);
+    }
+
+    /**
+     * Allocates the pressure storage the selected solver needs and releases the rest: a single
+     * R32F image for red-black, otherwise a ping-pong pair plus the multigrid pyramid if selected.
+     */
+    private void allocatePressure() {
+        destroyPressure();
+        if (pressureSolver == PressureSolverType.RED_BLACK) {
+            createRedBlackProgram();
+            // Read-write images must be R32F whatever the pressure format.
+            redBlackPressure = texturePool.acquire(gridWidth, gridHeight, TextureFormat.R32F);
+        } else {
+            pressure.allocate(texturePool, gridWidth, gridHeight, FieldFormats.PRESSURE);
+            if (pressureSolver == PressureSolverType.MULTIGRID) {
+                createMultigrid();
+                multigrid.allocate(gridWidth, gridHeight);
+            }
+        }
+        clearPressure();
+        texturesReady = velocity.isValid() && dye.isValid() && isPressureValid() && divergenceTexture != 0;
+    }
+
+    private boolean isPressureValid() {
+        return pressureSolver == PressureSolverType.RED_BLACK ? redBlackPressure != 0 : pressure.isValid();
     }
 
-    private void dispatch(int width, int height) {
-        int groupsX = (width + 7) / 8;
-        int groupsY = (height + 7) / 8;
-        GLES31.glDispatchCompute(groupsX, groupsY, 1);
-        GLES31.glMemoryBarrier(GLES31.GL_SHADER_IMAGE_ACCESS_BARRIER_BIT);
+    private void clearPressure() {
+        pressure.clear();
+        texturePool.clear(redBlackPressure);
     }
 
-    private void bindImage(int unit, int texture, int access) {
-        GLES31.glBindImageTexture(unit, texture, 0, false, 0, access, GLES30.GL_RGBA16F);
+    private void destroyPressure() {
+        if (multigrid != null) {
+            multigrid.destroyLevels();
+        }
+        pressure.destroy();
+        texturePool.release(redBlackPressure);
+        redBlackPressure = 0;
     }
 
     private void drainTouches() {
-        if (!computeSupported) {
+        if (!computeSupported && cpuSolver == null) {
             touchQueue.clear();
+            injectedTouches.clear();
         }
     }
 
-    private void rebuildTextures() {
-        destroyTextures();
-        velocity.allocate(gridSize, gridSize);
-        dye.allocate(gridSize, gridSize);
-        pressure.allocate(gridSize, gridSize);
-        divergenceTexture = createTexture(gridSize, gridSize);
+    private void rebuildCpuSolver() {
+        if (cpuSolver == null) {
+            cpuSolver = new CpuFluidSolver();
+            cpuSolver.setPressureSolver(pressureSolver);
+            cpuSolver.setOverRelaxation(overRelaxation);
+            cpuSolver.setPressureTolerance(pressureTolerance);
+            cpuSolver.setAdvectionScheme(velocityAdvection, dyeAdvection);
+            cpuSolver.setVorticity(vorticity);
+        }
+        int size = Math.min(gridSize, CPU_MAX_GRID_SIZE);
+        int width = gridCells(surfaceWidth, size);
+        int height = gridCells(surfaceHeight, size);
+        cpuSolver.resize(width, height);
+        cpuSolver.setCellSize(cellSize(surfaceWidth, width, size), cellSize(surfaceHeight, height, size));
+        destroyCpuDyeTexture();
+        cpuDyeTexture = texturePool.acquire(width, height, FieldFormats.DYE);
+        if (cpuDyeUpload == null || cpuDyeUpload.getWidth() != width || cpuDyeUpload.getHeight() != height) {
+            cpuDyeUpload = new HalfFloatField(width, height, 4);
+        }
         lastStepTimestampNs = 0L;
-        clearTexture(divergenceTexture);
-        velocity.clear();
-        dye.clear();
-        pressure.clear();
-        texturesReady = velocity.isValid() && dye.isValid() && pressure.isValid() && divergenceTexture != 0;
+        stepAccumulator = 0f;
     }
 
-    private void destroyTextures() {
-        velocity.destroy();
-        dye.destroy();
-        pressure.destroy();
-        if (divergenceTexture != 0) {
-            int[] tex = new int[]{divergenceTexture};
-            GLES20.glDeleteTextures(1, tex, 0);
-            divergenceTexture = 0;
+    private void destroyCpuDyeTexture() {
+        texturePool.release(cpuDyeTexture);
+        cpuDyeTexture = 0;
+    }
+
+    private void rebuildTextures() {
+        rebuildSimulationTextures();
+        rebuildDyeTextures();
+    }
+
+    /** Reallocates the fields whose size no longer matches the surface and the active grid sizes. */
+    private void rebuildResizedTextures() {
+        if (!velocity.isValid() || gridWidth != gridCells(surfaceWidth, getActiveGridSize())
+                || gridHeight != gridCells(surfaceHeight, getActiveGridSize())) {
+            rebuildSimulationTextures();
+        }
+        if (!dye.isValid() || dyeWidth != gridCells(surfaceWidth, getActiveDyeGridSize())
+                || dyeHeight != gridCells(surfaceHeight, getActiveDyeGridSize())) {
+            rebuildDyeTextures();
         }
     }
 
-    private static ComputeProgram closeProgram(ComputeProgram program) {
-        if (program != null) {
-            program.close();
+    /**
+     * Moves startup along by one frame's worth of work: compiles one deferred program, or failing
+     * that every {@link #STARTUP_STEP_FRAMES} frames doubles the grid limit and resamples the live
+     * state onto the larger grids. Keeping to one of the two per frame spreads the cost out.
+     */
+    private void progressStartup() {
+        if (compileDeferredProgram()) {
+            return;
+        }
+        if (startupGridLimit > 0) {
+            if (++startupFrames >= STARTUP_STEP_FRAMES) {
+                startupFrames = 0;
+                startupGridLimit *= 2;
+                if (startupGridLimit >= Math.max(gridSize, dyeGridSize)) {
+                    startupGridLimit = 0;
+                }
+                rebuildResizedTextures();
+            }
+            return;
+        }
+        if (!startupTimeline.hasFullQuality()) {
+            startupTimeline.markFullQuality(SystemClock.elapsedRealtimeNanos());
+            Log.i(TAG, String.format(Locale.ROOT, "Full quality %.1f ms after context creation",
+                    startupTimeline.getFullQualityMs()));
         }
-        return null;
     }
 
-    private boolean isComputeSupported() {
-        String version = GLES20.glGetString(GLES20.GL_VERSION);
-        if (version == null) {
+    /**
+     * Compiles one of the programs {@link #onSurfaceCreated()} left out, so each is ready before
+     * it is needed without one frame paying for all of them. Returns false when none are left.
+     */
+    private boolean compileDeferredProgram() {
+        if (resampleVelocity == null) {
+            resampleVelocityPass();
+        } else if (resampleDye == null) {
+            resampleDyePass();
+        } else if (redBlackProgram == null) {
+            createRedBlackProgram();
+        } else if (multigrid == null) {
+            createMultigrid();
+        } else {
             return false;
         }
-        return version.contains("OpenGL ES 3.1") || version.contains("OpenGL ES 3.2") || version.contains("OpenGL ES 3.0.1");
+        return true;
     }
 
-    private static int createTexture(int width, int height) {
-        int[] tex = new int[1];
-        GLES20.glGenTextures(1, tex, 0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, tex[0]);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-        GLES30.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES30.GL_RGBA16F, width, height, 0,
-                GLES20.GL_RGBA, GLES30.GL_HALF_FLOAT, null);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-        return tex[0];
+    private ResamplePass resampleVelocityPass() {
+        if (resampleVelocity == null) {
+            resampleVelocity = new ResamplePass(context, FieldFormats.VELOCITY);
+        }
+        return resampleVelocity;
+    }
+
+    private ResamplePass resampleDyePass() {
+        if (resampleDye == null) {
+            resampleDye = new ResamplePass(context, FieldFormats.DYE);
+        }
+        return resampleDye;
+    }
+
+    private MacCormackPass macCormackVelocityPass() {
+        if (macCormackVelocity == null) {
+            macCormackVelocity = new MacCormackPass(context, FieldFormats.VELOCITY);
+        }
+        return macCormackVelocity;
     }
 
-    private void clearTexture(int texture) {
-        if (texture == 0) {
+    private MacCormackPass macCormackDyePass() {
+        if (macCormackDye == null) {
+            macCormackDye = new MacCormackPass(context, FieldFormats.DYE);
+        }
+        return macCormackDye;
+    }
+
+    /** Acquires the velocity prediction if MacCormack is selected for it, else releases it. */
+    private void allocateVelocityPrediction() {
+        texturePool.release(velocityPredicted);
+        velocityPredicted = 0;
+        if (velocityAdvection == AdvectionScheme.MACCORMACK) {
+            velocityPredicted = texturePool.acquire(gridWidth, gridHeight, FieldFormats.VELOCITY);
+            texturePool.clear(velocityPredicted);
+        }
+    }
+
+    private void allocateDyePrediction() {
+        texturePool.release(dyePredicted);
+        dyePredicted = 0;
+        if (dyeAdvection == AdvectionScheme.MACCORMACK) {
+            dyePredicted = texturePool.acquire(dyeWidth, dyeHeight, FieldFormats.DYE);
+            texturePool.clear(dyePredicted);
+        }
+    }
+
+    private void createRedBlackProgram() {
+        if (redBlackProgram != null) {
             return;
         }
-        int[] fbo = new int[1];
-        GLES20.glGenFramebuffers(1, fbo, 0);
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, fbo[0]);
-        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
-                GLES20.GL_TEXTURE_2D, texture, 0);
-        GLES20.glClearColor(0f, 0f, 0f, 0f);
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-        GLES20.glDeleteFramebuffers(1, fbo, 0);
+        redBlackProgram = ComputeProgram.create(context, "shaders/redblack.comp",
+                FieldFormats.DIVERGENCE_DEFINE);
+        redBlackAlphaLocation = redBlackProgram.getUniformLocation("uAlpha");
+        redBlackRBetaLocation = redBlackProgram.getUniformLocation("uRBeta");
+        redBlackOmegaLocation = redBlackProgram.getUniformLocation("uOmega");
+        redBlackParityLocation = redBlackProgram.getUniformLocation("uParity");
     }
 
-    private float[] paletteColor(int colorId) {
-        switch (paletteId) {
-            case 1:
-                if (colorId % 2 == 0) {
-                    return new float[]{0.2f, 0.6f, 1.0f};
-                } else {
-                    return new float[]{1.0f, 0.4f, 0.7f};
-                }
-            default:
-                if (colorId % 2 == 0) {
-                    return new float[]{1.2f, 0.5f, 0.2f};
-                } else {
-                    return new float[]{0.1f, 0.3f, 0.9f};
-                }
+    private void createMultigrid() {
+        if (multigrid == null) {
+            multigrid = new MultigridPressureSolver(context, texturePool, jacobiProgram);
         }
     }
 
-    private static final class TouchEvent {
-        final float x;
-        final float y;
-        final float dx;
-        final float dy;
-        final int colorId;
+    /**
+     * Reallocates velocity, divergence and pressure for the {@link #getActiveGridSize() active}
+     * grid size. Velocity is resampled from the old grid when there is one; after a context loss
+     * {@link #discardTextures()} has left none, so it starts cleared and a pending snapshot
+     * restore supplies the state instead.
+     */
+    private void rebuildSimulationTextures() {
+        // Velocities count cells along the longer side, so they scale with the grid.
+        int oldLongCells = Math.max(gridWidth, gridHeight);
+        int oldVelocity = velocity.isValid() ? velocity.detachRead() : 0;
+        destroySimulationTextures();
+        int size = getActiveGridSize();
+        gridWidth = gridCells(surfaceWidth, size);
+        gridHeight = gridCells(surfaceHeight, size);
+        cellWidth = cellSize(surfaceWidth, gridWidth, size);
+        cellHeight = cellSize(surfaceHeight, gridHeight, size);
+        updateDyeCellSize();
+        velocity.allocate(texturePool, gridWidth, gridHeight, FieldFormats.VELOCITY);
+        allocateVelocityPrediction();
+        divergenceTexture = texturePool.acquire(gridWidth, gridHeight, FieldFormats.DIVERGENCE);
+        lastStepTimestampNs = 0L;
+        stepAccumulator = 0f;
+        texturePool.clear(divergenceTexture);
+        if (oldVelocity != 0) {
+            resample(resampleVelocityPass(), oldVelocity, velocity, gridWidth, gridHeight,
+                    Math.max(gridWidth, gridHeight) / (float) oldLongCells);
+        } else {
+            velocity.clear();
+        }
+        convergence.allocate(gridWidth, gridHeight);
+        velocityTiles.allocate(gridWidth, gridHeight);
+        allocatePressure();
+    }
 
-        TouchEvent(float x, float y, float dx, float dy, int colorId) {
-            this.x = x;
-            this.y = y;
-            this.dx = dx;
-            this.dy = dy;
-            this.colorId = colorId;
+    /**
+     * Reallocates the dye for the active dye grid size, resampling the old dye into it. As with
+     * velocity, there is no old dye after a context loss and the new one starts cleared.
+     */
+    private void rebuildDyeTextures() {
+        int oldDye = dye.isValid() ? dye.detachRead() : 0;
+        dyeWidth = gridCells(surfaceWidth, getActiveDyeGridSize());
+        dyeHeight = gridCells(surfaceHeight, getActiveDyeGridSize());
+        updateDyeCellSize();
+        dye.allocate(texturePool, dyeWidth, dyeHeight, FieldFormats.DYE);
+        allocateDyePrediction();
+        dyeTiles.allocate(dyeWidth, dyeHeight);
+        if (oldDye != 0) {
+            resample(resampleDyePass(), oldDye, dye, dyeWidth, dyeHeight, 1f);
+        } else {
+            dye.clear();
         }
+        // The other half holds no previous tick to interpolate from.
+        dyeBlend = 1f;
+        texturesReady = velocity.isValid() && dye.isValid() && isPressureValid() && divergenceTexture != 0;
     }
 
-    private final class PingPongTexture {
-        private final int[] textures = new int[2];
-        private int index = 0;
+    /**
+     * Fills both of {@code field}'s textures from {@code source}, filtered to the new size and
+     * multiplied by {@code scale}, then releases {@code source}. The write texture gets a copy
+     * rather than zeros because {@link #render()} blends the dye's with the read one as the
+     * previous tick until a tick has run.
+     */
+    private void resample(ResamplePass pass, int source, PingPongTexture field, int width, int height,
+                          float scale) {
+        pass.program.use();
+        GLES31.glUniform1f(pass.scaleLocation, scale);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, source);
+        ComputeProgram.bindImage(0, field.read(), GLES31.GL_WRITE_ONLY, field.format());
+        ComputeProgram.dispatch(width, height);
+        ComputeProgram.bindImage(0, field.write(), GLES31.GL_WRITE_ONLY, field.format());
+        ComputeProgram.dispatch(width, height);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        texturePool.release(source);
+    }
 
-        void allocate(int width, int height) {
-            destroy();
-            textures[0] = createTexture(width, height);
-            textures[1] = createTexture(width, height);
-            index = 0;
+    /**
+     * Uploads an RGBA half-float field into both of {@code field}'s textures, as {@link #resample}
+     * fills them, through a temporary texture and {@link #resample} when the sizes differ. The
+     * field must be stored as RGBA16F.
+     */
+    private void uploadField(ResamplePass pass, HalfFloatField source, PingPongTexture field,
+                             int width, int height, float scale) {
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+        boolean sameSize = sourceWidth == width && sourceHeight == height;
+        if (sameSize) {
+            uploadTexture(field.read(), source);
+            uploadTexture(field.write(), source);
+            return;
         }
+        int texture = texturePool.acquire(sourceWidth, sourceHeight, field.format());
+        uploadTexture(texture, source);
+        resample(pass, texture, field, width, height, scale);
+    }
 
-        void destroy() {
-            if (textures[0] != 0) {
-                int[] tex = new int[]{textures[0]};
-                GLES20.glDeleteTextures(1, tex, 0);
-                textures[0] = 0;
-            }
-            if (textures[1] != 0) {
-                int[] tex = new int[]{textures[1]};
-                GLES20.glDeleteTextures(1, tex, 0);
-                textures[1] = 0;
-            }
-            index = 0;
+    private static void uploadTexture(int texture, HalfFloatField source) {
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, source.getWidth(), source.getHeight(),
+                GLES20.GL_RGBA, GLES30.GL_HALF_FLOAT, source.getBuffer());
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    }
+
+    // Dye cells are measured in the simulation's velocity units, i.e. cells along its longer side.
+    private void updateDyeCellSize() {
+        if (dyeWidth > 0 && dyeHeight > 0) {
+            dyeCellWidth = cellSize(surfaceWidth, dyeWidth, getActiveGridSize());
+            dyeCellHeight = cellSize(surfaceHeight, dyeHeight, getActiveGridSize());
         }
+    }
+
+    /**
+     * Cells along a surface side of {@code surfaceSide} pixels when the longer side has
+     * {@code longCells}.
+     */
+    private int gridCells(int surfaceSide, int longCells) {
+        int longSide = Math.max(surfaceWidth, surfaceHeight);
+        return Math.max(MIN_GRID_CELLS, Math.round(longCells * (float) surfaceSide / longSide));
+    }
+
+    /**
+     * Spacing of {@code cells} cells across {@code surfaceSide} pixels, in units of a cell along
+     * the longer side.
+     */
+    private float cellSize(int surfaceSide, int cells, int longCells) {
+        int longSide = Math.max(surfaceWidth, surfaceHeight);
+        return (surfaceSide / (float) cells) * (longCells / (float) longSide);
+    }
+
+    /**
+     * Forgets every texture name without releasing it. After a context loss the names belong to
+     * the dead context, and handing them back to the pool would have it reuse them.
+     */
+    private void discardTextures() {
+        texturePool.discard();
+        velocity.discard();
+        dye.discard();
+        pressure.discard();
+        divergenceTexture = 0;
+        redBlackPressure = 0;
+        velocityPredicted = 0;
+        dyePredicted = 0;
+        cpuDyeTexture = 0;
+        texturesReady = false;
+    }
+
+    private void destroyTextures() {
+        destroySimulationTextures();
+        dye.destroy();
+        texturePool.release(dyePredicted);
+        dyePredicted = 0;
+        texturesReady = false;
+    }
 
-        void clear() {
-            clearTexture(textures[0]);
-            clearTexture(textures[1]);
-            index = 0;
+    private void destroySimulationTextures() {
+        destroyPressure();
+        velocity.destroy();
+        texturePool.release(velocityPredicted);
+        velocityPredicted = 0;
+        texturePool.release(divergenceTexture);
+        divergenceTexture = 0;
+    }
+
+    private static ComputeProgram closeProgram(ComputeProgram program) {
+        if (program != null) {
+            program.close();
         }
+        return null;
+    }
 
-        int read() {
-            return textures[index];
+    private boolean isComputeSupported() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        if (version == null) {
+            return false;
         }
+        return version.contains("OpenGL ES 3.1") || version.contains("OpenGL ES 3.2") || version.contains("OpenGL ES 3.0.1");
+    }
 
-        int write() {
-            return textures[1 - index];
+    // Shared and read-only; callers must not modify the returned array.
+    private float[] paletteColor(int colorId) {
+        float[][] palette = PALETTE_COLORS[paletteId == 1 ? 1 : 0];
+        return palette[colorId % 2 == 0 ? 0 : 1];
+    }
+
+    /**
+     * {@code advect.comp} compiled for one field's storage format.
+     */
+    private static final class AdvectPass {
+        final ComputeProgram program;
+        final int dtLocation;
+        final int dissipationLocation;
+        final int texelLocation;
+
+        AdvectPass(@NonNull Context context, @NonNull TextureFormat format) {
+            program = ComputeProgram.create(context, "shaders/advect.comp",
+                    FieldFormats.fieldDefine(format));
+            dtLocation = program.getUniformLocation("uDt");
+            dissipationLocation = program.getUniformLocation("uDissipation");
+            texelLocation = program.getUniformLocation("uTexelSize");
         }
+    }
 
-        void swap() {
-            index = 1 - index;
+    /**
+     * {@code maccormack.comp} compiled for one field's storage format.
+     */
+    private static final class MacCormackPass {
+        final ComputeProgram program;
+        final int dtLocation;
+        final int dissipationLocation;
+        final int texelLocation;
+
+        MacCormackPass(@NonNull Context context, @NonNull TextureFormat format) {
+            program = ComputeProgram.create(context, "shaders/maccormack.comp",
+                    FieldFormats.fieldDefine(format));
+            dtLocation = program.getUniformLocation("uDt");
+            dissipationLocation = program.getUniformLocation("uDissipation");
+            texelLocation = program.getUniformLocation("uTexelSize");
         }
+    }
 
-        boolean isValid() {
-            return textures[0] != 0 && textures[1] != 0;
+    /**
+     * {@code resample.comp} compiled for one field's storage format.
+     */
+    private static final class ResamplePass {
+        final ComputeProgram program;
+        final int scaleLocation;
+
+        ResamplePass(@NonNull Context context, @NonNull TextureFormat format) {
+            program = ComputeProgram.create(context, "shaders/resample.comp",
+                    FieldFormats.fieldDefine(format));
+            scaleLocation = program.getUniformLocation("uScale");
         }
     }
 }
@@ -8,7 +8,8 @@ import androidx.annotation.NonNull;
 import java.nio.FloatBuffer;
 
 /**
- * Helper for creating VAOs/VBOs used by the simulation rendering passes.
+ * Helper for creating VAOs/VBOs and field textures used by the simulation passes. Field textures
+ * are normally obtained through {@link TexturePool}, which keeps track of them.
  */
 final class GlObjects {
 
@@ -33,4 +34,25 @@ final class GlObjects {
         GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, 0);
         return vao[0];
     }
+
+    static int createTexture(int width, int height, @NonNull TextureFormat format) {
+        int[] tex = new int[1];
+        GLES20.glGenTextures(1, tex, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, tex[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, format.filter);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, format.filter);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES30.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format.internalFormat, width, height, 0,
+                format.format, format.type, null);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        return tex[0];
+    }
+
+    static void deleteTexture(int texture) {
+        if (texture != 0) {
+            int[] tex = new int[]{texture};
+            GLES20.glDeleteTextures(1, tex, 0);
+        }
+    }
 }
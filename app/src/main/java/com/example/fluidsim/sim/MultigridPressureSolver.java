@@ -0,0 +1,170 @@
+package com.example.fluidsim.sim;
+
+import android.content.Context;
+import android.opengl.GLES31;
+
+import androidx.annotation.NonNull;
+
+import com.example.fluidsim.sim.cpu.MultigridReference;
+
+/**
+ * Geometric multigrid V-cycle for the pressure solve. Each level below the finest owns a pressure
+ * ping-pong pair and a right-hand side; every level except the coarsest owns a residual texture.
+ * Smoothing reuses the Jacobi program with damping. {@link MultigridReference} is the CPU
+ * counterpart and defines the level sizes.
+ */
+final class MultigridPressureSolver implements AutoCloseable {
+
+    private static final int PRE_SMOOTH = 2;
+    private static final int POST_SMOOTH = 2;
+    private static final int COARSE_SWEEPS = 16;
+    private static final float SMOOTH_WEIGHT = 0.8f;
+
+    private final ComputeProgram jacobiProgram;
+    private final int jacobiAlphaLocation;
+    private final int jacobiRBetaLocation;
+    private final int jacobiWeightLocation;
+
+    private final ComputeProgram residualProgram;
+    private final ComputeProgram restrictProgram;
+    private final int restrictScaleLocation;
+    private final ComputeProgram prolongProgram;
+    private final TexturePool pool;
+
+    private int[] widths = new int[0];
+    private int[] heights = new int[0];
+    private PingPongTexture[] pressure = new PingPongTexture[0];
+    private int[] rhs = new int[0];
+    private int[] residual = new int[0];
+
+    MultigridPressureSolver(@NonNull Context context, @NonNull TexturePool pool,
+                            @NonNull ComputeProgram jacobiProgram) {
+        this.pool = pool;
+        this.jacobiProgram = jacobiProgram;
+        jacobiAlphaLocation = jacobiProgram.getUniformLocation("uAlpha");
+        jacobiRBetaLocation = jacobiProgram.getUniformLocation("uRBeta");
+        jacobiWeightLocation = jacobiProgram.getUniformLocation("uWeight");
+        residualProgram = ComputeProgram.create(context, "shaders/mg_residual.comp",
+                FieldFormats.PRESSURE_DEFINE, FieldFormats.DIVERGENCE_DEFINE);
+        restrictProgram = ComputeProgram.create(context, "shaders/mg_restrict.comp",
+                FieldFormats.PRESSURE_DEFINE, FieldFormats.DIVERGENCE_DEFINE);
+        restrictScaleLocation = restrictProgram.getUniformLocation("uScale");
+        prolongProgram = ComputeProgram.create(context, "shaders/mg_prolong.comp",
+                FieldFormats.PRESSURE_DEFINE);
+    }
+
+    /**
+     * Allocates the pyramid below a {@code width x height} finest level.
+     */
+    void allocate(int width, int height) {
+        destroyLevels();
+        int levels = MultigridReference.levelCount(width, height);
+        widths = new int[levels];
+        heights = new int[levels];
+        pressure = new PingPongTexture[levels];
+        rhs = new int[levels];
+        residual = new int[levels];
+        for (int level = 0; level < levels; level++) {
+            widths[level] = width;
+            heights[level] = height;
+            if (level > 0) {
+                pressure[level] = new PingPongTexture();
+                pressure[level].allocate(pool, width, height, FieldFormats.PRESSURE);
+                rhs[level] = pool.acquire(width, height, FieldFormats.DIVERGENCE);
+            }
+            if (level < levels - 1) {
+                residual[level] = pool.acquire(width, height, FieldFormats.DIVERGENCE);
+            }
+            width = MultigridReference.coarseSize(width);
+            height = MultigridReference.coarseSize(height);
+        }
+    }
+
+    boolean isAllocated() {
+        return widths.length > 0;
+    }
+
+    /**
+     * Runs {@code cycles} V-cycles, improving {@code finePressure} against {@code fineRhs}.
+     */
+    void solve(@NonNull PingPongTexture finePressure, int fineRhs, int cycles) {
+        pressure[0] = finePressure;
+        rhs[0] = fineRhs;
+        for (int i = 0; i < cycles; i++) {
+            cycle(0);
+        }
+        pressure[0] = null;
+        rhs[0] = 0;
+    }
+
+    void destroyLevels() {
+        for (int level = 1; level < pressure.length; level++) {
+            pressure[level].destroy();
+            pool.release(rhs[level]);
+        }
+        for (int texture : residual) {
+            pool.release(texture);
+        }
+        widths = new int[0];
+        heights = new int[0];
+        pressure = new PingPongTexture[0];
+        rhs = new int[0];
+        residual = new int[0];
+    }
+
+    @Override
+    public void close() {
+        destroyLevels();
+        residualProgram.close();
+        restrictProgram.close();
+        prolongProgram.close();
+    }
+
+    private void cycle(int level) {
+        if (level == widths.length - 1) {
+            relax(level, COARSE_SWEEPS);
+            return;
+        }
+        int coarse = level + 1;
+        relax(level, PRE_SMOOTH);
+
+        residualProgram.use();
+        ComputeProgram.bindImage(0, residual[level], GLES31.GL_WRITE_ONLY, FieldFormats.DIVERGENCE);
+        ComputeProgram.bindImage(1, pressure[level].read(), GLES31.GL_READ_ONLY, FieldFormats.PRESSURE);
+        ComputeProgram.bindImage(2, rhs[level], GLES31.GL_READ_ONLY, FieldFormats.DIVERGENCE);
+        ComputeProgram.dispatch(widths[level], heights[level]);
+
+        restrictProgram.use();
+        GLES31.glUniform1f(restrictScaleLocation, MultigridReference.RESTRICT_SCALE);
+        ComputeProgram.bindImage(0, rhs[coarse], GLES31.GL_WRITE_ONLY, FieldFormats.DIVERGENCE);
+        ComputeProgram.bindImage(1, residual[level], GLES31.GL_READ_ONLY, FieldFormats.DIVERGENCE);
+        ComputeProgram.bindImage(2, pressure[coarse].read(), GLES31.GL_WRITE_ONLY, FieldFormats.PRESSURE);
+        ComputeProgram.dispatch(widths[coarse], heights[coarse]);
+
+        cycle(coarse);
+
+        prolongProgram.use();
+        ComputeProgram.bindImage(0, pressure[level].write(), GLES31.GL_WRITE_ONLY, FieldFormats.PRESSURE);
+        ComputeProgram.bindImage(1, pressure[level].read(), GLES31.GL_READ_ONLY, FieldFormats.PRESSURE);
+        ComputeProgram.bindImage(2, pressure[coarse].read(), GLES31.GL_READ_ONLY, FieldFormats.PRESSURE);
+        ComputeProgram.dispatch(widths[level], heights[level]);
+        pressure[level].swap();
+
+        relax(level, POST_SMOOTH);
+    }
+
+    private void relax(int level, int sweeps) {
+        jacobiProgram.use();
+        GLES31.glUniform1f(jacobiAlphaLocation, -1f);
+        GLES31.glUniform1f(jacobiRBetaLocation, 0.25f);
+        GLES31.glUniform1f(jacobiWeightLocation, SMOOTH_WEIGHT);
+        ComputeProgram.bindImage(2, rhs[level], GLES31.GL_READ_ONLY, FieldFormats.DIVERGENCE);
+        PingPongTexture target = pressure[level];
+        for (int i = 0; i < sweeps; i++) {
+            ComputeProgram.bindImage(0, target.write(), GLES31.GL_WRITE_ONLY, FieldFormats.PRESSURE);
+            ComputeProgram.bindImage(1, target.read(), GLES31.GL_READ_ONLY, FieldFormats.PRESSURE);
+            ComputeProgram.dispatch(widths[level], heights[level]);
+            target.swap();
+        }
+    }
+}
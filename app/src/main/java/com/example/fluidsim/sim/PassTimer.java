@@ -0,0 +1,203 @@
+package com.example.fluidsim.sim;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.SystemClock;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Times each simulation and render pass on the GPU with {@code GL_EXT_disjoint_timer_query} and on
+ * the CPU, and marks it as an {@link Trace} section for systrace/Perfetto.
+ *
+ * <p>Every pass owns a ring of query objects. A query is read back only once the driver reports
+ * its result available, a few frames later, so timing never waits on the GPU; if a pass's ring is
+ * still full of unread queries the pass goes untimed for that run. Results from an interval in which
+ * the driver reports a disjoint event (frequency change, context loss) are dropped.
+ *
+ * <p>Times are exponential moving averages per run of the pass, in milliseconds. While disabled
+ * {@link #begin} and {@link #end} return at once and no query objects exist. GL thread only.
+ */
+public final class PassTimer {
+
+    public enum Pass {
+        SPLAT("splat"),
+        TILES("tiles"),
+        ADVECT_VELOCITY("advect velocity"),
+        ADVECT_DYE("advect dye"),
+        VORTICITY("vorticity"),
+        DIVERGENCE("divergence"),
+        PRESSURE("pressure"),
+        PROJECT("project"),
+        RENDER("render");
+
+        /** Short label, also used as the trace section name. */
+        @NonNull
+        public final String label;
+
+        Pass(@NonNull String label) {
+            this.label = label;
+        }
+    }
+
+    // From GL_EXT_disjoint_timer_query; not in the Android GLES bindings.
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+    private static final String EXTENSION = "GL_EXT_disjoint_timer_query";
+
+    // Up to MAX_SUBSTEPS runs per frame for a few frames of latency.
+    private static final int RING_SIZE = 16;
+    private static final float SMOOTHING = 0.1f;
+
+    private static final Pass[] PASSES = Pass.values();
+    private static final int PASS_COUNT = PASSES.length;
+
+    private boolean enabled = false;
+    private boolean gpuSupported = false;
+    private boolean extensionChecked = false;
+
+    private final int[] queries = new int[PASS_COUNT * RING_SIZE];
+    private final boolean[] pending = new boolean[PASS_COUNT * RING_SIZE];
+    private final int[] writeSlot = new int[PASS_COUNT];
+    private final int[] readSlot = new int[PASS_COUNT];
+    // Slot of the query running for each pass, or -1 when the pass is untimed this run.
+    private final int[] activeSlot = new int[PASS_COUNT];
+    private final long[] cpuStartNs = new long[PASS_COUNT];
+    private final float[] gpuMs = new float[PASS_COUNT];
+    private final float[] cpuMs = new float[PASS_COUNT];
+    private final int[] scratch = new int[1];
+
+    /**
+     * Turns timing on or off. Needs a current GL context; GPU times stay at zero where the timer
+     * query extension is missing, CPU times and trace sections still work.
+     */
+    public void setEnabled(boolean enabled) {
+        if (enabled == this.enabled) {
+            return;
+        }
+        this.enabled = enabled;
+        if (enabled) {
+            if (!extensionChecked) {
+                String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+                gpuSupported = extensions != null && extensions.contains(EXTENSION);
+                extensionChecked = true;
+            }
+            if (gpuSupported) {
+                GLES30.glGenQueries(queries.length, queries, 0);
+            }
+            Arrays.fill(activeSlot, -1);
+        } else {
+            deleteQueries();
+        }
+        Arrays.fill(gpuMs, 0f);
+        Arrays.fill(cpuMs, 0f);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Whether {@link #getGpuMs} reports measurements on this device. */
+    public boolean isGpuTimingSupported() {
+        return gpuSupported;
+    }
+
+    /** Rolling GPU time of one run of {@code pass}, in milliseconds. */
+    public float getGpuMs(@NonNull Pass pass) {
+        return gpuMs[pass.ordinal()];
+    }
+
+    /** Rolling CPU time spent issuing one run of {@code pass}, in milliseconds. */
+    public float getCpuMs(@NonNull Pass pass) {
+        return cpuMs[pass.ordinal()];
+    }
+
+    /**
+     * Collects the queries whose results have arrived. Call once per frame, outside any pass.
+     */
+    void poll() {
+        if (!enabled || !gpuSupported) {
+            return;
+        }
+        GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, scratch, 0);
+        boolean disjoint = scratch[0] != 0;
+        for (int pass = 0; pass < PASS_COUNT; pass++) {
+            while (true) {
+                int index = pass * RING_SIZE + readSlot[pass];
+                if (!pending[index]) {
+                    break;
+                }
+                GLES30.glGetQueryObjectuiv(queries[index], GLES30.GL_QUERY_RESULT_AVAILABLE, scratch, 0);
+                if (scratch[0] == 0) {
+                    break;
+                }
+                GLES30.glGetQueryObjectuiv(queries[index], GLES30.GL_QUERY_RESULT, scratch, 0);
+                pending[index] = false;
+                readSlot[pass] = (readSlot[pass] + 1) % RING_SIZE;
+                if (!disjoint) {
+                    // 32 bits of nanoseconds cover any single pass.
+                    float ms = (scratch[0] & 0xFFFFFFFFL) / 1_000_000f;
+                    gpuMs[pass] = smooth(gpuMs[pass], ms);
+                }
+            }
+        }
+    }
+
+    void begin(@NonNull Pass pass) {
+        if (!enabled) {
+            return;
+        }
+        int p = pass.ordinal();
+        Trace.beginSection(pass.label);
+        cpuStartNs[p] = SystemClock.elapsedRealtimeNanos();
+        activeSlot[p] = -1;
+        if (gpuSupported) {
+            int index = p * RING_SIZE + writeSlot[p];
+            if (!pending[index]) {
+                GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, queries[index]);
+                activeSlot[p] = index;
+            }
+        }
+    }
+
+    void end(@NonNull Pass pass) {
+        if (!enabled) {
+            return;
+        }
+        int p = pass.ordinal();
+        int index = activeSlot[p];
+        if (index >= 0) {
+            GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+            pending[index] = true;
+            writeSlot[p] = (writeSlot[p] + 1) % RING_SIZE;
+            activeSlot[p] = -1;
+        }
+        float ms = (SystemClock.elapsedRealtimeNanos() - cpuStartNs[p]) / 1_000_000f;
+        cpuMs[p] = smooth(cpuMs[p], ms);
+        Trace.endSection();
+    }
+
+    /** Deletes the query objects; timing is off afterwards. */
+    void close() {
+        deleteQueries();
+        enabled = false;
+        extensionChecked = false;
+    }
+
+    private void deleteQueries() {
+        if (queries[0] != 0) {
+            GLES30.glDeleteQueries(queries.length, queries, 0);
+        }
+        Arrays.fill(queries, 0);
+        Arrays.fill(pending, false);
+        Arrays.fill(writeSlot, 0);
+        Arrays.fill(readSlot, 0);
+    }
+
+    private static float smooth(float average, float sample) {
+        return average == 0f ? sample : average + (sample - average) * SMOOTHING;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.fluidsim.sim;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Pair of equally sized field textures where one is read while the other is written.
+ */
+final class PingPongTexture {
+    private final int[] textures = new int[2];
+    private int index = 0;
+    private TextureFormat format = TextureFormat.RGBA16F;
+    private int width = 0;
+    private int height = 0;
+    private TexturePool pool;
+
+    /**
+     * Takes a pair of textures from {@code pool}, returning the current pair first. A pair that
+     * already has this size and format is kept as it is, contents included.
+     */
+    void allocate(@NonNull TexturePool pool, int width, int height, @NonNull TextureFormat format) {
+        if (isValid() && pool == this.pool && width == this.width && height == this.height
+                && format == this.format) {
+            return;
+        }
+        destroy();
+        this.pool = pool;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        textures[0] = pool.acquire(width, height, format);
+        textures[1] = pool.acquire(width, height, format);
+        index = 0;
+    }
+
+    /** Returns both textures to the pool. */
+    void destroy() {
+        if (pool != null) {
+            pool.release(textures[0]);
+            pool.release(textures[1]);
+        }
+        textures[0] = 0;
+        textures[1] = 0;
+        width = 0;
+        height = 0;
+        index = 0;
+    }
+
+    /** Forgets both textures without returning them, after the pool was discarded. */
+    void discard() {
+        textures[0] = 0;
+        textures[1] = 0;
+        width = 0;
+        height = 0;
+        index = 0;
+        pool = null;
+    }
+
+    /**
+     * Hands the read texture to the caller, who must release it to the pool, and returns the other
+     * one; the pair is left empty. Lets a field be resampled from its old storage into new storage.
+     */
+    int detachRead() {
+        int texture = textures[index];
+        textures[index] = 0;
+        destroy();
+        return texture;
+    }
+
+    void clear() {
+        if (pool != null) {
+            pool.clear(textures[0]);
+            pool.clear(textures[1]);
+        }
+        index = 0;
+    }
+
+    int read() {
+        return textures[index];
+    }
+
+    int write() {
+        return textures[1 - index];
+    }
+
+    void swap() {
+        index = 1 - index;
+    }
+
+    TextureFormat format() {
+        return format;
+    }
+
+    boolean isValid() {
+        return textures[0] != 0 && textures[1] != 0;
+    }
+}
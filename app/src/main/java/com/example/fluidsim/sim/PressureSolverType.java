@@ -0,0 +1,16 @@
+package com.example.fluidsim.sim;
+
+/**
+ * Pressure Poisson solvers the simulation can run between divergence and projection.
+ */
+public enum PressureSolverType {
+    /** Full-resolution Jacobi sweeps; {@code pressureIterations} is the sweep count. */
+    JACOBI,
+    /** Geometric multigrid V-cycles; {@code pressureIterations} is scaled down to a cycle count. */
+    MULTIGRID,
+    /**
+     * Red-black successive over-relaxation on a single {@code R32F} pressure image, updated in
+     * place; {@code pressureIterations} counts red+black sweep pairs.
+     */
+    RED_BLACK
+}
@@ -0,0 +1,252 @@
+package com.example.fluidsim.sim;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.GLES31;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.example.fluidsim.sim.cpu.HalfFloat;
+import com.example.fluidsim.sim.cpu.HalfFloatField;
+import com.example.fluidsim.sim.snapshot.FieldSnapshot;
+import com.example.fluidsim.sim.snapshot.SnapshotFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads velocity and dye back into a {@link FieldSnapshot} file without stalling the GL thread.
+ * {@link #start} has {@code glReadPixels} copy both textures into pixel pack buffers, which only
+ * queues the copy, and sets a fence. {@link #poll} maps the buffers once the fence has signalled,
+ * normally a frame or two later, and hands the pixels to a writer thread that converts, compresses
+ * and writes them.
+ *
+ * <p>Pixels are read as half floats where the driver offers that as its implementation read type
+ * and as floats otherwise, halving on the writer thread. Reading a half-float attachment needs
+ * {@code GL_EXT_color_buffer_half_float} or {@code GL_EXT_color_buffer_float}; without either the
+ * framebuffer is incomplete and snapshots are skipped. One snapshot is in flight at a time.
+ */
+final class SnapshotReadback implements AutoCloseable {
+
+    private static final String TAG = "SnapshotReadback";
+    // Longest finish() waits for the GPU; a frame of work is far below this.
+    private static final long FINISH_TIMEOUT_NS = 200_000_000L;
+
+    private static final class Target {
+        int buffer;
+        int width;
+        int height;
+        boolean halfFloat;
+
+        int bytes() {
+            return width * height * (halfFloat ? 8 : 16);
+        }
+    }
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "snapshot-writer");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final Target velocity = new Target();
+    private final Target dye = new Target();
+    private final int[] scratch = new int[2];
+    private int framebuffer = 0;
+    // Fence after the pending readback, or 0 when idle.
+    private long fence = 0L;
+    private File file;
+    private int gridSize;
+    private int dyeGridSize;
+
+    boolean isBusy() {
+        return fence != 0L;
+    }
+
+    /**
+     * Queues the readback of both fields for {@code file}. Returns false if a snapshot is already
+     * in flight or the textures cannot be read.
+     */
+    boolean start(@NonNull File file, int velocityTexture, int width, int height,
+                  int dyeTexture, int dyeWidth, int dyeHeight, int gridSize, int dyeGridSize) {
+        if (fence != 0L) {
+            return false;
+        }
+        if (framebuffer == 0) {
+            GLES20.glGenFramebuffers(1, scratch, 0);
+            framebuffer = scratch[0];
+            GLES20.glGenBuffers(2, scratch, 0);
+            velocity.buffer = scratch[0];
+            dye.buffer = scratch[1];
+        }
+        // The fields were last written by compute shaders as images.
+        GLES31.glMemoryBarrier(GLES31.GL_FRAMEBUFFER_BARRIER_BIT);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+        boolean queued = queueRead(velocity, velocityTexture, width, height)
+                && queueRead(dye, dyeTexture, dyeWidth, dyeHeight);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, 0, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        if (!queued) {
+            return false;
+        }
+        fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        // Without a flush the fence might not reach the GPU until the end of the frame.
+        GLES20.glFlush();
+        this.file = file;
+        this.gridSize = gridSize;
+        this.dyeGridSize = dyeGridSize;
+        return true;
+    }
+
+    /** Hands the pending snapshot to the writer if the GPU has finished the readback. */
+    void poll() {
+        collect(0, 0L);
+    }
+
+    /**
+     * Waits for the pending readback, if any, and hands it to the writer. For when no further
+     * frames will come to poll from, e.g. right before the GL thread pauses.
+     */
+    void finish() {
+        collect(GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, FINISH_TIMEOUT_NS);
+    }
+
+    /**
+     * Forgets the GL objects without deleting them, after the context they belonged to was lost.
+     * Snapshots already handed to the writer still complete.
+     */
+    void discard() {
+        framebuffer = 0;
+        velocity.buffer = 0;
+        dye.buffer = 0;
+        fence = 0L;
+    }
+
+    /**
+     * Runs {@code task} on the writer thread once every snapshot handed to it so far is written,
+     * so reading the file back never sees an older one or a half-finished write.
+     */
+    void afterWrites(@NonNull Runnable task) {
+        writer.execute(task);
+    }
+
+    /** Deletes the GL objects. Queued files are still written. */
+    @Override
+    public void close() {
+        if (fence != 0L) {
+            GLES30.glDeleteSync(fence);
+        }
+        if (framebuffer != 0) {
+            scratch[0] = framebuffer;
+            GLES20.glDeleteFramebuffers(1, scratch, 0);
+            scratch[0] = velocity.buffer;
+            scratch[1] = dye.buffer;
+            GLES20.glDeleteBuffers(2, scratch, 0);
+        }
+        discard();
+        writer.shutdown();
+    }
+
+    private boolean queueRead(Target target, int texture, int width, int height) {
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, texture, 0);
+        if (GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER) != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            Log.w(TAG, "Field textures cannot be read back on this device; snapshot skipped.");
+            return false;
+        }
+        GLES20.glGetIntegerv(GLES20.GL_IMPLEMENTATION_COLOR_READ_FORMAT, scratch, 0);
+        GLES20.glGetIntegerv(GLES20.GL_IMPLEMENTATION_COLOR_READ_TYPE, scratch, 1);
+        target.width = width;
+        target.height = height;
+        target.halfFloat = scratch[0] == GLES20.GL_RGBA && scratch[1] == GLES30.GL_HALF_FLOAT;
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, target.buffer);
+        GLES20.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, target.bytes(), null, GLES30.GL_STREAM_READ);
+        GLES30.glReadPixels(0, 0, width, height, GLES20.GL_RGBA,
+                target.halfFloat ? GLES30.GL_HALF_FLOAT : GLES20.GL_FLOAT, 0);
+        return true;
+    }
+
+    private void collect(int flags, long timeoutNs) {
+        if (fence == 0L) {
+            return;
+        }
+        int status = GLES30.glClientWaitSync(fence, flags, timeoutNs);
+        if (status == GLES30.GL_TIMEOUT_EXPIRED) {
+            return;
+        }
+        GLES30.glDeleteSync(fence);
+        fence = 0L;
+        if (status == GLES30.GL_WAIT_FAILED) {
+            Log.w(TAG, "Waiting for the snapshot readback failed; snapshot skipped.");
+            return;
+        }
+        ByteBuffer velocityPixels = copyOut(velocity);
+        ByteBuffer dyePixels = copyOut(dye);
+        if (velocityPixels == null || dyePixels == null) {
+            Log.w(TAG, "Mapping the snapshot readback failed; snapshot skipped.");
+            return;
+        }
+        final File file = this.file;
+        final int gridSize = this.gridSize;
+        final int dyeGridSize = this.dyeGridSize;
+        final int width = velocity.width;
+        final int height = velocity.height;
+        final boolean velocityHalf = velocity.halfFloat;
+        final int dyeWidth = dye.width;
+        final int dyeHeight = dye.height;
+        final boolean dyeHalf = dye.halfFloat;
+        writer.execute(() -> {
+            try {
+                FieldSnapshot snapshot = new FieldSnapshot(gridSize, dyeGridSize,
+                        toField(velocityPixels, width, height, velocityHalf),
+                        toField(dyePixels, dyeWidth, dyeHeight, dyeHalf));
+                SnapshotFile.write(file, snapshot, true);
+            } catch (IOException e) {
+                Log.w(TAG, "Writing snapshot " + file + " failed", e);
+            }
+        });
+    }
+
+    /** Copies a mapped pack buffer into memory the writer thread can own. */
+    private static ByteBuffer copyOut(Target target) {
+        int bytes = target.bytes();
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, target.buffer);
+        Buffer mapped = GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, bytes,
+                GLES30.GL_MAP_READ_BIT);
+        ByteBuffer copy = null;
+        if (mapped instanceof ByteBuffer) {
+            copy = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+            copy.put((ByteBuffer) mapped);
+            copy.flip();
+        }
+        if (mapped != null) {
+            GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+        }
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        return copy;
+    }
+
+    private static HalfFloatField toField(ByteBuffer pixels, int width, int height, boolean halfFloat) {
+        HalfFloatField field = new HalfFloatField(width, height, 4);
+        ShortBuffer target = field.getBuffer();
+        if (halfFloat) {
+            target.put(pixels.asShortBuffer());
+        } else {
+            FloatBuffer source = pixels.asFloatBuffer();
+            int count = source.remaining();
+            for (int i = 0; i < count; i++) {
+                target.put(i, HalfFloat.fromFloat(source.get(i)));
+            }
+        }
+        return field;
+    }
+}
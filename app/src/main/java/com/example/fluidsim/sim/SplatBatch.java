@@ -0,0 +1,239 @@
+package com.example.fluidsim.sim;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLES31;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Collects a frame's touch impulses and applies them with one {@code splat.comp} dispatch per
+ * field. The dispatch covers only the 8x8 tiles inside the union of the splats' bounding boxes,
+ * and writes the field in place, so untouched texels are neither read nor copied. A field no splat
+ * reaches is not dispatched at all.
+ *
+ * <p>Each splat's box ends where its Gaussian falls below {@link #CUTOFF}. Since splats only add
+ * to the field, the result does not depend on the order they were queued in.
+ */
+final class SplatBatch implements AutoCloseable {
+
+    /** Splats per dispatch; {@link #isFull()} tells the caller to {@link #apply} early. */
+    static final int MAX_SPLATS = 64;
+
+    // Influence below which a splat is cut off, under the resolution of half floats near 1.
+    private static final float CUTOFF = 1e-3f;
+    private static final float CUTOFF_EXTENT = (float) Math.log(1.0 / CUTOFF);
+
+    // Splat layout (std430), matching splat.comp: vec4 point, vec4 value.
+    private static final int SPLAT_FLOATS = 8;
+    private static final int GROUP_SIZE = 8;
+    // Minimum GL_MAX_COMPUTE_WORK_GROUP_COUNT along x guaranteed by ES 3.1.
+    private static final int MAX_GROUPS = 65535;
+
+    private final SplatPass velocityPass;
+    private final SplatPass dyePass;
+
+    private final float[] velocitySplats = new float[MAX_SPLATS * SPLAT_FLOATS];
+    private final float[] dyeSplats = new float[MAX_SPLATS * SPLAT_FLOATS];
+    private int velocityCount = 0;
+    private int dyeCount = 0;
+
+    private final FloatBuffer splatUpload = ByteBuffer
+            .allocateDirect(MAX_SPLATS * SPLAT_FLOATS * Float.BYTES)
+            .order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+    private IntBuffer tileUpload;
+    // Tiles marked in the current pass carry the current stamp, so the marks never need clearing.
+    private int[] tileStamps = new int[0];
+    private int stamp = 0;
+    private int tileCapacity = 0;
+
+    private int splatBuffer = 0;
+    private int tileBuffer = 0;
+
+    SplatBatch(@NonNull Context context) {
+        velocityPass = new SplatPass(context, FieldFormats.VELOCITY);
+        dyePass = new SplatPass(context, FieldFormats.DYE);
+        int[] buffers = new int[2];
+        GLES20.glGenBuffers(2, buffers, 0);
+        splatBuffer = buffers[0];
+        tileBuffer = buffers[1];
+        GLES20.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, splatBuffer);
+        GLES20.glBufferData(GLES31.GL_SHADER_STORAGE_BUFFER, splatUpload.capacity() * Float.BYTES,
+                null, GLES20.GL_DYNAMIC_DRAW);
+        GLES20.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, 0);
+    }
+
+    /**
+     * Queues one impulse at {@code (x, y)} in [0, 1]. A zero velocity delta only adds dye.
+     */
+    void add(float x, float y, float radius, float deltaX, float deltaY,
+             float colorR, float colorG, float colorB) {
+        if (deltaX != 0f || deltaY != 0f) {
+            put(velocitySplats, velocityCount++, x, y, radius, deltaX, deltaY, 0f);
+        }
+        put(dyeSplats, dyeCount++, x, y, radius, colorR, colorG, colorB);
+    }
+
+    boolean isFull() {
+        return dyeCount == MAX_SPLATS;
+    }
+
+    /**
+     * Applies and clears the queued splats. Both textures are updated in place; {@code aspect} is
+     * the width of the simulated domain over its height.
+     */
+    void apply(int velocityTexture, int velocityWidth, int velocityHeight,
+               int dyeTexture, int dyeWidth, int dyeHeight, float aspect) {
+        if (dyeCount == 0) {
+            return;
+        }
+        dispatch(velocityPass, velocitySplats, velocityCount, velocityTexture,
+                velocityWidth, velocityHeight, aspect, true);
+        dispatch(dyePass, dyeSplats, dyeCount, dyeTexture, dyeWidth, dyeHeight, aspect, false);
+        velocityCount = 0;
+        dyeCount = 0;
+    }
+
+    @Override
+    public void close() {
+        int[] buffers = new int[]{splatBuffer, tileBuffer};
+        GLES20.glDeleteBuffers(2, buffers, 0);
+        splatBuffer = 0;
+        tileBuffer = 0;
+        velocityPass.program.close();
+        dyePass.program.close();
+    }
+
+    private void dispatch(SplatPass pass, float[] splats, int count, int texture,
+                          int width, int height, float aspect, boolean affectsVelocity) {
+        if (count == 0) {
+            return;
+        }
+        int tileCount = collectTiles(splats, count, width, height, aspect);
+        splatUpload.clear();
+        splatUpload.put(splats, 0, count * SPLAT_FLOATS);
+        splatUpload.flip();
+        GLES20.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, splatBuffer);
+        GLES20.glBufferSubData(GLES31.GL_SHADER_STORAGE_BUFFER, 0, count * SPLAT_FLOATS * Float.BYTES,
+                splatUpload);
+        GLES20.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, tileBuffer);
+        GLES20.glBufferSubData(GLES31.GL_SHADER_STORAGE_BUFFER, 0, tileCount * Integer.BYTES,
+                tileUpload);
+        GLES20.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, 0);
+        GLES31.glBindBufferBase(GLES31.GL_SHADER_STORAGE_BUFFER, 0, splatBuffer);
+        GLES31.glBindBufferBase(GLES31.GL_SHADER_STORAGE_BUFFER, 1, tileBuffer);
+
+        pass.program.use();
+        GLES20.glUniform1i(pass.countLocation, count);
+        GLES20.glUniform1f(pass.aspectLocation, aspect);
+        GLES20.glUniform1i(pass.velocityLocation, affectsVelocity ? 1 : 0);
+        ComputeProgram.bindImage(0, texture, GLES31.GL_WRITE_ONLY, pass.format);
+        ComputeProgram.bindImage(1, texture, GLES31.GL_READ_ONLY, pass.format);
+        for (int offset = 0; offset < tileCount; offset += MAX_GROUPS) {
+            GLES20.glUniform1i(pass.tileOffsetLocation, offset);
+            GLES31.glDispatchCompute(Math.min(MAX_GROUPS, tileCount - offset), 1, 1);
+        }
+        GLES31.glMemoryBarrier(GLES31.GL_SHADER_IMAGE_ACCESS_BARRIER_BIT
+                | GLES31.GL_TEXTURE_FETCH_BARRIER_BIT);
+    }
+
+    /**
+     * Fills {@link #tileUpload} with the tiles of a {@code width x height} field that any splat's
+     * bounding box overlaps and returns their number.
+     */
+    private int collectTiles(float[] splats, int count, int width, int height, float aspect) {
+        int tilesX = (width + GROUP_SIZE - 1) / GROUP_SIZE;
+        int tilesY = (height + GROUP_SIZE - 1) / GROUP_SIZE;
+        ensureTileCapacity(tilesX * tilesY);
+        if (++stamp == 0) {
+            Arrays.fill(tileStamps, 0);
+            stamp = 1;
+        }
+        tileUpload.clear();
+        for (int i = 0; i < count; i++) {
+            int base = i * SPLAT_FLOATS;
+            float x = splats[base];
+            float y = splats[base + 1];
+            float extentY = (float) Math.sqrt(Math.max(splats[base + 2], 1e-4f) * CUTOFF_EXTENT);
+            float extentX = extentY / aspect;
+            int x0 = tile((x - extentX) * width, tilesX);
+            int x1 = tile((x + extentX) * width, tilesX);
+            int y0 = tile((y - extentY) * height, tilesY);
+            int y1 = tile((y + extentY) * height, tilesY);
+            for (int ty = y0; ty <= y1; ty++) {
+                for (int tx = x0; tx <= x1; tx++) {
+                    int index = ty * tilesX + tx;
+                    if (tileStamps[index] != stamp) {
+                        tileStamps[index] = stamp;
+                        tileUpload.put(tx | (ty << 16));
+                    }
+                }
+            }
+        }
+        tileUpload.flip();
+        return tileUpload.limit();
+    }
+
+    private void ensureTileCapacity(int tiles) {
+        if (tiles <= tileCapacity) {
+            return;
+        }
+        tileCapacity = tiles;
+        tileStamps = new int[tiles];
+        stamp = 0;
+        tileUpload = ByteBuffer.allocateDirect(tiles * Integer.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asIntBuffer();
+        GLES20.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, tileBuffer);
+        GLES20.glBufferData(GLES31.GL_SHADER_STORAGE_BUFFER, tiles * Integer.BYTES, null,
+                GLES20.GL_DYNAMIC_DRAW);
+        GLES20.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, 0);
+    }
+
+    private static int tile(float texel, int tiles) {
+        int tile = (int) Math.floor(texel) / GROUP_SIZE;
+        return tile < 0 ? 0 : Math.min(tile, tiles - 1);
+    }
+
+    private static void put(float[] splats, int index, float x, float y, float radius,
+                            float a, float b, float c) {
+        int base = index * SPLAT_FLOATS;
+        splats[base] = x;
+        splats[base + 1] = y;
+        splats[base + 2] = radius;
+        splats[base + 3] = 0f;
+        splats[base + 4] = a;
+        splats[base + 5] = b;
+        splats[base + 6] = c;
+        splats[base + 7] = 0f;
+    }
+
+    /**
+     * {@code splat.comp} compiled for one field's storage format.
+     */
+    private static final class SplatPass {
+        final TextureFormat format;
+        final ComputeProgram program;
+        final int countLocation;
+        final int tileOffsetLocation;
+        final int aspectLocation;
+        final int velocityLocation;
+
+        SplatPass(@NonNull Context context, @NonNull TextureFormat format) {
+            this.format = format;
+            program = ComputeProgram.create(context, "shaders/splat.comp",
+                    FieldFormats.fieldDefine(format));
+            countLocation = program.getUniformLocation("uCount");
+            tileOffsetLocation = program.getUniformLocation("uTileOffset");
+            aspectLocation = program.getUniformLocation("uAspect");
+            velocityLocation = program.getUniformLocation("uAffectsVelocity");
+        }
+    }
+}
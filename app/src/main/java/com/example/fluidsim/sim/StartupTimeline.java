@@ -0,0 +1,44 @@
+package com.example.fluidsim.sim;
+
+/**
+ * Milestones of bringing the simulation up on a new GL context, in milliseconds since
+ * {@link FluidSimulation#onSurfaceCreated()}: the first frame that showed the simulated fluid, and
+ * the first frame that ran at the configured grid sizes with every program compiled. Both are NaN
+ * until reached and start over with each context.
+ */
+public final class StartupTimeline {
+
+    private long originNs = 0L;
+    private float firstFrameMs = Float.NaN;
+    private float fullQualityMs = Float.NaN;
+
+    void start(long nowNs) {
+        originNs = nowNs;
+        firstFrameMs = Float.NaN;
+        fullQualityMs = Float.NaN;
+    }
+
+    void markFirstFrame(long nowNs) {
+        firstFrameMs = (nowNs - originNs) / 1_000_000f;
+    }
+
+    void markFullQuality(long nowNs) {
+        fullQualityMs = (nowNs - originNs) / 1_000_000f;
+    }
+
+    public boolean hasFirstFrame() {
+        return !Float.isNaN(firstFrameMs);
+    }
+
+    public boolean hasFullQuality() {
+        return !Float.isNaN(fullQualityMs);
+    }
+
+    public float getFirstFrameMs() {
+        return firstFrameMs;
+    }
+
+    public float getFullQualityMs() {
+        return fullQualityMs;
+    }
+}
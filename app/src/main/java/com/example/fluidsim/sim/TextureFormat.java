@@ -0,0 +1,48 @@
+package com.example.fluidsim.sim;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Texture storage formats a field can use with image load/store. GLES 3.1 only accepts one-, two-
+ * or four-channel 32-bit float and four-channel half-float images, so there is no R16F, RG16F or
+ * R11F_G11F_B10F here.
+ */
+enum TextureFormat {
+    /** Four half floats; linearly filterable everywhere. */
+    RGBA16F(GLES30.GL_RGBA16F, GLES20.GL_RGBA, GLES30.GL_HALF_FLOAT, GLES20.GL_LINEAR, "rgba16f", 8),
+    /**
+     * One float. Nearest filtered because float textures are not filterable on every GLES device;
+     * the only float format that can be bound as a read-write image.
+     */
+    R32F(GLES30.GL_R32F, GLES30.GL_RED, GLES20.GL_FLOAT, GLES20.GL_NEAREST, "r32f", 4);
+
+    final int internalFormat;
+    final int format;
+    final int type;
+    final int filter;
+    /** GLSL image format layout qualifier. */
+    final String qualifier;
+    final int bytesPerTexel;
+
+    TextureFormat(int internalFormat, int format, int type, int filter, String qualifier,
+                  int bytesPerTexel) {
+        this.internalFormat = internalFormat;
+        this.format = format;
+        this.type = type;
+        this.filter = filter;
+        this.qualifier = qualifier;
+        this.bytesPerTexel = bytesPerTexel;
+    }
+
+    /**
+     * A preprocessor line defining {@code macro} as this format's layout qualifier, for
+     * {@link ComputeProgram#create(android.content.Context, String, String...)}.
+     */
+    @NonNull
+    String define(@NonNull String macro) {
+        return "#define " + macro + " " + qualifier + "\n";
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.fluidsim.sim;
+
+import android.content.Context;
+import android.opengl.GLES31;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+
+/**
+ * Owns every field texture. Released textures are kept and handed out again for the same size and
+ * format, so switching quality back and forth or changing the solver does not go back to the
+ * driver for storage. Free textures beyond {@link #setMaxPooledBytes} are deleted, oldest first.
+ *
+ * <p>Textures are zeroed by a compute kernel, one program per format compiled on first use,
+ * instead of a framebuffer per clear.
+ *
+ * <p>The pool counts the textures it has created and not yet deleted; anything still acquired when
+ * it is closed is logged as a leak.
+ */
+final class TexturePool implements AutoCloseable {
+
+    private static final String TAG = "TexturePool";
+
+    /** Free bytes kept by default: one spare set of full-quality fields. */
+    static final long DEFAULT_MAX_POOLED_BYTES = 64L * 1024L * 1024L;
+
+    private static final class Entry {
+        final int texture;
+        final int width;
+        final int height;
+        final TextureFormat format;
+
+        Entry(int texture, int width, int height, TextureFormat format) {
+            this.texture = texture;
+            this.width = width;
+            this.height = height;
+            this.format = format;
+        }
+
+        long bytes() {
+            return (long) width * height * format.bytesPerTexel;
+        }
+    }
+
+    private final Context context;
+    private final HashMap<Integer, Entry> live = new HashMap<>();
+    // Released textures, oldest first.
+    private final ArrayList<Entry> free = new ArrayList<>();
+    private final EnumMap<TextureFormat, ComputeProgram> clearPrograms = new EnumMap<>(TextureFormat.class);
+    private long maxPooledBytes = DEFAULT_MAX_POOLED_BYTES;
+    private long pooledBytes = 0L;
+    private long liveBytes = 0L;
+    private int created = 0;
+    private int reused = 0;
+
+    TexturePool(@NonNull Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Returns a {@code width x height} texture of {@code format}. Its contents are undefined; see
+     * {@link #clear}.
+     */
+    int acquire(int width, int height, @NonNull TextureFormat format) {
+        for (int i = free.size() - 1; i >= 0; i--) {
+            Entry entry = free.get(i);
+            if (entry.width == width && entry.height == height && entry.format == format) {
+                free.remove(i);
+                pooledBytes -= entry.bytes();
+                reused++;
+                return entry.texture;
+            }
+        }
+        Entry entry = new Entry(GlObjects.createTexture(width, height, format), width, height, format);
+        live.put(entry.texture, entry);
+        liveBytes += entry.bytes();
+        created++;
+        return entry.texture;
+    }
+
+    /**
+     * Hands {@code texture} back for reuse. {@code 0} is ignored, so fields that were never
+     * allocated can be released unconditionally.
+     */
+    void release(int texture) {
+        if (texture == 0) {
+            return;
+        }
+        Entry entry = live.get(texture);
+        if (entry == null) {
+            throw new IllegalArgumentException("Texture " + texture + " does not belong to this pool");
+        }
+        if (free.contains(entry)) {
+            throw new IllegalStateException("Texture " + texture + " released twice");
+        }
+        free.add(entry);
+        pooledBytes += entry.bytes();
+        trim(maxPooledBytes);
+    }
+
+    /** Zeroes all texels of an acquired texture. Needs compute support. */
+    void clear(int texture) {
+        if (texture == 0) {
+            return;
+        }
+        Entry entry = live.get(texture);
+        if (entry == null) {
+            throw new IllegalArgumentException("Texture " + texture + " does not belong to this pool");
+        }
+        ComputeProgram program = clearPrograms.get(entry.format);
+        if (program == null) {
+            program = ComputeProgram.create(context, "shaders/clear.comp",
+                    FieldFormats.fieldDefine(entry.format));
+            clearPrograms.put(entry.format, program);
+        }
+        program.use();
+        ComputeProgram.bindImage(0, texture, GLES31.GL_WRITE_ONLY, entry.format);
+        ComputeProgram.dispatch(entry.width, entry.height);
+    }
+
+    /**
+     * Caps the bytes held by released textures; {@code 0} deletes textures as soon as they are
+     * released.
+     */
+    void setMaxPooledBytes(long bytes) {
+        maxPooledBytes = Math.max(0L, bytes);
+        trim(maxPooledBytes);
+    }
+
+    /** Deletes released textures, oldest first, until at most {@code bytes} remain pooled. */
+    void trim(long bytes) {
+        while (pooledBytes > bytes && !free.isEmpty()) {
+            Entry entry = free.remove(0);
+            pooledBytes -= entry.bytes();
+            delete(entry);
+        }
+    }
+
+    /** Textures created and not yet deleted, whether acquired or pooled. */
+    int getLiveTextureCount() {
+        return live.size();
+    }
+
+    /** Textures currently acquired. */
+    int getAcquiredTextureCount() {
+        return live.size() - free.size();
+    }
+
+    long getLiveBytes() {
+        return liveBytes;
+    }
+
+    long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    /** Textures created over the pool's lifetime. */
+    int getCreatedCount() {
+        return created;
+    }
+
+    /** Acquisitions served from released textures. */
+    int getReusedCount() {
+        return reused;
+    }
+
+    /**
+     * Forgets every texture and clear program without deleting them, after the context they
+     * belonged to was lost. Names the caller still holds must not be released afterwards.
+     */
+    void discard() {
+        live.clear();
+        free.clear();
+        clearPrograms.clear();
+        pooledBytes = 0L;
+        liveBytes = 0L;
+    }
+
+    /**
+     * Deletes every texture and clear program. Textures still acquired are deleted too and
+     * reported.
+     */
+    @Override
+    public void close() {
+        int leaked = getAcquiredTextureCount();
+        if (leaked > 0) {
+            Log.w(TAG, leaked + " textures still acquired when the pool was closed");
+        }
+        for (Entry entry : new ArrayList<>(live.values())) {
+            delete(entry);
+        }
+        free.clear();
+        pooledBytes = 0L;
+        for (ComputeProgram program : clearPrograms.values()) {
+            program.close();
+        }
+        clearPrograms.clear();
+    }
+
+    private void delete(Entry entry) {
+        live.remove(entry.texture);
+        liveBytes -= entry.bytes();
+        GlObjects.deleteTexture(entry.texture);
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.fluidsim.sim.cache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Directory of linked program binaries as returned by {@code glGetProgramBinary}, one file per
+ * {@link #key}. No GL is involved: the caller gets and loads the binaries, this class only names,
+ * stores and verifies them.
+ *
+ * <p>A key is the SHA-256 of the complete shader source together with the driver's
+ * {@code GL_RENDERER} and {@code GL_VERSION} strings, so an edited shader or a driver update
+ * misses instead of feeding the driver a stale binary. The driver may still reject a binary it
+ * produced; callers then {@link #remove} it and compile from source.
+ *
+ * <p>Layout, little endian: {@code int} magic, version, binary format, binary length and CRC-32 of
+ * the binary, then the binary. Files are written to a temporary sibling and renamed into place.
+ * Beyond {@link #MAX_ENTRIES} files the least recently written are deleted.
+ */
+public final class ProgramBinaryStore {
+
+    static final int MAGIC = 0x4342504D; // "MPBC"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 20;
+    /** Enough for every program variant several times over, across a few driver updates. */
+    public static final int MAX_ENTRIES = 64;
+    // Linked compute programs are tens of kilobytes; anything near this is a corrupt header.
+    private static final int MAX_BINARY_BYTES = 16 * 1024 * 1024;
+    private static final String SUFFIX = ".bin";
+
+    /** A stored binary and the driver-specific format it was returned with. */
+    public static final class Binary {
+        public final int format;
+        /** Direct buffer holding exactly the binary, positioned at its start. */
+        @NonNull
+        public final ByteBuffer data;
+
+        Binary(int format, @NonNull ByteBuffer data) {
+            this.format = format;
+            this.data = data;
+        }
+    }
+
+    private final File directory;
+
+    public ProgramBinaryStore(@NonNull File directory) {
+        this.directory = directory;
+    }
+
+    /** Cache key for a program built from {@code source} by the given driver. */
+    @NonNull
+    public static String key(@NonNull String source, @Nullable String renderer, @Nullable String version) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java and Android runtime is required to provide SHA-256.
+            throw new IllegalStateException(e);
+        }
+        digest.update(String.valueOf(renderer).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(String.valueOf(version).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        byte[] hash = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Returns the binary stored under {@code key}, or {@code null} if there is none. A file that is
+     * truncated, malformed or fails its checksum is deleted and reported as an {@link IOException}.
+     */
+    @Nullable
+    public Binary load(@NonNull String key) throws IOException {
+        File file = file(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header);
+            int format = header.getInt(8);
+            int length = header.getInt(12);
+            int checksum = header.getInt(16);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+                    || length <= 0 || length > MAX_BINARY_BYTES
+                    || channel.size() != HEADER_BYTES + (long) length) {
+                throw new IOException("Malformed program binary " + file.getName());
+            }
+            ByteBuffer data = ByteBuffer.allocateDirect(length);
+            readFully(channel, data);
+            data.flip();
+            if (checksum(data) != checksum) {
+                throw new IOException("Program binary checksum mismatch " + file.getName());
+            }
+            return new Binary(format, data);
+        } catch (IOException e) {
+            // Best effort: a file that cannot be deleted fails the same way next time.
+            file.delete();
+            throw e;
+        }
+    }
+
+    /** Stores the remaining bytes of {@code binary} under {@code key}, replacing any old entry. */
+    public void store(@NonNull String key, int format, @NonNull ByteBuffer binary) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        ByteBuffer data = binary.duplicate();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(format).putInt(data.remaining())
+                .putInt(checksum(data));
+        header.flip();
+        File file = file(key);
+        File temp = new File(directory, key + ".tmp");
+        try (FileChannel channel = new FileOutputStream(temp).getChannel()) {
+            writeFully(channel, header);
+            writeFully(channel, data);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+        prune(MAX_ENTRIES);
+    }
+
+    /** Deletes the entry for {@code key}, e.g. after the driver rejected it. */
+    public void remove(@NonNull String key) {
+        file(key).delete();
+    }
+
+    /** Deletes the least recently written entries beyond {@code maxEntries}. */
+    public void prune(int maxEntries) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null || files.length <= maxEntries) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (int i = 0; i < files.length - maxEntries; i++) {
+            files[i].delete();
+        }
+    }
+
+    private File file(String key) {
+        return new File(directory, key + SUFFIX);
+    }
+
+    private static int checksum(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Truncated program binary");
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.fluidsim.sim.cpu;
+
+/**
+ * CPU reference of the active-tile classification in {@code tile_classify.comp} and the list
+ * compaction in {@code tile_compact.comp}. Fields are split into {@link #TILE_SIZE} square tiles,
+ * row-major, with partial tiles along the right and top edges. Each tile keeps a flag word whose
+ * bit 0 says it was hot this tick and bit 1 that it was hot the tick before.
+ *
+ * <p>The GPU appends listed tiles in whatever order its invocations finish, so only the set of
+ * tiles matches; this reference lists them in row-major order.
+ */
+public final class ActiveTileReference {
+
+    public static final int TILE_SIZE = 8;
+
+    private ActiveTileReference() {
+    }
+
+    /** Tiles needed to cover {@code cells} cells. */
+    public static int tilesAcross(int cells) {
+        return (cells + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    /** Packs tile coordinates the way the tile list stores them. */
+    public static int packTile(int tileX, int tileY) {
+        return tileX | (tileY << 16);
+    }
+
+    /**
+     * Shifts every tile's flags and sets bit 0 where a channel of {@code field}, a
+     * {@code width x height} grid, exceeds {@code fieldThreshold} in magnitude, or where the
+     * velocity exceeds {@code velocityThreshold}. The velocity is a
+     * {@code velocityWidth x velocityHeight} grid sampled bilinearly at the field's cell centres,
+     * as the shader's filtered lookup does, so it may be coarser than the field.
+     */
+    public static void classify(int[] flags, float[][] field, int width, int height,
+                                float[] velocityX, float[] velocityY,
+                                int velocityWidth, int velocityHeight,
+                                float fieldThreshold, float velocityThreshold) {
+        int tilesX = tilesAcross(width);
+        int tilesY = tilesAcross(height);
+        float threshold2 = velocityThreshold * velocityThreshold;
+        for (int tileY = 0; tileY < tilesY; tileY++) {
+            for (int tileX = 0; tileX < tilesX; tileX++) {
+                boolean hot = false;
+                int yEnd = Math.min((tileY + 1) * TILE_SIZE, height);
+                int xEnd = Math.min((tileX + 1) * TILE_SIZE, width);
+                for (int y = tileY * TILE_SIZE; y < yEnd && !hot; y++) {
+                    for (int x = tileX * TILE_SIZE; x < xEnd; x++) {
+                        if (isHot(field, y * width + x, fieldThreshold)) {
+                            hot = true;
+                            break;
+                        }
+                        float u = (x + 0.5f) / width;
+                        float v = (y + 0.5f) / height;
+                        float vx = sample(velocityX, velocityWidth, velocityHeight, u, v);
+                        float vy = sample(velocityY, velocityWidth, velocityHeight, u, v);
+                        if (vx * vx + vy * vy > threshold2) {
+                            hot = true;
+                            break;
+                        }
+                    }
+                }
+                int tile = tileY * tilesX + tileX;
+                flags[tile] = ((flags[tile] << 1) & 2) | (hot ? 1 : 0);
+            }
+        }
+    }
+
+    /**
+     * Writes the packed coordinates of every tile within {@code halo} tiles of one whose flags are
+     * non-zero into {@code tiles}, or of every tile with {@code allActive}, and returns how many
+     * were written. {@code tiles} must hold {@code tilesX * tilesY} entries.
+     */
+    public static int compact(int[] tiles, int[] flags, int tilesX, int tilesY, int halo,
+                              boolean allActive) {
+        int count = 0;
+        for (int tileY = 0; tileY < tilesY; tileY++) {
+            for (int tileX = 0; tileX < tilesX; tileX++) {
+                if (allActive || isNearHot(flags, tilesX, tilesY, tileX, tileY, halo)) {
+                    tiles[count++] = packTile(tileX, tileY);
+                }
+            }
+        }
+        return count;
+    }
+
+    private static boolean isNearHot(int[] flags, int tilesX, int tilesY, int tileX, int tileY,
+                                     int halo) {
+        int yEnd = Math.min(tileY + halo, tilesY - 1);
+        int xEnd = Math.min(tileX + halo, tilesX - 1);
+        for (int y = Math.max(tileY - halo, 0); y <= yEnd; y++) {
+            for (int x = Math.max(tileX - halo, 0); x <= xEnd; x++) {
+                if ((flags[y * tilesX + x] & 3) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isHot(float[][] field, int index, float threshold) {
+        for (float[] channel : field) {
+            if (Math.abs(channel[index]) > threshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Bilinear lookup at normalised coordinates with clamp-to-edge, like a filtered texture.
+    private static float sample(float[] grid, int width, int height, float u, float v) {
+        float x = Math.max(0f, Math.min(u * width - 0.5f, width - 1f));
+        float y = Math.max(0f, Math.min(v * height - 0.5f, height - 1f));
+        int x0 = (int) x;
+        int y0 = (int) y;
+        int x1 = Math.min(x0 + 1, width - 1);
+        int y1 = Math.min(y0 + 1, height - 1);
+        float fx = x - x0;
+        float fy = y - y0;
+        float a = grid[y0 * width + x0] + (grid[y0 * width + x1] - grid[y0 * width + x0]) * fx;
+        float b = grid[y1 * width + x0] + (grid[y1 * width + x1] - grid[y1 * width + x0]) * fx;
+        return a + (b - a) * fy;
+    }
+}
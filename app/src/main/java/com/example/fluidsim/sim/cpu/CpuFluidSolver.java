@@ -0,0 +1,448 @@
+package com.example.fluidsim.sim.cpu;
+
+import androidx.annotation.NonNull;
+
+import com.example.fluidsim.sim.AdvectionScheme;
+import com.example.fluidsim.sim.PressureSolverType;
+
+import java.util.Arrays;
+
+/**
+ * Pure-Java fluid solver used when compute shaders are unavailable. It runs the same
+ * advect -> splat -> divergence -> Jacobi -> project pipeline as the GPU path on planar
+ * {@code float[]} grids, splitting rows across a fork-join pool.
+ */
+public final class CpuFluidSolver implements AutoCloseable {
+
+    /** Stages of {@link #splat} and {@link #step} whose wall time is accumulated. */
+    public enum Phase {
+        SPLAT,
+        ADVECT,
+        VORTICITY,
+        DIVERGENCE,
+        PRESSURE,
+        PROJECT
+    }
+
+    private static final float JACOBI_ALPHA = -1f;
+    private static final float JACOBI_R_BETA = 0.25f;
+    /** Pressure steps between residual checks when a tolerance is set. */
+    public static final int RESIDUAL_CHECK_INTERVAL = 4;
+
+    private final RowScheduler scheduler;
+
+    private final RowScheduler.RowKernel advectVelocityKernel = this::advectVelocityRows;
+    private final RowScheduler.RowKernel advectDyeKernel = this::advectDyeRows;
+    private final RowScheduler.RowKernel correctVelocityKernel = this::correctVelocityRows;
+    private final RowScheduler.RowKernel correctDyeKernel = this::correctDyeRows;
+    private final RowScheduler.RowKernel splatKernel = this::splatRows;
+    private final RowScheduler.RowKernel vorticityKernel = this::vorticityRows;
+    private final RowScheduler.RowKernel divergenceKernel = this::divergenceRows;
+    private final RowScheduler.RowKernel jacobiKernel = this::jacobiRows;
+    private final RowScheduler.RowKernel redBlackKernel = this::redBlackRows;
+    private final RowScheduler.RowKernel projectKernel = this::projectRows;
+    private final RowScheduler.RowKernel packDyeKernel = this::packDyeRows;
+
+    private int width = 0;
+    private int height = 0;
+    // Cell spacing along each axis. Velocities are stored in cells of unit size per second, so a
+    // square grid uses 1 on both axes.
+    private float cellWidth = 1f;
+    private float cellHeight = 1f;
+
+    private float[][] velocity;
+    private float[][] velocityScratch;
+    private float[][] dye;
+    private float[][] dyeScratch;
+    // Semi-Lagrangian predictions of fields advected with MacCormack, otherwise null.
+    private float[][] velocityPredicted;
+    private float[][] dyePredicted;
+    private AdvectionScheme velocityAdvection = AdvectionScheme.SEMI_LAGRANGIAN;
+    private AdvectionScheme dyeAdvection = AdvectionScheme.SEMI_LAGRANGIAN;
+    private float[] pressure;
+    private float[] pressureScratch;
+    private float[] divergence;
+    private PressureSolverType pressureSolver = PressureSolverType.JACOBI;
+    private float overRelaxation = 1.8f;
+    private float vorticity = 0f;
+    private MultigridReference.Solver multigrid;
+    private float pressureTolerance = 0f;
+    private final float[] residualNorms = new float[2];
+    private int lastPressureSteps = 0;
+    private float lastResidualMax = Float.NaN;
+    private float lastResidualRms = Float.NaN;
+    private final long[] phaseNanos = new long[Phase.values().length];
+
+    // Per-pass parameters read by the row kernels; set on the calling thread before each dispatch.
+    private float passDt;
+    private float passDissipation;
+    private int passParity;
+    private float splatX;
+    private float splatY;
+    private float splatAspect;
+    private float splatRadius;
+    private float splatDeltaX;
+    private float splatDeltaY;
+    private float splatR;
+    private float splatG;
+    private float splatB;
+    private HalfFloatField packTarget;
+
+    public CpuFluidSolver() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public CpuFluidSolver(int parallelism) {
+        this.scheduler = new RowScheduler(parallelism);
+    }
+
+    /**
+     * Reallocates the grids if the size changed. Existing state is discarded in that case.
+     */
+    public void resize(int width, int height) {
+        width = Math.max(width, 3);
+        height = Math.max(height, 3);
+        if (width == this.width && height == this.height) {
+            return;
+        }
+        this.width = width;
+        this.height = height;
+        int cells = width * height;
+        velocity = new float[][]{new float[cells], new float[cells]};
+        velocityScratch = new float[][]{new float[cells], new float[cells]};
+        dye = new float[][]{new float[cells], new float[cells], new float[cells], new float[cells]};
+        dyeScratch = new float[][]{new float[cells], new float[cells], new float[cells], new float[cells]};
+        pressure = new float[cells];
+        pressureScratch = new float[cells];
+        divergence = new float[cells];
+        allocatePredictions();
+        multigrid = pressureSolver == PressureSolverType.MULTIGRID
+                ? new MultigridReference.Solver(width, height) : null;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Sets the spacing of the cells along each axis relative to the unit the velocities are
+     * measured in, for grids whose cells are not square on screen.
+     */
+    public void setCellSize(float cellWidth, float cellHeight) {
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+    }
+
+    public void setPressureSolver(@NonNull PressureSolverType pressureSolver) {
+        this.pressureSolver = pressureSolver;
+        if (pressureSolver != PressureSolverType.MULTIGRID) {
+            multigrid = null;
+        } else if (multigrid == null && width > 0) {
+            multigrid = new MultigridReference.Solver(width, height);
+        }
+    }
+
+    /** Selects the advection scheme of each field; see {@link AdvectionScheme}. */
+    public void setAdvectionScheme(@NonNull AdvectionScheme velocityScheme,
+                                   @NonNull AdvectionScheme dyeScheme) {
+        velocityAdvection = velocityScheme;
+        dyeAdvection = dyeScheme;
+        if (width > 0) {
+            allocatePredictions();
+        }
+    }
+
+    /** Vorticity confinement strength; {@code 0} skips the pass. */
+    public void setVorticity(float strength) {
+        vorticity = Math.max(0f, strength);
+    }
+
+    /**
+     * Over-relaxation factor for {@link PressureSolverType#RED_BLACK}, in {@code (0, 2)}.
+     */
+    public void setOverRelaxation(float omega) {
+        overRelaxation = omega;
+    }
+
+    /**
+     * Root-mean-square residual at which the pressure solve stops early; {@code 0} always runs the
+     * requested number of steps.
+     */
+    public void setPressureTolerance(float tolerance) {
+        pressureTolerance = Math.max(0f, tolerance);
+    }
+
+    /** Pressure steps the last {@link #step} actually ran. */
+    public int getLastPressureSteps() {
+        return lastPressureSteps;
+    }
+
+    /** Largest absolute residual after the last solve, or NaN if no tolerance is set. */
+    public float getLastResidualMax() {
+        return lastResidualMax;
+    }
+
+    /** Root-mean-square residual after the last solve, or NaN if no tolerance is set. */
+    public float getLastResidualRms() {
+        return lastResidualRms;
+    }
+
+    public void clear() {
+        if (width == 0) {
+            return;
+        }
+        fill(velocity);
+        fill(dye);
+        Arrays.fill(pressure, 0f);
+        Arrays.fill(divergence, 0f);
+    }
+
+    /**
+     * Applies one touch impulse. Coordinates are normalised to [0, 1] with the origin bottom-left,
+     * and the velocity delta is in cells per second, matching {@code splat.comp}.
+     */
+    public void splat(float pointX, float pointY, float aspect, float radius,
+                      float deltaX, float deltaY, float colorR, float colorG, float colorB) {
+        if (width == 0) {
+            return;
+        }
+        splatX = pointX;
+        splatY = pointY;
+        splatAspect = aspect;
+        splatRadius = radius;
+        splatDeltaX = deltaX;
+        splatDeltaY = deltaY;
+        splatR = colorR;
+        splatG = colorG;
+        splatB = colorB;
+        long start = System.nanoTime();
+        scheduler.forEachBand(height, splatKernel);
+        phaseNanos[Phase.SPLAT.ordinal()] += System.nanoTime() - start;
+    }
+
+    /**
+     * Advances the simulation by {@code dt}. {@code pressureSteps} counts Jacobi sweeps, red-black
+     * sweep pairs or V-cycles depending on the selected pressure solver.
+     */
+    public void step(float dt, float velocityDissipation, float dyeDissipation, int pressureSteps) {
+        if (width == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        passDt = dt;
+        advect(advectVelocityKernel, correctVelocityKernel, velocityPredicted != null,
+                velocityDissipation);
+        float[][] swap = velocity;
+        velocity = velocityScratch;
+        velocityScratch = swap;
+
+        advect(advectDyeKernel, correctDyeKernel, dyePredicted != null, dyeDissipation);
+        swap = dye;
+        dye = dyeScratch;
+        dyeScratch = swap;
+        start = lap(Phase.ADVECT, start);
+
+        if (vorticity > 0f) {
+            scheduler.forEachBand(height, vorticityKernel);
+            swap = velocity;
+            velocity = velocityScratch;
+            velocityScratch = swap;
+            start = lap(Phase.VORTICITY, start);
+        }
+
+        scheduler.forEachBand(height, divergenceKernel);
+        start = lap(Phase.DIVERGENCE, start);
+        solvePressure(pressureSteps);
+        start = lap(Phase.PRESSURE, start);
+        scheduler.forEachBand(height, projectKernel);
+        lap(Phase.PROJECT, start);
+    }
+
+    /** Wall time spent in {@code phase} since construction or {@link #resetPhaseTimes()}. */
+    public long getPhaseNanos(@NonNull Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    public void resetPhaseTimes() {
+        Arrays.fill(phaseNanos, 0L);
+    }
+
+    /**
+     * Converts the dye field into an RGBA half-float field of the same size, ready for a
+     * {@code GL_HALF_FLOAT} texture upload.
+     */
+    public void readDye(@NonNull HalfFloatField target) {
+        if (width == 0) {
+            return;
+        }
+        packTarget = target;
+        scheduler.forEachBand(height, packDyeKernel);
+        packTarget = null;
+    }
+
+    /** Copies the velocity components, row-major, into arrays of at least one cell per grid cell. */
+    void readVelocity(@NonNull float[] targetX, @NonNull float[] targetY) {
+        System.arraycopy(velocity[0], 0, targetX, 0, width * height);
+        System.arraycopy(velocity[1], 0, targetY, 0, width * height);
+    }
+
+    @Override
+    public void close() {
+        scheduler.close();
+    }
+
+    /**
+     * Improves the previous frame's pressure, which is kept as the initial guess. With a tolerance
+     * set, the residual is measured before the first step and every
+     * {@link #RESIDUAL_CHECK_INTERVAL} steps, and the solve stops once it is met.
+     */
+    private void solvePressure(int steps) {
+        boolean monitored = pressureTolerance > 0f;
+        int done = 0;
+        if (!monitored || !residualConverged()) {
+            while (done < steps) {
+                int block = monitored ? Math.min(RESIDUAL_CHECK_INTERVAL, steps - done) : steps;
+                for (int i = 0; i < block; i++) {
+                    pressureStep();
+                }
+                done += block;
+                if (monitored && residualConverged()) {
+                    break;
+                }
+            }
+        }
+        lastPressureSteps = done;
+        if (!monitored) {
+            lastResidualMax = Float.NaN;
+            lastResidualRms = Float.NaN;
+        }
+    }
+
+    private long lap(Phase phase, long start) {
+        long now = System.nanoTime();
+        phaseNanos[phase.ordinal()] += now - start;
+        return now;
+    }
+
+    private void pressureStep() {
+        if (multigrid != null) {
+            multigrid.vCycle(pressure, divergence);
+        } else if (pressureSolver == PressureSolverType.RED_BLACK) {
+            passParity = 0;
+            scheduler.forEachBand(height, redBlackKernel);
+            passParity = 1;
+            scheduler.forEachBand(height, redBlackKernel);
+        } else {
+            scheduler.forEachBand(height, jacobiKernel);
+            float[] p = pressure;
+            pressure = pressureScratch;
+            pressureScratch = p;
+        }
+    }
+
+    private boolean residualConverged() {
+        FluidKernels.residualNorms(pressure, divergence, width, height, residualNorms, 0, height);
+        lastResidualMax = residualNorms[0];
+        lastResidualRms = (float) Math.sqrt(residualNorms[1] / ((width - 2) * (height - 2)));
+        return lastResidualRms <= pressureTolerance;
+    }
+
+    /**
+     * Runs {@code advect} over every row, and with {@code corrected} runs it undissipated into the
+     * prediction and then {@code correct} once every row of the prediction is done.
+     */
+    private void advect(RowScheduler.RowKernel advect, RowScheduler.RowKernel correct,
+                        boolean corrected, float dissipation) {
+        passDissipation = corrected ? 1f : dissipation;
+        scheduler.forEachBand(height, advect);
+        if (corrected) {
+            passDissipation = dissipation;
+            scheduler.forEachBand(height, correct);
+        }
+    }
+
+    private void advectVelocityRows(int rowStart, int rowEnd) {
+        float[][] target = velocityPredicted != null ? velocityPredicted : velocityScratch;
+        FluidKernels.advect(target, velocity, velocity[0], velocity[1], width, height,
+                cellWidth, cellHeight, passDt, passDissipation, rowStart, rowEnd);
+    }
+
+    private void advectDyeRows(int rowStart, int rowEnd) {
+        float[][] target = dyePredicted != null ? dyePredicted : dyeScratch;
+        FluidKernels.advect(target, dye, velocity[0], velocity[1], width, height,
+                cellWidth, cellHeight, passDt, passDissipation, rowStart, rowEnd);
+    }
+
+    private void correctVelocityRows(int rowStart, int rowEnd) {
+        FluidKernels.advectMacCormack(velocityScratch, velocity, velocityPredicted,
+                velocity[0], velocity[1], width, height, cellWidth, cellHeight,
+                passDt, passDissipation, rowStart, rowEnd);
+    }
+
+    private void correctDyeRows(int rowStart, int rowEnd) {
+        FluidKernels.advectMacCormack(dyeScratch, dye, dyePredicted,
+                velocity[0], velocity[1], width, height, cellWidth, cellHeight,
+                passDt, passDissipation, rowStart, rowEnd);
+    }
+
+    private void allocatePredictions() {
+        int cells = width * height;
+        boolean velocitySized = velocityPredicted != null && velocityPredicted[0].length == cells;
+        if (velocityAdvection != AdvectionScheme.MACCORMACK) {
+            velocityPredicted = null;
+        } else if (!velocitySized) {
+            velocityPredicted = new float[][]{new float[cells], new float[cells]};
+        }
+        boolean dyeSized = dyePredicted != null && dyePredicted[0].length == cells;
+        if (dyeAdvection != AdvectionScheme.MACCORMACK) {
+            dyePredicted = null;
+        } else if (!dyeSized) {
+            dyePredicted = new float[][]{new float[cells], new float[cells], new float[cells],
+                    new float[cells]};
+        }
+    }
+
+    private void splatRows(int rowStart, int rowEnd) {
+        FluidKernels.splat(velocity[0], velocity[1], dye, width, height, splatX, splatY, splatAspect,
+                splatRadius, splatDeltaX, splatDeltaY, splatR, splatG, splatB, rowStart, rowEnd);
+    }
+
+    private void vorticityRows(int rowStart, int rowEnd) {
+        FluidKernels.vorticityConfinement(velocityScratch[0], velocityScratch[1], velocity[0], velocity[1],
+                width, height, cellWidth, cellHeight, vorticity, passDt, rowStart, rowEnd);
+    }
+
+    private void divergenceRows(int rowStart, int rowEnd) {
+        FluidKernels.divergence(divergence, velocity[0], velocity[1], width, height,
+                cellWidth, cellHeight, rowStart, rowEnd);
+    }
+
+    private void jacobiRows(int rowStart, int rowEnd) {
+        FluidKernels.jacobi(pressureScratch, pressure, divergence, width, height,
+                JACOBI_ALPHA, JACOBI_R_BETA, rowStart, rowEnd);
+    }
+
+    private void redBlackRows(int rowStart, int rowEnd) {
+        FluidKernels.redBlack(pressure, divergence, width, height, JACOBI_ALPHA, JACOBI_R_BETA,
+                overRelaxation, passParity, rowStart, rowEnd);
+    }
+
+    private void projectRows(int rowStart, int rowEnd) {
+        FluidKernels.project(velocity[0], velocity[1], pressure, width, height,
+                cellWidth, cellHeight, rowStart, rowEnd);
+    }
+
+    private void packDyeRows(int rowStart, int rowEnd) {
+        packTarget.writePlanar(dye, rowStart, rowEnd);
+    }
+
+    private static void fill(float[][] channels) {
+        for (float[] channel : channels) {
+            Arrays.fill(channel, 0f);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.example.fluidsim.sim.cpu;
+
+/**
+ * Java reference versions of the simulation compute shaders. Every kernel works on a band of rows
+ * {@code [rowStart, rowEnd)} of row-major, single-channel {@code float[]} grids so that callers can
+ * split the work across threads. The math mirrors {@code advect.comp}, {@code maccormack.comp},
+ * {@code splat.comp}, {@code vorticity.comp}, {@code divergence.comp}, {@code jacobi.comp} and
+ * {@code project.comp}.
+ */
+public final class FluidKernels {
+
+    private FluidKernels() {
+    }
+
+    /**
+     * Semi-Lagrangian back-trace of {@code source} along the velocity field with bilinear sampling.
+     * Velocities are expressed in units of {@code texelX x texelY} cells per second, as in the
+     * shader.
+     */
+    public static void advect(float[][] target, float[][] source, float[] velocityX, float[] velocityY,
+                              int width, int height, float texelX, float texelY,
+                              float dt, float dissipation, int rowStart, int rowEnd) {
+        int channels = source.length;
+        float stepX = dt / Math.max(texelX, 1e-6f);
+        float stepY = dt / Math.max(texelY, 1e-6f);
+        float maxX = width - 1.001f;
+        float maxY = height - 1.001f;
+        for (int y = rowStart; y < rowEnd; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int index = row + x;
+                float backX = clamp(x + 0.5f - velocityX[index] * stepX, 0.5f, width - 0.5f) - 0.5f;
+                float backY = clamp(y + 0.5f - velocityY[index] * stepY, 0.5f, height - 0.5f) - 0.5f;
+                backX = clamp(backX, 0f, maxX);
+                backY = clamp(backY, 0f, maxY);
+                int x0 = (int) backX;
+                int y0 = (int) backY;
+                int x1 = Math.min(x0 + 1, width - 1);
+                int y1 = Math.min(y0 + 1, height - 1);
+                float fx = backX - x0;
+                float fy = backY - y0;
+                int i00 = y0 * width + x0;
+                int i10 = y0 * width + x1;
+                int i01 = y1 * width + x0;
+                int i11 = y1 * width + x1;
+                for (int c = 0; c < channels; c++) {
+                    float[] s = source[c];
+                    float a = s[i00] + (s[i10] - s[i00]) * fx;
+                    float b = s[i01] + (s[i11] - s[i01]) * fx;
+                    target[c][index] = (a + (b - a) * fy) * dissipation;
+                }
+            }
+        }
+    }
+
+    /**
+     * MacCormack correction of {@code predicted}, which {@link #advect} produced from
+     * {@code source} without dissipation. {@code predicted} is traced forward to estimate the
+     * error of the back-trace, half of it is added back, and the result is clamped to the range of
+     * the four source cells around the back-traced point so that it cannot overshoot. Mirrors
+     * {@code maccormack.comp}; rows read {@code predicted} across band boundaries, so the whole
+     * prediction must be complete first.
+     */
+    public static void advectMacCormack(float[][] target, float[][] source, float[][] predicted,
+                                        float[] velocityX, float[] velocityY,
+                                        int width, int height, float texelX, float texelY,
+                                        float dt, float dissipation, int rowStart, int rowEnd) {
+        int channels = source.length;
+        float stepX = dt / Math.max(texelX, 1e-6f);
+        float stepY = dt / Math.max(texelY, 1e-6f);
+        float maxX = width - 1.001f;
+        float maxY = height - 1.001f;
+        for (int y = rowStart; y < rowEnd; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int index = row + x;
+                float offsetX = velocityX[index] * stepX;
+                float offsetY = velocityY[index] * stepY;
+                float backX = clamp(clamp(x + 0.5f - offsetX, 0.5f, width - 0.5f) - 0.5f, 0f, maxX);
+                float backY = clamp(clamp(y + 0.5f - offsetY, 0.5f, height - 0.5f) - 0.5f, 0f, maxY);
+                float aheadX = clamp(clamp(x + 0.5f + offsetX, 0.5f, width - 0.5f) - 0.5f, 0f, maxX);
+                float aheadY = clamp(clamp(y + 0.5f + offsetY, 0.5f, height - 0.5f) - 0.5f, 0f, maxY);
+                int bx0 = (int) backX;
+                int by0 = (int) backY;
+                int bx1 = Math.min(bx0 + 1, width - 1);
+                int by1 = Math.min(by0 + 1, height - 1);
+                int ax0 = (int) aheadX;
+                int ay0 = (int) aheadY;
+                int ax1 = Math.min(ax0 + 1, width - 1);
+                int ay1 = Math.min(ay0 + 1, height - 1);
+                float fx = aheadX - ax0;
+                float fy = aheadY - ay0;
+                for (int c = 0; c < channels; c++) {
+                    float[] s = source[c];
+                    float[] p = predicted[c];
+                    float a = p[ay0 * width + ax0] + (p[ay0 * width + ax1] - p[ay0 * width + ax0]) * fx;
+                    float b = p[ay1 * width + ax0] + (p[ay1 * width + ax1] - p[ay1 * width + ax0]) * fx;
+                    float reversed = a + (b - a) * fy;
+                    float corrected = p[index] + 0.5f * (s[index] - reversed);
+                    float s00 = s[by0 * width + bx0];
+                    float s10 = s[by0 * width + bx1];
+                    float s01 = s[by1 * width + bx0];
+                    float s11 = s[by1 * width + bx1];
+                    float low = Math.min(Math.min(s00, s10), Math.min(s01, s11));
+                    float high = Math.max(Math.max(s00, s10), Math.max(s01, s11));
+                    target[c][index] = clamp(corrected, low, high) * dissipation;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a Gaussian impulse to the velocity field and, when {@code dye} is non-null, the matching
+     * colour to the RGBA dye channels. Passing {@code null} velocity arrays skips the force.
+     */
+    public static void splat(float[] velocityX, float[] velocityY, float[][] dye,
+                             int width, int height, float pointX, float pointY, float aspect,
+                             float radius, float deltaX, float deltaY,
+                             float colorR, float colorG, float colorB,
+                             int rowStart, int rowEnd) {
+        float invRadius = 1f / Math.max(radius, 1e-4f);
+        float invWidth = 1f / width;
+        float invHeight = 1f / height;
+        for (int y = rowStart; y < rowEnd; y++) {
+            int row = y * width;
+            float offsetY = (y + 0.5f) * invHeight - pointY;
+            float offsetY2 = offsetY * offsetY;
+            for (int x = 0; x < width; x++) {
+                float offsetX = ((x + 0.5f) * invWidth - pointX) * aspect;
+                float influence = (float) Math.exp(-(offsetX * offsetX + offsetY2) * invRadius);
+                int index = row + x;
+                if (velocityX != null) {
+                    velocityX[index] += deltaX * influence;
+                    velocityY[index] += deltaY * influence;
+                }
+                if (dye != null) {
+                    dye[0][index] += colorR * influence;
+                    dye[1][index] += colorG * influence;
+                    dye[2][index] += colorB * influence;
+                    dye[3][index] = Math.max(dye[3][index], influence);
+                }
+            }
+        }
+    }
+
+    /**
+     * Vorticity confinement: adds {@code strength * curl * (N.y, -N.x) * dt} to the velocity, where
+     * {@code N} is the normalised gradient of the curl's magnitude, pushing flow around the centres
+     * of small swirls that advection would otherwise smooth away. Curl is recomputed per
+     * neighbour rather than stored, so rows may be split across threads; border cells are copied.
+     */
+    public static void vorticityConfinement(float[] targetX, float[] targetY,
+                                            float[] velocityX, float[] velocityY,
+                                            int width, int height, float texelX, float texelY,
+                                            float strength, float dt, int rowStart, int rowEnd) {
+        float halfX = 0.5f / Math.max(texelX, 1e-6f);
+        float halfY = 0.5f / Math.max(texelY, 1e-6f);
+        for (int y = rowStart; y < rowEnd; y++) {
+            int row = y * width;
+            boolean borderRow = y == 0 || y == height - 1;
+            for (int x = 0; x < width; x++) {
+                int index = row + x;
+                targetX[index] = velocityX[index];
+                targetY[index] = velocityY[index];
+                if (borderRow || x == 0 || x == width - 1) {
+                    continue;
+                }
+                float curl = curl(velocityX, velocityY, width, height, x, y, halfX, halfY);
+                float curlL = curl(velocityX, velocityY, width, height, x - 1, y, halfX, halfY);
+                float curlR = curl(velocityX, velocityY, width, height, x + 1, y, halfX, halfY);
+                float curlB = curl(velocityX, velocityY, width, height, x, y - 1, halfX, halfY);
+                float curlT = curl(velocityX, velocityY, width, height, x, y + 1, halfX, halfY);
+                float gradientX = halfX * (Math.abs(curlR) - Math.abs(curlL));
+                float gradientY = halfY * (Math.abs(curlT) - Math.abs(curlB));
+                float scale = strength * curl * dt
+                        / ((float) Math.sqrt(gradientX * gradientX + gradientY * gradientY) + 1e-5f);
+                targetX[index] += gradientY * scale;
+                targetY[index] -= gradientX * scale;
+            }
+        }
+    }
+
+    /**
+     * Central-difference divergence of the velocity field. Border cells are written as zero.
+     */
+    public static void divergence(float[] target, float[] velocityX, float[] velocityY,
+                                  int width, int height, float texelX, float texelY,
+                                  int rowStart, int rowEnd) {
+        float halfX = 0.5f / Math.max(texelX, 1e-6f);
+        float halfY = 0.5f / Math.max(texelY, 1e-6f);
+        for (int y = rowStart; y < rowEnd; y++) {
+            int row = y * width;
+            boolean borderRow = y == 0 || y == height - 1;
+            for (int x = 0; x < width; x++) {
+                int index = row + x;
+                if (borderRow || x == 0 || x == width - 1) {
+                    target[index] = 0f;
+                    continue;
+                }
+                target[index] = halfX * (velocityX[index + 1] - velocityX[index - 1])
+                        + halfY * (velocityY[index + width] - velocityY[index - width]);
+            }
+        }
+    }
+
+    /**
+     * One Jacobi relaxation sweep of the pressure Poisson equation, reading {@code pressure} and
+     * writing {@code target}. Border cells are written as zero.
+     */
+    public static void jacobi(float[] target, float[] pressure, float[] divergence,
+                              int width, int height, float alpha, float rBeta,
+                              int rowStart, int rowEnd) {
+        for (int y = rowStart; y < rowEnd; y++) {
+            int row = y * width;
+            boolean borderRow = y == 0 || y == height - 1;
+            for (int x = 0; x < width; x++) {
+                int index = row + x;
+                if (borderRow || x == 0 || x == width - 1) {
+                    target[index] = 0f;
+                    continue;
+                }
+                target[index] = (pressure[index - 1] + pressure[index + 1]
+                        + pressure[index - width] + pressure[index + width]
+                        + alpha * divergence[index]) * rBeta;
+            }
+        }
+    }
+
+    /**
+     * One colour of a red-black successive over-relaxation sweep, updating {@code pressure} in
+     * place. Only cells with {@code (x + y) % 2 == parity} are written; they read only cells of the
+     * other colour, so rows may be split across threads. {@code omega = 1} is plain Gauss-Seidel.
+     * Border cells of the given colour are written as zero.
+     */
+    public static void redBlack(float[] pressure, float[] divergence, int width, int height,
+                                float alpha, float rBeta, float omega, int parity,
+                                int rowStart, int rowEnd) {
+        for (int y = rowStart; y < rowEnd; y++) {
+            int row = y * width;
+            boolean borderRow = y == 0 || y == height - 1;
+            for (int x = (y + parity) & 1; x < width; x += 2) {
+                int index = row + x;
+                if (borderRow || x == 0 || x == width - 1) {
+                    pressure[index] = 0f;
+                    continue;
+                }
+                float relaxed = (pressure[index - 1] + pressure[index + 1]
+                        + pressure[index - width] + pressure[index + width]
+                        + alpha * divergence[index]) * rBeta;
+                pressure[index] += (relaxed - pressure[index]) * omega;
+            }
+        }
+    }
+
+    /**
+     * Measures the residual {@code divergence - laplacian(pressure)} over the interior cells of rows
+     * {@code [rowStart, rowEnd)}, mirroring {@code pressure_residual.comp}. Writes the largest
+     * absolute residual to {@code result[0]} and the sum of squares to {@code result[1]}.
+     */
+    public static void residualNorms(float[] pressure, float[] divergence, int width, int height,
+                                     float[] result, int rowStart, int rowEnd) {
+        float max = 0f;
+        double sum = 0.0;
+        for (int y = Math.max(rowStart, 1); y < Math.min(rowEnd, height - 1); y++) {
+            int row = y * width;
+            for (int x = 1; x < width - 1; x++) {
+                int index = row + x;
+                float laplacian = pressure[index - 1] + pressure[index + 1]
+                        + pressure[index - width] + pressure[index + width] - 4f * pressure[index];
+                float residual = divergence[index] - laplacian;
+                max = Math.max(max, Math.abs(residual));
+                sum += residual * residual;
+            }
+        }
+        result[0] = max;
+        result[1] = (float) sum;
+    }
+
+    /**
+     * Subtracts the pressure gradient from the velocity field in place. The shader needs a second
+     * image for this; here each cell only reads its own velocity so the update can be in place.
+     */
+    public static void project(float[] velocityX, float[] velocityY, float[] pressure,
+                               int width, int height, float texelX, float texelY,
+                               int rowStart, int rowEnd) {
+        float scaleX = 0.5f / Math.max(texelX, 1e-6f);
+        float scaleY = 0.5f / Math.max(texelY, 1e-6f);
+        for (int y = rowStart; y < rowEnd; y++) {
+            int row = y * width;
+            boolean borderRow = y == 0 || y == height - 1;
+            for (int x = 0; x < width; x++) {
+                int index = row + x;
+                if (borderRow || x == 0 || x == width - 1) {
+                    velocityX[index] = 0f;
+                    velocityY[index] = 0f;
+                    continue;
+                }
+                velocityX[index] -= scaleX * (pressure[index + 1] - pressure[index - 1]);
+                velocityY[index] -= scaleY * (pressure[index + width] - pressure[index - width]);
+            }
+        }
+    }
+
+    // Central-difference curl at (x, y), reading clamped to the grid as the shader's image loads do.
+    private static float curl(float[] velocityX, float[] velocityY, int width, int height,
+                              int x, int y, float halfX, float halfY) {
+        int row = y * width;
+        int left = row + Math.max(x - 1, 0);
+        int right = row + Math.min(x + 1, width - 1);
+        int bottom = Math.max(y - 1, 0) * width + x;
+        int top = Math.min(y + 1, height - 1) * width + x;
+        return halfX * (velocityY[right] - velocityY[left])
+                - halfY * (velocityX[top] - velocityX[bottom]);
+    }
+
+    static float clamp(float value, float min, float max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+}
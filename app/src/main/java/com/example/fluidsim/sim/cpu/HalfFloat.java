@@ -0,0 +1,64 @@
+package com.example.fluidsim.sim.cpu;
+
+/**
+ * IEEE 754 binary16 conversions matching the GPU's {@code GL_HALF_FLOAT} storage. Float to half
+ * rounds to nearest-even like the hardware conversion, overflowing to infinity.
+ */
+public final class HalfFloat {
+
+    public static final short POSITIVE_INFINITY = (short) 0x7c00;
+    public static final short NaN = (short) 0x7e00;
+    public static final float MAX_VALUE = 65504f;
+
+    private HalfFloat() {
+    }
+
+    public static float toFloat(short half) {
+        int bits = half & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+        if (exponent == 0) {
+            // Zero or subnormal: the value is mantissa * 2^-24.
+            float magnitude = mantissa * 0x1p-24f;
+            return sign == 0 ? magnitude : -magnitude;
+        }
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+
+    public static short fromFloat(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int magnitude = bits & 0x7fffffff;
+        if (magnitude > 0x7f800000) {
+            return (short) (sign | NaN);
+        }
+        // 65520 and above round to infinity.
+        if (magnitude >= 0x477ff000) {
+            return (short) (sign | POSITIVE_INFINITY);
+        }
+        // Half of the smallest subnormal (2^-25) and below round to zero.
+        if (magnitude <= 0x33000000) {
+            return (short) sign;
+        }
+        int exponent = (magnitude >>> 23) - 127;
+        int significand = (magnitude & 0x007fffff) | 0x00800000;
+        int shift = 13;
+        if (exponent < -14) {
+            shift += -14 - exponent;
+            exponent = -14;
+        }
+        int half = significand >>> shift;
+        int remainder = significand & ((1 << shift) - 1);
+        int halfway = 1 << (shift - 1);
+        if (remainder > halfway || (remainder == halfway && (half & 1) != 0)) {
+            half++;
+        }
+        // For normal values the implicit bit in 'half' adds the final 1 to the exponent field, and a
+        // rounding carry out of the mantissa bumps the exponent the same way.
+        return (short) (sign | (((exponent + 14) << 10) + half));
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.fluidsim.sim.cpu;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Off-heap grid of half floats laid out exactly like a {@code GL_R16F}/{@code GL_RG16F}/
+ * {@code GL_RGBA16F} texture: rows bottom to top, channels interleaved per cell. The backing
+ * buffer can be handed straight to {@code glTexSubImage2D} or {@code glReadPixels} with
+ * {@code GL_HALF_FLOAT}, and {@link Channel} views expose each channel as a planar (SoA) grid.
+ *
+ * <p>Bulk conversions only use absolute buffer access, so disjoint row ranges may be converted
+ * from several threads at once.
+ */
+public final class HalfFloatField {
+
+    private final int width;
+    private final int height;
+    private final int channels;
+    private final ShortBuffer data;
+    private final Channel[] channelViews;
+
+    public HalfFloatField(int width, int height, int channels) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid field size " + width + "x" + height);
+        }
+        if (channels != 1 && channels != 2 && channels != 4) {
+            throw new IllegalArgumentException("Unsupported channel count " + channels);
+        }
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.data = ByteBuffer.allocateDirect(width * height * channels * 2)
+                .order(ByteOrder.nativeOrder())
+                .asShortBuffer();
+        this.channelViews = new Channel[channels];
+        for (int c = 0; c < channels; c++) {
+            channelViews[c] = new Channel(c);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getByteSize() {
+        return data.capacity() * 2;
+    }
+
+    /**
+     * Returns the backing buffer rewound to the first cell. The buffer is shared, not copied, so
+     * GL reads and writes through it are visible to every view of this field.
+     */
+    @NonNull
+    public ShortBuffer getBuffer() {
+        data.position(0);
+        return data;
+    }
+
+    @NonNull
+    public Channel channel(int channel) {
+        return channelViews[channel];
+    }
+
+    public float get(int x, int y, int channel) {
+        return HalfFloat.toFloat(data.get((y * width + x) * channels + channel));
+    }
+
+    public void set(int x, int y, int channel, float value) {
+        data.put((y * width + x) * channels + channel, HalfFloat.fromFloat(value));
+    }
+
+    public void clear() {
+        for (int i = 0, n = data.capacity(); i < n; i++) {
+            data.put(i, (short) 0);
+        }
+    }
+
+    /**
+     * Converts planar float channels into this field for rows {@code [rowStart, rowEnd)}. Only the
+     * first {@link #getChannels()} planes are read.
+     */
+    public void writePlanar(@NonNull float[][] planes, int rowStart, int rowEnd) {
+        for (int c = 0; c < channels; c++) {
+            convertIn(planes[c], c, rowStart * width, rowEnd * width);
+        }
+    }
+
+    /**
+     * Converts rows {@code [rowStart, rowEnd)} of this field into planar float channels.
+     */
+    public void readPlanar(@NonNull float[][] planes, int rowStart, int rowEnd) {
+        for (int c = 0; c < channels; c++) {
+            convertOut(planes[c], c, rowStart * width, rowEnd * width);
+        }
+    }
+
+    private void convertIn(float[] source, int channel, int cellStart, int cellEnd) {
+        for (int cell = cellStart, index = cellStart * channels + channel; cell < cellEnd;
+             cell++, index += channels) {
+            data.put(index, HalfFloat.fromFloat(source[cell]));
+        }
+    }
+
+    private void convertOut(float[] target, int channel, int cellStart, int cellEnd) {
+        for (int cell = cellStart, index = cellStart * channels + channel; cell < cellEnd;
+             cell++, index += channels) {
+            target[cell] = HalfFloat.toFloat(data.get(index));
+        }
+    }
+
+    /**
+     * Strided view of one channel as a {@code width * height} planar grid.
+     */
+    public final class Channel {
+        private final int channel;
+
+        private Channel(int channel) {
+            this.channel = channel;
+        }
+
+        public float get(int x, int y) {
+            return HalfFloatField.this.get(x, y, channel);
+        }
+
+        public void set(int x, int y, float value) {
+            HalfFloatField.this.set(x, y, channel, value);
+        }
+
+        public void read(@NonNull float[] target) {
+            convertOut(target, channel, 0, width * height);
+        }
+
+        public void read(@NonNull float[] target, int rowStart, int rowEnd) {
+            convertOut(target, channel, rowStart * width, rowEnd * width);
+        }
+
+        public void write(@NonNull float[] source) {
+            convertIn(source, channel, 0, width * height);
+        }
+
+        public void write(@NonNull float[] source, int rowStart, int rowEnd) {
+            convertIn(source, channel, rowStart * width, rowEnd * width);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.fluidsim.sim.cpu;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * CPU reference of the geometric multigrid pressure solve in {@code mg_residual.comp},
+ * {@code mg_restrict.comp} and {@code mg_prolong.comp}. Grids are cell centred; each coarser level
+ * halves the resolution (rounding up) and solves for the error of the level above it.
+ *
+ * <p>Every level solves {@code (left + right + bottom + top - 4p) = b} with zero pressure on the
+ * border cells, the same discretisation the Jacobi pass uses. Because the coarse cell spacing
+ * doubles, restricted residuals are scaled by 4 to stay in that unit-spacing form. The coarse
+ * border also covers the first interior fine cell, so corrections right next to the walls are
+ * damped and left to the fine-level smoother.
+ */
+public final class MultigridReference {
+
+    /** Scale applied to restricted residuals to account for the doubled coarse spacing. */
+    public static final float RESTRICT_SCALE = 4f;
+    public static final int MIN_LEVEL_SIZE = 8;
+
+    private MultigridReference() {
+    }
+
+    /**
+     * Number of levels (including the finest) for a grid, stopping once a level would drop
+     * below {@link #MIN_LEVEL_SIZE} on its short side.
+     */
+    public static int levelCount(int width, int height) {
+        int levels = 1;
+        while (Math.min(width, height) / 2 >= MIN_LEVEL_SIZE) {
+            width = coarseSize(width);
+            height = coarseSize(height);
+            levels++;
+        }
+        return levels;
+    }
+
+    public static int coarseSize(int size) {
+        return (size + 1) / 2;
+    }
+
+    /**
+     * {@code target = rhs - A(pressure)}, zero on the border.
+     */
+    public static void residual(float[] target, float[] pressure, float[] rhs, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            boolean borderRow = y == 0 || y == height - 1;
+            for (int x = 0; x < width; x++) {
+                int index = row + x;
+                if (borderRow || x == 0 || x == width - 1) {
+                    target[index] = 0f;
+                    continue;
+                }
+                float laplacian = pressure[index - 1] + pressure[index + 1]
+                        + pressure[index - width] + pressure[index + width] - 4f * pressure[index];
+                target[index] = rhs[index] - laplacian;
+            }
+        }
+    }
+
+    /**
+     * Averages 2x2 blocks of {@code fine} into {@code coarse}, multiplied by {@code scale}. Odd
+     * fine sizes clamp the last block to the edge.
+     */
+    public static void restrict(float[] coarse, int coarseWidth, int coarseHeight,
+                                float[] fine, int fineWidth, int fineHeight, float scale) {
+        float weight = 0.25f * scale;
+        for (int y = 0; y < coarseHeight; y++) {
+            int y0 = 2 * y * fineWidth;
+            int y1 = Math.min(2 * y + 1, fineHeight - 1) * fineWidth;
+            for (int x = 0; x < coarseWidth; x++) {
+                int x0 = 2 * x;
+                int x1 = Math.min(2 * x + 1, fineWidth - 1);
+                coarse[y * coarseWidth + x] = weight
+                        * (fine[y0 + x0] + fine[y0 + x1] + fine[y1 + x0] + fine[y1 + x1]);
+            }
+        }
+    }
+
+    /**
+     * Adds the bilinearly interpolated coarse correction to the interior of {@code fine}. Fine
+     * texel {@code X} sits at coarse texel coordinate {@code X / 2 - 1/4}.
+     */
+    public static void prolongAdd(float[] fine, int fineWidth, int fineHeight,
+                                  float[] coarse, int coarseWidth, int coarseHeight) {
+        for (int y = 1; y < fineHeight - 1; y++) {
+            float cy = FluidKernels.clamp(y * 0.5f - 0.25f, 0f, coarseHeight - 1f);
+            int cy0 = (int) cy;
+            int cy1 = Math.min(cy0 + 1, coarseHeight - 1);
+            float fy = cy - cy0;
+            for (int x = 1; x < fineWidth - 1; x++) {
+                float cx = FluidKernels.clamp(x * 0.5f - 0.25f, 0f, coarseWidth - 1f);
+                int cx0 = (int) cx;
+                int cx1 = Math.min(cx0 + 1, coarseWidth - 1);
+                float fx = cx - cx0;
+                float a = coarse[cy0 * coarseWidth + cx0]
+                        + (coarse[cy0 * coarseWidth + cx1] - coarse[cy0 * coarseWidth + cx0]) * fx;
+                float b = coarse[cy1 * coarseWidth + cx0]
+                        + (coarse[cy1 * coarseWidth + cx1] - coarse[cy1 * coarseWidth + cx0]) * fx;
+                fine[y * fineWidth + x] += a + (b - a) * fy;
+            }
+        }
+    }
+
+    /**
+     * Weighted Jacobi sweep: {@code target = mix(pressure, jacobi(pressure), weight)}.
+     */
+    public static void smooth(float[] target, float[] pressure, float[] rhs, int width, int height,
+                              float weight) {
+        FluidKernels.jacobi(target, pressure, rhs, width, height, -1f, 0.25f, 0, height);
+        if (weight != 1f) {
+            for (int i = 0, n = width * height; i < n; i++) {
+                target[i] = pressure[i] + (target[i] - pressure[i]) * weight;
+            }
+        }
+    }
+
+    /**
+     * Largest absolute residual over the grid.
+     */
+    public static float maxResidual(float[] pressure, float[] rhs, int width, int height) {
+        float[] scratch = new float[width * height];
+        residual(scratch, pressure, rhs, width, height);
+        float max = 0f;
+        for (float value : scratch) {
+            max = Math.max(max, Math.abs(value));
+        }
+        return max;
+    }
+
+    /**
+     * Owns the pyramid storage and runs V-cycles on it. {@code pressure} is updated in place.
+     */
+    public static final class Solver {
+        private final int[] widths;
+        private final int[] heights;
+        private final float[][] pressure;
+        private final float[][] scratch;
+        private final float[][] rhs;
+        private final float[][] residual;
+
+        private int preSmooth = 2;
+        private int postSmooth = 2;
+        private int coarseSweeps = 16;
+        private float weight = 0.8f;
+
+        public Solver(int width, int height) {
+            int levels = levelCount(width, height);
+            widths = new int[levels];
+            heights = new int[levels];
+            pressure = new float[levels][];
+            scratch = new float[levels][];
+            rhs = new float[levels][];
+            residual = new float[levels][];
+            for (int level = 0; level < levels; level++) {
+                widths[level] = width;
+                heights[level] = height;
+                int cells = width * height;
+                // Level 0 pressure and rhs are supplied by the caller on each solve.
+                if (level > 0) {
+                    pressure[level] = new float[cells];
+                    rhs[level] = new float[cells];
+                }
+                scratch[level] = new float[cells];
+                residual[level] = new float[cells];
+                width = coarseSize(width);
+                height = coarseSize(height);
+            }
+        }
+
+        public int getLevelCount() {
+            return widths.length;
+        }
+
+        public void setSmoothing(int preSmooth, int postSmooth, int coarseSweeps, float weight) {
+            this.preSmooth = preSmooth;
+            this.postSmooth = postSmooth;
+            this.coarseSweeps = coarseSweeps;
+            this.weight = weight;
+        }
+
+        public void vCycle(@NonNull float[] finePressure, @NonNull float[] fineRhs) {
+            pressure[0] = finePressure;
+            rhs[0] = fineRhs;
+            cycle(0);
+            pressure[0] = null;
+            rhs[0] = null;
+        }
+
+        private void cycle(int level) {
+            int width = widths[level];
+            int height = heights[level];
+            if (level == widths.length - 1) {
+                relax(level, coarseSweeps);
+                return;
+            }
+            relax(level, preSmooth);
+            MultigridReference.residual(residual[level], pressure[level], rhs[level], width, height);
+            int coarse = level + 1;
+            MultigridReference.restrict(rhs[coarse], widths[coarse], heights[coarse],
+                    residual[level], width, height, RESTRICT_SCALE);
+            Arrays.fill(pressure[coarse], 0f);
+            cycle(coarse);
+            prolongAdd(pressure[level], width, height, pressure[coarse], widths[coarse], heights[coarse]);
+            relax(level, postSmooth);
+        }
+
+        private void relax(int level, int sweeps) {
+            for (int i = 0; i < sweeps; i++) {
+                smooth(scratch[level], pressure[level], rhs[level], widths[level], heights[level], weight);
+                System.arraycopy(scratch[level], 0, pressure[level], 0, scratch[level].length);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.fluidsim.sim.cpu;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits a grid into horizontal bands and runs a kernel over them on a fork-join pool.
+ */
+final class RowScheduler implements AutoCloseable {
+
+    interface RowKernel {
+        void run(int rowStart, int rowEnd);
+    }
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+
+    RowScheduler(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        this.pool = this.parallelism > 1 ? new ForkJoinPool(this.parallelism) : null;
+    }
+
+    int getParallelism() {
+        return parallelism;
+    }
+
+    void forEachBand(int rows, RowKernel kernel) {
+        if (pool == null || rows < 2) {
+            kernel.run(0, rows);
+            return;
+        }
+        // A few bands per worker keeps the pool balanced without drowning it in tiny tasks.
+        int grain = Math.max(4, rows / (parallelism * 4));
+        pool.invoke(new BandTask(kernel, 0, rows, grain));
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private static final class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RowKernel kernel;
+        private final int rowStart;
+        private final int rowEnd;
+        private final int grain;
+
+        BandTask(RowKernel kernel, int rowStart, int rowEnd, int grain) {
+            this.kernel = kernel;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (rowEnd - rowStart <= grain) {
+                kernel.run(rowStart, rowEnd);
+                return;
+            }
+            int mid = (rowStart + rowEnd) >>> 1;
+            invokeAll(new BandTask(kernel, rowStart, mid, grain),
+                    new BandTask(kernel, mid, rowEnd, grain));
+        }
+    }
+}
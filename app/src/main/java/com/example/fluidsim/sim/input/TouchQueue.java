@@ -0,0 +1,130 @@
+package com.example.fluidsim.sim.input;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Hands touch samples from the UI thread to the GL thread, which drains them once per frame.
+ *
+ * <p>A fixed ring of primitive records shared by exactly one producer thread, which calls
+ * {@link #add}, and one consumer thread, which calls {@link #drain} and {@link #clear}. Neither side
+ * allocates or locks. The producer publishes a record by advancing the volatile tail after writing
+ * it; the consumer frees slots by advancing the volatile head after reading them. When the ring is
+ * full, new samples are dropped.
+ */
+public final class TouchQueue {
+
+    public interface Consumer {
+        void accept(float x, float y, float dx, float dy, int colorId);
+    }
+
+    /** Records the ring holds by default; a few frames of fast multi-finger input. */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int mask;
+    private final float[] xs;
+    private final float[] ys;
+    private final float[] dxs;
+    private final float[] dys;
+    private final int[] colorIds;
+    private final int[] pointerIds;
+
+    // Next slot to read; written only by the consumer.
+    private volatile long head = 0L;
+    // Next slot to write; written only by the producer.
+    private volatile long tail = 0L;
+    private long dropped = 0L;
+
+    public TouchQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity record count, rounded up to a power of two
+     */
+    public TouchQueue(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        xs = new float[size];
+        ys = new float[size];
+        dxs = new float[size];
+        dys = new float[size];
+        colorIds = new int[size];
+        pointerIds = new int[size];
+    }
+
+    /**
+     * Queues one sample. Producer thread only. Returns {@code false} if the ring was full and the
+     * sample was dropped.
+     */
+    public boolean add(float x, float y, float dx, float dy, int colorId, int pointerId) {
+        long t = tail;
+        if (t - head > mask) {
+            dropped++;
+            return false;
+        }
+        int slot = (int) t & mask;
+        xs[slot] = x;
+        ys[slot] = y;
+        dxs[slot] = dx;
+        dys[slot] = dy;
+        colorIds[slot] = colorId;
+        pointerIds[slot] = pointerId;
+        tail = t + 1;
+        return true;
+    }
+
+    /**
+     * Delivers every queued sample in arrival order and returns how many were delivered. Consumer
+     * thread only. If more than {@code budget} samples are waiting, each run of consecutive samples
+     * from the same pointer is merged into one at the run's last position, carrying the summed
+     * movement, so a burst costs one splat per stroke segment rather than one per sample.
+     */
+    public int drain(@NonNull Consumer consumer, int budget) {
+        long h = head;
+        long t = tail;
+        if (t - h <= budget) {
+            for (long i = h; i < t; i++) {
+                int slot = (int) i & mask;
+                consumer.accept(xs[slot], ys[slot], dxs[slot], dys[slot], colorIds[slot]);
+            }
+            head = t;
+            return (int) (t - h);
+        }
+        int count = 0;
+        long i = h;
+        while (i < t) {
+            int slot = (int) i & mask;
+            int pointerId = pointerIds[slot];
+            float dx = dxs[slot];
+            float dy = dys[slot];
+            while (i + 1 < t && pointerIds[(int) (i + 1) & mask] == pointerId) {
+                i++;
+                slot = (int) i & mask;
+                dx += dxs[slot];
+                dy += dys[slot];
+            }
+            consumer.accept(xs[slot], ys[slot], dx, dy, colorIds[slot]);
+            count++;
+            i++;
+        }
+        head = t;
+        return count;
+    }
+
+    /**
+     * Delivers every queued sample without coalescing.
+     */
+    public int drain(@NonNull Consumer consumer) {
+        return drain(consumer, Integer.MAX_VALUE);
+    }
+
+    /** Discards the queued samples. Consumer thread only. */
+    public void clear() {
+        head = tail;
+    }
+
+    /** Samples dropped so far because the ring was full. Producer thread only. */
+    public long getDroppedCount() {
+        return dropped;
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.fluidsim.sim.input;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a touch stream to a file that {@link TouchReplayer} can play back frame for frame.
+ *
+ * <p>The file is little endian: a header of {@code "MSTR"}, the format version and the surface
+ * width and height the touches were made on, then one fixed-size record per sample: timestamp in
+ * nanoseconds since recording started, frame index since recording started, pointer id, x, y, dx,
+ * dy in surface pixels and the colour id.
+ *
+ * <p>Samples are staged in a direct buffer. When it fills it is handed to a writer thread and
+ * recording continues in a second one, so {@link #record} neither allocates nor touches the disk;
+ * it only waits if the writer falls a whole buffer behind. Only one thread may record. An I/O
+ * error stops the recording; it is rethrown by {@link #close()}, which waits for the writer.
+ */
+public final class TouchRecorder implements AutoCloseable {
+
+    static final int MAGIC = 0x5254534D; // "MSTR" read little endian
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 36;
+    private static final int BUFFER_RECORDS = 1024;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "touch-writer");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    // The buffer not being recorded into, once the writer has emptied it.
+    private final BlockingQueue<ByteBuffer> spare = new ArrayBlockingQueue<>(1);
+    private ByteBuffer buffer = newBuffer();
+    private final long startNs;
+    private long records = 0L;
+    private volatile IOException failure;
+
+    /**
+     * Starts a recording into {@code path}, replacing its contents. {@code startNs} is the
+     * timestamp that maps to zero.
+     */
+    public TouchRecorder(@NonNull File path, int surfaceWidth, int surfaceHeight, long startNs)
+            throws IOException {
+        this.startNs = startNs;
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(0L);
+        channel = file.getChannel();
+        spare.add(newBuffer());
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(surfaceWidth).putInt(surfaceHeight);
+    }
+
+    public void record(long timestampNs, int frame, float x, float y, float dx, float dy,
+                       int colorId, int pointerId) {
+        if (failure != null) {
+            return;
+        }
+        if (buffer.remaining() < RECORD_BYTES) {
+            flush();
+            buffer = takeSpare();
+        }
+        buffer.putLong(timestampNs - startNs)
+                .putInt(frame)
+                .putInt(pointerId)
+                .putFloat(x)
+                .putFloat(y)
+                .putFloat(dx)
+                .putFloat(dy)
+                .putInt(colorId);
+        records++;
+    }
+
+    public long getRecordCount() {
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = new InterruptedIOException("Interrupted waiting for the touch writer");
+        }
+        channel.close();
+        file.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** Hands the staged samples to the writer, which returns the buffer as the spare. */
+    private void flush() {
+        ByteBuffer full = buffer;
+        full.flip();
+        writer.execute(() -> {
+            try {
+                while (failure == null && full.hasRemaining()) {
+                    channel.write(full);
+                }
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                full.clear();
+                spare.offer(full);
+            }
+        });
+    }
+
+    private ByteBuffer takeSpare() {
+        try {
+            return spare.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = new InterruptedIOException("Interrupted waiting for the touch writer");
+            // Nothing more is recorded; this only keeps the recorder usable until close().
+            return newBuffer();
+        }
+    }
+
+    private static ByteBuffer newBuffer() {
+        return ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
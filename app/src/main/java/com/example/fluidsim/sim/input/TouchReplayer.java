@@ -0,0 +1,125 @@
+package com.example.fluidsim.sim.input;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Plays back a file written by {@link TouchRecorder}. The file is memory mapped, so long traces
+ * are paged in as they are replayed rather than read up front, and replaying does not allocate.
+ *
+ * <p>Samples are delivered by frame index rather than by time, so a replay puts every touch in the
+ * same frame it was recorded in whatever the frame rate, which keeps runs comparable.
+ */
+public final class TouchReplayer implements AutoCloseable {
+
+    public interface Sink {
+        void accept(float x, float y, float dx, float dy, int colorId, int pointerId);
+    }
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer data;
+    private final int surfaceWidth;
+    private final int surfaceHeight;
+    private final int recordCount;
+    private int next = 0;
+
+    public TouchReplayer(@NonNull File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            if (size < TouchRecorder.HEADER_BYTES
+                    || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a touch recording: " + path);
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            if (data.getInt(0) != TouchRecorder.MAGIC) {
+                throw new IOException("Not a touch recording: " + path);
+            }
+            int version = data.getInt(4);
+            if (version != TouchRecorder.VERSION) {
+                throw new IOException("Unsupported touch recording version " + version);
+            }
+            surfaceWidth = data.getInt(8);
+            surfaceHeight = data.getInt(12);
+            recordCount = (int) ((size - TouchRecorder.HEADER_BYTES) / TouchRecorder.RECORD_BYTES);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /** Width of the surface the touches were recorded on, in pixels. */
+    public int getSurfaceWidth() {
+        return surfaceWidth;
+    }
+
+    public int getSurfaceHeight() {
+        return surfaceHeight;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /** Frame index of the last sample, i.e. the replay's length in frames minus one. */
+    public int getLastFrame() {
+        return recordCount == 0 ? 0 : data.getInt(offset(recordCount - 1) + 8);
+    }
+
+    /** Recording time of the last sample in nanoseconds. */
+    public long getDurationNs() {
+        return recordCount == 0 ? 0L : data.getLong(offset(recordCount - 1));
+    }
+
+    public boolean isFinished() {
+        return next >= recordCount;
+    }
+
+    /** Starts over from the first sample. */
+    public void rewind() {
+        next = 0;
+    }
+
+    /**
+     * Delivers every sample recorded up to and including {@code frame}, counted from the start of
+     * the recording, that has not been delivered yet. Coordinates are scaled from the recorded
+     * surface to {@code surfaceWidth x surfaceHeight}. Returns the number delivered.
+     */
+    public int replayUntil(int frame, int surfaceWidth, int surfaceHeight, @NonNull Sink sink) {
+        float scaleX = surfaceWidth / (float) Math.max(1, this.surfaceWidth);
+        float scaleY = surfaceHeight / (float) Math.max(1, this.surfaceHeight);
+        int delivered = 0;
+        while (next < recordCount) {
+            int base = offset(next);
+            if (data.getInt(base + 8) > frame) {
+                break;
+            }
+            sink.accept(data.getFloat(base + 16) * scaleX,
+                    data.getFloat(base + 20) * scaleY,
+                    data.getFloat(base + 24) * scaleX,
+                    data.getFloat(base + 28) * scaleY,
+                    data.getInt(base + 32),
+                    data.getInt(base + 12));
+            next++;
+            delivered++;
+        }
+        return delivered;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private static int offset(int record) {
+        return TouchRecorder.HEADER_BYTES + record * TouchRecorder.RECORD_BYTES;
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.fluidsim.sim.snapshot;
+
+import androidx.annotation.NonNull;
+
+import com.example.fluidsim.sim.cpu.HalfFloatField;
+
+/**
+ * Velocity and dye of one simulation state as RGBA half-float fields, laid out like the textures
+ * they were read from or will be uploaded to.
+ *
+ * <p>Velocities are in cells along the grid's longer side per second, so a restore onto a grid of
+ * another size scales them by the ratio of the two longer sides.
+ */
+public final class FieldSnapshot {
+
+    /** Cells along the longer side of the velocity grid when the snapshot was taken. */
+    public final int gridSize;
+    public final int dyeGridSize;
+    @NonNull
+    public final HalfFloatField velocity;
+    @NonNull
+    public final HalfFloatField dye;
+
+    public FieldSnapshot(int gridSize, int dyeGridSize, @NonNull HalfFloatField velocity,
+                         @NonNull HalfFloatField dye) {
+        if (velocity.getChannels() != 4 || dye.getChannels() != 4) {
+            throw new IllegalArgumentException("Snapshot fields must be RGBA");
+        }
+        this.gridSize = gridSize;
+        this.dyeGridSize = dyeGridSize;
+        this.velocity = velocity;
+        this.dye = dye;
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.fluidsim.sim.snapshot;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compressor for the LZ4 block format: a greedy single-probe matcher with a 4K-entry hash table.
+ * It trades ratio for speed like LZ4's fast mode, which suits field snapshots, and decompression
+ * is a plain copy loop. Output is readable by any LZ4 block decoder.
+ *
+ * <p>The decoder checks every length and offset against the buffers, so a damaged input fails with
+ * an {@link IOException} instead of reading or writing out of bounds.
+ */
+final class Lz4Block {
+
+    private static final int MIN_MATCH = 4;
+    // The format requires the last 5 bytes to be literals and the last match to start 12 bytes
+    // before the end.
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_LOG = 12;
+    // After this many failed probes in a row the step grows, so incompressible runs are skipped
+    // quickly.
+    private static final int SKIP_TRIGGER = 6;
+
+    private final int[] table = new int[1 << HASH_LOG];
+
+    /** Largest output {@link #compress} can produce for {@code length} input bytes. */
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses {@code src[0, length)} into {@code dst}, which must hold
+     * {@link #maxCompressedLength} bytes, and returns the compressed length.
+     */
+    int compress(@NonNull byte[] src, int length, @NonNull byte[] dst) {
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int out = 0;
+        int matchLimit = length - MATCH_FIND_LIMIT;
+        int pos = 0;
+        int misses = 0;
+        while (pos < matchLimit) {
+            int sequence = readInt(src, pos);
+            int hash = hash(sequence);
+            int candidate = table[hash];
+            table[hash] = pos;
+            if (candidate < 0 || pos - candidate > MAX_OFFSET || readInt(src, candidate) != sequence) {
+                pos += 1 + (misses++ >> SKIP_TRIGGER);
+                continue;
+            }
+            misses = 0;
+            while (pos > anchor && candidate > 0 && src[pos - 1] == src[candidate - 1]) {
+                pos--;
+                candidate--;
+            }
+            int matchEnd = pos + MIN_MATCH;
+            int end = length - LAST_LITERALS;
+            while (matchEnd < end && src[matchEnd] == src[candidate + matchEnd - pos]) {
+                matchEnd++;
+            }
+            out = writeSequence(src, anchor, pos - anchor, pos - candidate, matchEnd - pos, dst, out);
+            pos = matchEnd;
+            anchor = pos;
+        }
+        return writeLastLiterals(src, anchor, length - anchor, dst, out);
+    }
+
+    /**
+     * Decompresses {@code src[0, length)} into {@code dst}, which must receive exactly
+     * {@code expected} bytes.
+     */
+    static void decompress(@NonNull byte[] src, int length, @NonNull byte[] dst, int expected)
+            throws IOException {
+        int in = 0;
+        int out = 0;
+        while (true) {
+            if (in >= length) {
+                throw new IOException("Truncated LZ4 block");
+            }
+            int token = src[in++] & 0xFF;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int extra;
+                do {
+                    if (in >= length) {
+                        throw new IOException("Truncated LZ4 block");
+                    }
+                    extra = src[in++] & 0xFF;
+                    literals += extra;
+                } while (extra == 255);
+            }
+            if (literals > length - in || literals > expected - out) {
+                throw new IOException("LZ4 literal run out of bounds");
+            }
+            System.arraycopy(src, in, dst, out, literals);
+            in += literals;
+            out += literals;
+            if (in == length) {
+                break;
+            }
+            if (length - in < 2) {
+                throw new IOException("Truncated LZ4 block");
+            }
+            int offset = (src[in] & 0xFF) | (src[in + 1] & 0xFF) << 8;
+            in += 2;
+            if (offset == 0 || offset > out) {
+                throw new IOException("LZ4 match offset out of bounds");
+            }
+            int match = (token & 15) + MIN_MATCH;
+            if ((token & 15) == 15) {
+                int extra;
+                do {
+                    if (in >= length) {
+                        throw new IOException("Truncated LZ4 block");
+                    }
+                    extra = src[in++] & 0xFF;
+                    match += extra;
+                } while (extra == 255);
+            }
+            if (match > expected - out) {
+                throw new IOException("LZ4 match out of bounds");
+            }
+            // Byte by byte: a match may overlap the bytes it produces.
+            int from = out - offset;
+            for (int i = 0; i < match; i++) {
+                dst[out++] = dst[from++];
+            }
+        }
+        if (out != expected) {
+            throw new IOException("LZ4 block decodes to " + out + " bytes, expected " + expected);
+        }
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, int offset,
+                                     int match, byte[] dst, int out) {
+        int tokenPos = out++;
+        int matchCode = match - MIN_MATCH;
+        int token = (Math.min(literals, 15) << 4) | Math.min(matchCode, 15);
+        if (literals >= 15) {
+            out = writeLength(literals - 15, dst, out);
+        }
+        System.arraycopy(src, literalStart, dst, out, literals);
+        out += literals;
+        dst[out++] = (byte) offset;
+        dst[out++] = (byte) (offset >>> 8);
+        if (matchCode >= 15) {
+            out = writeLength(matchCode - 15, dst, out);
+        }
+        dst[tokenPos] = (byte) token;
+        return out;
+    }
+
+    private static int writeLastLiterals(byte[] src, int literalStart, int literals, byte[] dst, int out) {
+        dst[out++] = (byte) (Math.min(literals, 15) << 4);
+        if (literals >= 15) {
+            out = writeLength(literals - 15, dst, out);
+        }
+        System.arraycopy(src, literalStart, dst, out, literals);
+        return out + literals;
+    }
+
+    private static int writeLength(int length, byte[] dst, int out) {
+        while (length >= 255) {
+            dst[out++] = (byte) 255;
+            length -= 255;
+        }
+        dst[out++] = (byte) length;
+        return out;
+    }
+
+    private static int readInt(byte[] src, int pos) {
+        return (src[pos] & 0xFF) | (src[pos + 1] & 0xFF) << 8
+                | (src[pos + 2] & 0xFF) << 16 | (src[pos + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
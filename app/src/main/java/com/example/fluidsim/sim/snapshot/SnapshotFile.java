@@ -0,0 +1,195 @@
+package com.example.fluidsim.sim.snapshot;
+
+import androidx.annotation.NonNull;
+
+import com.example.fluidsim.sim.cpu.HalfFloatField;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes {@link FieldSnapshot}s. No GL is involved, so both directions can run on a
+ * background thread.
+ *
+ * <p>Layout, little endian: a 20-byte header ({@code int} magic, version, flags, grid size, dye
+ * grid size) and then velocity and dye, each as a 24-byte field header ({@code int} width, height,
+ * stored channels, raw byte count, stored byte count, CRC-32 of the raw bytes) followed by the
+ * stored bytes. Velocity keeps only its x and y channels.
+ *
+ * <p>The raw bytes of a field are its half floats split into planes: first every low byte, then
+ * every high byte. The high bytes (sign, exponent and top of the mantissa) vary slowly across a
+ * fluid field and compress well once they are contiguous. With {@link #FLAG_COMPRESSED} the planes
+ * are stored as an LZ4 block.
+ *
+ * <p>Files are written to a temporary sibling and renamed over the target, so a reader never sees
+ * a half-written snapshot.
+ */
+public final class SnapshotFile {
+
+    static final int MAGIC = 0x504E534D; // "MSNP"
+    static final int VERSION = 1;
+    static final int FLAG_COMPRESSED = 1;
+    static final int HEADER_BYTES = 20;
+    static final int FIELD_HEADER_BYTES = 24;
+    private static final int VELOCITY_CHANNELS = 2;
+    private static final int DYE_CHANNELS = 4;
+    // Far beyond any grid the app allocates; guards the allocations against a corrupt header.
+    private static final int MAX_SIDE = 8192;
+
+    private SnapshotFile() {
+    }
+
+    /** Writes {@code snapshot} to {@code file}, replacing it, optionally LZ4 compressed. */
+    public static void write(@NonNull File file, @NonNull FieldSnapshot snapshot, boolean compress)
+            throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = new FileOutputStream(temp).getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(compress ? FLAG_COMPRESSED : 0)
+                    .putInt(snapshot.gridSize).putInt(snapshot.dyeGridSize);
+            header.flip();
+            writeFully(channel, header);
+            Lz4Block compressor = compress ? new Lz4Block() : null;
+            writeField(channel, snapshot.velocity, VELOCITY_CHANNELS, compressor);
+            writeField(channel, snapshot.dye, DYE_CHANNELS, compressor);
+            channel.force(false);
+        } catch (IOException e) {
+            // Best effort: the target is untouched either way.
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write}. Fails with an {@link IOException} if the file is
+     * not a snapshot, has another version, is truncated or fails its checksum.
+     */
+    @NonNull
+    public static FieldSnapshot read(@NonNull File file) throws IOException {
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a fluid snapshot: " + file);
+            }
+            int version = header.getInt(4);
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            boolean compressed = (header.getInt(8) & FLAG_COMPRESSED) != 0;
+            int gridSize = header.getInt(12);
+            int dyeGridSize = header.getInt(16);
+            HalfFloatField velocity = readField(channel, VELOCITY_CHANNELS, compressed);
+            HalfFloatField dye = readField(channel, DYE_CHANNELS, compressed);
+            return new FieldSnapshot(gridSize, dyeGridSize, velocity, dye);
+        }
+    }
+
+    private static void writeField(FileChannel channel, HalfFloatField field, int channels,
+                                   Lz4Block compressor) throws IOException {
+        int cells = field.getWidth() * field.getHeight();
+        byte[] raw = new byte[cells * channels * 2];
+        split(field.getBuffer(), field.getChannels(), channels, cells, raw);
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, raw.length);
+
+        byte[] stored = raw;
+        int storedLength = raw.length;
+        if (compressor != null) {
+            stored = new byte[Lz4Block.maxCompressedLength(raw.length)];
+            storedLength = compressor.compress(raw, raw.length, stored);
+        }
+        ByteBuffer header = ByteBuffer.allocate(FIELD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(field.getWidth()).putInt(field.getHeight()).putInt(channels)
+                .putInt(raw.length).putInt(storedLength).putInt((int) crc.getValue());
+        header.flip();
+        writeFully(channel, header);
+        writeFully(channel, ByteBuffer.wrap(stored, 0, storedLength));
+    }
+
+    private static HalfFloatField readField(FileChannel channel, int channels, boolean compressed)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FIELD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header);
+        int width = header.getInt(0);
+        int height = header.getInt(4);
+        int storedChannels = header.getInt(8);
+        int rawLength = header.getInt(12);
+        int storedLength = header.getInt(16);
+        int checksum = header.getInt(20);
+        if (width <= 0 || height <= 0 || width > MAX_SIDE || height > MAX_SIDE
+                || storedChannels != channels || rawLength != width * height * channels * 2
+                || storedLength < 0 || storedLength > Lz4Block.maxCompressedLength(rawLength)
+                || (!compressed && storedLength != rawLength)) {
+            throw new IOException("Corrupt snapshot field header");
+        }
+        byte[] stored = new byte[storedLength];
+        readFully(channel, ByteBuffer.wrap(stored));
+        byte[] raw = stored;
+        if (compressed) {
+            raw = new byte[rawLength];
+            Lz4Block.decompress(stored, storedLength, raw, rawLength);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, rawLength);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+        HalfFloatField field = new HalfFloatField(width, height, 4);
+        join(raw, channels, width * height, field.getBuffer());
+        return field;
+    }
+
+    /** Splits the first {@code channels} of each cell into a low-byte and a high-byte plane. */
+    private static void split(ShortBuffer source, int sourceChannels, int channels, int cells, byte[] raw) {
+        int high = cells * channels;
+        int out = 0;
+        for (int cell = 0; cell < cells; cell++) {
+            int base = cell * sourceChannels;
+            for (int c = 0; c < channels; c++) {
+                short value = source.get(base + c);
+                raw[out] = (byte) value;
+                raw[high + out] = (byte) (value >>> 8);
+                out++;
+            }
+        }
+    }
+
+    /** Inverse of {@link #split} into an RGBA field; missing channels stay zero. */
+    private static void join(byte[] raw, int channels, int cells, ShortBuffer target) {
+        int high = cells * channels;
+        int in = 0;
+        for (int cell = 0; cell < cells; cell++) {
+            int base = cell * 4;
+            for (int c = 0; c < channels; c++) {
+                target.put(base + c, (short) ((raw[in] & 0xFF) | raw[high + in] << 8));
+                in++;
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Truncated snapshot");
+            }
+        }
+    }
+}
@@ -8,6 +8,7 @@ import android.view.MotionEvent;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.example.fluidsim.BuildConfig;
 import com.example.fluidsim.gl.FluidRenderer;
 
 /**
@@ -24,7 +25,8 @@ public class FluidSurfaceView extends GLSurfaceView {
     public FluidSurfaceView(@NonNull Context context, @Nullable AttributeSet attrs) {
         super(context, attrs);
         setEGLContextClientVersion(3);
-        setPreserveEGLContextOnPause(true);
+        // Debug builds can drop the context on every pause to exercise the snapshot restore.
+        setPreserveEGLContextOnPause(BuildConfig.PRESERVE_EGL_CONTEXT);
         setEGLConfigChooser(8, 8, 8, 8, 16, 0);
         renderer = new FluidRenderer(context.getApplicationContext());
         setRenderer(renderer);
@@ -3,19 +3,28 @@ package com.example.fluidsim.ui;
 import static com.example.fluidsim.R.id.fluidSurfaceView;
 
 import android.os.Bundle;
+import android.view.Display;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.SeekBar;
 import android.widget.Spinner;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.fluidsim.R;
 import com.example.fluidsim.gl.FluidRenderer;
+import com.example.fluidsim.sim.PassTimer;
+import com.example.fluidsim.sim.PressureSolverType;
+import com.example.fluidsim.sim.input.TouchReplayer;
+
+import java.io.File;
+import java.io.IOException;
 
 /**
  * The main activity wires UI controls to the OpenGL renderer. It exposes a simple panel of
@@ -23,10 +32,16 @@ import com.example.fluidsim.gl.FluidRenderer;
  */
 public class MainActivity extends AppCompatActivity {
 
+    private static final String TOUCH_RECORDING = "touches.mstr";
+    private static final String FLUID_SNAPSHOT = "fluid.msnp";
+
     private FluidSurfaceView surfaceView;
     private FluidRenderer renderer;
     private TextView statusText;
+    private Button recordButton;
     private int currentPalette = 0;
+    // UI thread only.
+    private boolean diagnosticsOverlay = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -35,13 +50,19 @@ public class MainActivity extends AppCompatActivity {
 
         surfaceView = findViewById(fluidSurfaceView);
         statusText = findViewById(R.id.statusText);
+        CheckBox diagnosticsCheck = findViewById(R.id.diagnosticsCheck);
         Spinner paletteSpinner = findViewById(R.id.paletteSpinner);
         Spinner gridSpinner = findViewById(R.id.gridSpinner);
+        Spinner dyeSpinner = findViewById(R.id.dyeSpinner);
+        Spinner solverSpinner = findViewById(R.id.solverSpinner);
+        Spinner budgetSpinner = findViewById(R.id.budgetSpinner);
         SeekBar pressureSeek = findViewById(R.id.pressureSeek);
+        SeekBar omegaSeek = findViewById(R.id.omegaSeek);
         Button resetButton = findViewById(R.id.resetButton);
 
         renderer = surfaceView.getRenderer();
         renderer.setOnFrameListener(this::updateUiStatus);
+        renderer.setSnapshotFile(new File(getFilesDir(), FLUID_SNAPSHOT));
 
         ArrayAdapter<CharSequence> paletteAdapter = ArrayAdapter.createFromResource(
                 this,
@@ -62,11 +83,50 @@ public class MainActivity extends AppCompatActivity {
                 android.R.layout.simple_spinner_item);
         gridAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         gridSpinner.setAdapter(gridAdapter);
-        gridSpinner.setSelection(1);
+        gridSpinner.setSelection(gridAdapter.getPosition(String.valueOf(renderer.getGridSize())));
         gridSpinner.setOnItemSelectedListener(new SimpleItemSelectedListener(pos -> {
-            int gridSize = pos == 0 ? 512 : 1024;
+            int gridSize = Integer.parseInt(String.valueOf(gridAdapter.getItem(pos)));
+            int dyeGridSize = renderer.getDyeGridSize();
+            int iterations = renderer.getPressureIterations();
+            surfaceView.queueEvent(() -> renderer.setQuality(gridSize, dyeGridSize, iterations));
+        }));
+
+        ArrayAdapter<CharSequence> dyeAdapter = ArrayAdapter.createFromResource(
+                this,
+                R.array.dye_entries,
+                android.R.layout.simple_spinner_item);
+        dyeAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        dyeSpinner.setAdapter(dyeAdapter);
+        dyeSpinner.setSelection(dyeAdapter.getPosition(String.valueOf(renderer.getDyeGridSize())));
+        dyeSpinner.setOnItemSelectedListener(new SimpleItemSelectedListener(pos -> {
+            int dyeGridSize = Integer.parseInt(String.valueOf(dyeAdapter.getItem(pos)));
+            int gridSize = renderer.getGridSize();
             int iterations = renderer.getPressureIterations();
-            surfaceView.queueEvent(() -> renderer.setQuality(gridSize, iterations));
+            surfaceView.queueEvent(() -> renderer.setQuality(gridSize, dyeGridSize, iterations));
+        }));
+
+        ArrayAdapter<CharSequence> solverAdapter = ArrayAdapter.createFromResource(
+                this,
+                R.array.solver_entries,
+                android.R.layout.simple_spinner_item);
+        solverAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        solverSpinner.setAdapter(solverAdapter);
+        solverSpinner.setSelection(0);
+        solverSpinner.setOnItemSelectedListener(new SimpleItemSelectedListener(pos -> {
+            PressureSolverType solver = PressureSolverType.values()[pos];
+            surfaceView.queueEvent(() -> renderer.setPressureSolver(solver));
+        }));
+
+        ArrayAdapter<CharSequence> budgetAdapter = ArrayAdapter.createFromResource(
+                this,
+                R.array.budget_entries,
+                android.R.layout.simple_spinner_item);
+        budgetAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        budgetSpinner.setAdapter(budgetAdapter);
+        budgetSpinner.setSelection(0);
+        budgetSpinner.setOnItemSelectedListener(new SimpleItemSelectedListener(pos -> {
+            float budgetMs = pos == 0 ? 0f : (pos == 1 ? 1000f / 60f : 1000f / 120f);
+            surfaceView.queueEvent(() -> renderer.setFrameBudget(budgetMs));
         }));
 
         pressureSeek.setMax(40);
@@ -75,8 +135,26 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onProgressChanged(SeekBar seekBar, int value, boolean fromUser) {
                 if (fromUser) {
-                    int gridSize = renderer.getGridSize();
-                    surfaceView.queueEvent(() -> renderer.setQuality(gridSize, value));
+                    surfaceView.queueEvent(() -> renderer.setPressureIterations(value));
+                }
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {}
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {}
+        });
+
+        // Over-relaxation factor in hundredths above 1, i.e. progress 80 is omega = 1.8.
+        omegaSeek.setMax(95);
+        omegaSeek.setProgress(Math.round((renderer.getOverRelaxation() - 1f) * 100f));
+        omegaSeek.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int value, boolean fromUser) {
+                if (fromUser) {
+                    float omega = 1f + value / 100f;
+                    surfaceView.queueEvent(() -> renderer.setOverRelaxation(omega));
                 }
             }
 
@@ -89,20 +167,118 @@ public class MainActivity extends AppCompatActivity {
 
         resetButton.setOnClickListener(v -> surfaceView.queueEvent(renderer::reset));
 
+        recordButton = findViewById(R.id.recordButton);
+        Button replayButton = findViewById(R.id.replayButton);
+        File recording = new File(getFilesDir(), TOUCH_RECORDING);
+        recordButton.setOnClickListener(v -> {
+            try {
+                if (renderer.isRecording()) {
+                    renderer.stopRecording();
+                    recordButton.setText(R.string.record_start);
+                } else {
+                    renderer.startRecording(recording);
+                    recordButton.setText(R.string.record_stop);
+                }
+            } catch (IOException e) {
+                recordButton.setText(R.string.record_start);
+                showTouchIoError(e);
+            }
+        });
+        replayButton.setOnClickListener(v -> {
+            if (!recording.isFile()) {
+                return;
+            }
+            try {
+                TouchReplayer replayer = new TouchReplayer(recording);
+                surfaceView.queueEvent(() -> {
+                    renderer.reset();
+                    renderer.startReplay(replayer);
+                });
+            } catch (IOException e) {
+                showTouchIoError(e);
+            }
+        });
+
+        // The view only knows its display once attached, which posted runnables wait for.
+        surfaceView.post(this::updateVsyncPeriod);
+        diagnosticsCheck.setOnCheckedChangeListener((button, checked) -> {
+            diagnosticsOverlay = checked;
+            surfaceView.queueEvent(() -> renderer.setPassTimingEnabled(checked));
+        });
+
         surfaceView.setOnTouchListener(this::handleSurfaceTouch);
         statusText.setText(R.string.status_initializing);
     }
 
     private void updateUiStatus(@NonNull FluidRenderer.RendererStats stats) {
         runOnUiThread(() -> {
+            if (diagnosticsOverlay) {
+                statusText.setText(diagnosticsStatus(stats));
+                return;
+            }
             String fps = getString(R.string.status_template,
                     stats.fps,
                     stats.gridSize,
-                    stats.pressureIterations);
+                    stats.dyeGridSize,
+                    stats.pressureIterationsUsed,
+                    stats.pressureIterations,
+                    stats.pressureResidual);
+            if (stats.frameBudgetMs > 0f) {
+                fps += getString(R.string.status_governor_template,
+                        stats.frameTimeMs,
+                        stats.frameBudgetMs,
+                        stats.governorDecision.name());
+            }
             statusText.setText(fps);
         });
     }
 
+    @NonNull
+    private String diagnosticsStatus(@NonNull FluidRenderer.RendererStats stats) {
+        StringBuilder status = new StringBuilder(getString(R.string.status_diagnostics_template,
+                stats.frameP50Ms,
+                stats.frameP95Ms,
+                stats.frameP99Ms,
+                stats.frameMaxMs,
+                stats.frames,
+                stats.framesOverVsync,
+                stats.framesOverDoubleVsync,
+                stats.vsyncMs,
+                stats.liveTextures,
+                stats.liveTextureBytes / (1024f * 1024f)));
+        status.append(getString(R.string.status_tiles_template,
+                stats.velocityTileCoverage * 100f,
+                stats.dyeTileCoverage * 100f));
+        if (!Float.isNaN(stats.startupFullQualityMs)) {
+            status.append(getString(R.string.status_startup_template,
+                    stats.startupFirstFrameMs,
+                    stats.startupFullQualityMs));
+        }
+        if (stats.gpuPassMs != null && stats.cpuPassMs != null) {
+            for (PassTimer.Pass pass : PassTimer.Pass.values()) {
+                status.append(getString(R.string.status_pass_template,
+                        pass.label,
+                        stats.gpuPassMs[pass.ordinal()],
+                        stats.cpuPassMs[pass.ordinal()]));
+            }
+        }
+        return status.toString();
+    }
+
+    private void updateVsyncPeriod() {
+        Display display = surfaceView.getDisplay();
+        if (display == null) {
+            return;
+        }
+        long vsyncNs = (long) (1_000_000_000L / display.getRefreshRate());
+        surfaceView.queueEvent(() -> renderer.setVsyncPeriodNs(vsyncNs));
+    }
+
+    private void showTouchIoError(@NonNull IOException e) {
+        Toast.makeText(this, getString(R.string.touch_io_failed, e.getMessage()), Toast.LENGTH_LONG)
+                .show();
+    }
+
     private boolean handleSurfaceTouch(View v, MotionEvent event) {
         final int action = event.getActionMasked();
         final int pointerIndex = event.getActionIndex();
@@ -117,8 +293,8 @@ public class MainActivity extends AppCompatActivity {
             dx = 0f;
             dy = 0f;
         }
-        int colorId = currentPalette;
-        surfaceView.queueEvent(() -> renderer.onTouch(x, y, dx, dy, colorId));
+        // Written straight into the simulation's touch ring; queueEvent would allocate per sample.
+        renderer.onTouch(x, y, dx, dy, currentPalette, event.getPointerId(pointerIndex));
         return true;
     }
 
@@ -131,6 +307,18 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onPause() {
         super.onPause();
+        try {
+            renderer.stopRecording();
+        } catch (IOException e) {
+            showTouchIoError(e);
+        }
+        recordButton.setText(R.string.record_start);
+        // Runs before the GL thread pauses, so the state survives losing the context or the
+        // activity.
+        surfaceView.queueEvent(() -> renderer.saveSnapshot(true));
+        if (isFinishing()) {
+            surfaceView.queueEvent(() -> renderer.release());
+        }
         surfaceView.onPause();
     }
 }
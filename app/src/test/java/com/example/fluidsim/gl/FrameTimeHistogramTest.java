@@ -0,0 +1,87 @@
+package com.example.fluidsim.gl;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class FrameTimeHistogramTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void percentilesReportBucketUpperEdges() {
+        FrameTimeHistogram histogram = new FrameTimeHistogram();
+        record(histogram, 90, 16_600_000L);
+        record(histogram, 8, 20 * MS);
+        record(histogram, 2, 40 * MS);
+
+        assertEquals(100, histogram.getFrameCount());
+        // 16.6 ms lands in [16.5, 16.75).
+        assertEquals(16.75f, histogram.getPercentileMs(0.5f), 1e-4f);
+        assertEquals(16.75f, histogram.getPercentileMs(0.9f), 1e-4f);
+        assertEquals(20.25f, histogram.getPercentileMs(0.95f), 1e-4f);
+        assertEquals(20.25f, histogram.getPercentileMs(0.98f), 1e-4f);
+        // The bucket edge is capped at the longest frame.
+        assertEquals(40f, histogram.getPercentileMs(0.99f), 1e-4f);
+        assertEquals(40f, histogram.getPercentileMs(1f), 1e-4f);
+        assertEquals(16.75f, histogram.getPercentileMs(0f), 1e-4f);
+        assertEquals(40f, histogram.getMaxMs(), 1e-4f);
+    }
+
+    @Test
+    public void countsMissedRefreshesWithJitterSlack() {
+        FrameTimeHistogram histogram = new FrameTimeHistogram();
+        record(histogram, 5, 16_700_000L);
+        // Within 10% of a 60 Hz refresh: jitter, not a miss.
+        record(histogram, 4, 18 * MS);
+        record(histogram, 3, 19 * MS);
+        record(histogram, 2, 33_400_000L);
+        record(histogram, 1, 36 * MS);
+
+        assertEquals(6, histogram.getOverVsyncCount());
+        assertEquals(1, histogram.getOverDoubleVsyncCount());
+
+        histogram.reset();
+        histogram.setVsyncPeriodNs(8_333_333L);
+        record(histogram, 5, 8_400_000L);
+        record(histogram, 3, 10 * MS);
+        record(histogram, 2, 18 * MS);
+        assertEquals(5, histogram.getOverVsyncCount());
+        assertEquals(2, histogram.getOverDoubleVsyncCount());
+    }
+
+    @Test
+    public void longFramesLandInTheLastBucket() {
+        FrameTimeHistogram histogram = new FrameTimeHistogram();
+        record(histogram, 3, 10 * MS);
+        histogram.record(250 * MS);
+
+        assertEquals(250f, histogram.getMaxMs(), 1e-4f);
+        float lastEdgeMs = FrameTimeHistogram.BUCKET_COUNT * FrameTimeHistogram.BUCKET_NS / (float) MS;
+        assertEquals(lastEdgeMs, histogram.getPercentileMs(1f), 1e-4f);
+        assertEquals(10.25f, histogram.getPercentileMs(0.75f), 1e-4f);
+    }
+
+    @Test
+    public void ignoresEmptyIntervalsAndResets() {
+        FrameTimeHistogram histogram = new FrameTimeHistogram();
+        assertEquals(0f, histogram.getPercentileMs(0.5f), 0f);
+        histogram.record(0L);
+        histogram.record(-5 * MS);
+        assertEquals(0, histogram.getFrameCount());
+
+        record(histogram, 10, 50 * MS);
+        histogram.reset();
+        assertEquals(0, histogram.getFrameCount());
+        assertEquals(0f, histogram.getMaxMs(), 0f);
+        assertEquals(0f, histogram.getPercentileMs(0.99f), 0f);
+        assertEquals(0, histogram.getOverVsyncCount());
+        assertEquals(0, histogram.getOverDoubleVsyncCount());
+    }
+
+    private static void record(FrameTimeHistogram histogram, int frames, long frameNs) {
+        for (int i = 0; i < frames; i++) {
+            histogram.record(frameNs);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.fluidsim.gl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class QualityGovernorTest {
+
+    private static final long VSYNC_60_NS = 16_666_667L;
+    private static final long VSYNC_120_NS = 8_333_333L;
+    private static final long SECOND_NS = 1_000_000_000L;
+    // At this speed a 768 grid sustains at most 6 iterations and a 1024 grid cannot hold 60 fps at all.
+    private static final double NS_PER_COST = 1.9;
+
+    @Test
+    public void convergesToHighestSustainableLevel() {
+        Device device = new Device(VSYNC_60_NS, NS_PER_COST);
+        QualityGovernor governor = governor(VSYNC_60_NS);
+
+        List<Change> changes = device.run(governor, 120 * SECOND_NS);
+
+        int[] sustainable = highestSustainable(device);
+        assertEquals(768, sustainable[0]);
+        assertEquals(6, sustainable[1]);
+        Change last = changes.get(changes.size() - 1);
+        assertEquals(QualityGovernor.Decision.LOWER_ITERATIONS, last.decision);
+        assertEquals(sustainable[0], last.gridSize);
+        assertEquals(sustainable[1], last.iterations);
+    }
+
+    @Test
+    public void failedProbesReturnToTheSustainableLevel() {
+        Device device = new Device(VSYNC_60_NS, NS_PER_COST);
+        QualityGovernor governor = governor(VSYNC_60_NS);
+        device.run(governor, 60 * SECOND_NS);
+        int[] sustainable = highestSustainable(device);
+
+        long overBudgetBefore = device.overBudgetNs;
+        List<Change> changes = device.run(governor, 600 * SECOND_NS);
+
+        // Every change from here on is a one-step probe and the return from it; the grid, which
+        // costs a texture rebuild, never moves.
+        assertTrue(changes.size() >= 2);
+        for (int i = 0; i < changes.size(); i++) {
+            Change change = changes.get(i);
+            assertEquals(sustainable[0], change.gridSize);
+            if (i % 2 == 0) {
+                assertEquals(QualityGovernor.Decision.RAISE_ITERATIONS, change.decision);
+                assertEquals(sustainable[1] + 1, change.iterations);
+            } else {
+                assertEquals(QualityGovernor.Decision.LOWER_ITERATIONS, change.decision);
+                assertEquals(sustainable[1], change.iterations);
+            }
+        }
+        long overBudgetNs = device.overBudgetNs - overBudgetBefore;
+        assertTrue("over budget for " + overBudgetNs / 1_000_000 + " ms",
+                overBudgetNs < 600 * SECOND_NS / 10);
+    }
+
+    @Test
+    public void probeBackoffIsCappedAtThirtySeconds() {
+        for (long vsyncNs : new long[] {VSYNC_60_NS, VSYNC_120_NS}) {
+            // Scale the device so both budgets settle at the same level.
+            Device device = new Device(vsyncNs, NS_PER_COST * vsyncNs / VSYNC_60_NS);
+            QualityGovernor governor = governor(vsyncNs);
+            List<Change> changes = device.run(governor, 900 * SECOND_NS);
+
+            List<Long> waits = new ArrayList<>();
+            for (int i = 1; i < changes.size(); i++) {
+                if (changes.get(i - 1).decision == QualityGovernor.Decision.LOWER_ITERATIONS
+                        && changes.get(i).decision == QualityGovernor.Decision.RAISE_ITERATIONS) {
+                    waits.add(changes.get(i).timeNs - changes.get(i - 1).timeNs);
+                }
+            }
+            assertTrue(waits.size() >= 5);
+            for (int i = 1; i < waits.size(); i++) {
+                assertTrue("wait shrank", waits.get(i) >= waits.get(i - 1) - windowNs(vsyncNs));
+            }
+            long cap = QualityGovernor.MAX_PROBE_WAIT_NS;
+            for (long wait : waits) {
+                assertTrue("waited " + wait / 1_000_000 + " ms", wait <= cap + 2 * windowNs(vsyncNs));
+            }
+            long lastWait = waits.get(waits.size() - 1);
+            assertTrue("waited " + lastWait / 1_000_000 + " ms", lastWait >= cap - 2 * windowNs(vsyncNs));
+        }
+    }
+
+    @Test
+    public void regainsQualityWhenLoadDrops() {
+        Device device = new Device(VSYNC_60_NS, NS_PER_COST);
+        QualityGovernor governor = governor(VSYNC_60_NS);
+        device.run(governor, 600 * SECOND_NS);
+        long throttledCost = device.cost(governor.getGridSize(), governor.getPressureIterations());
+
+        // Throttling relieved: the same work now takes a third of the time.
+        device.nsPerCost = NS_PER_COST / 3;
+        device.run(governor, 600 * SECOND_NS);
+
+        long cost = device.cost(governor.getGridSize(), governor.getPressureIterations());
+        assertTrue(cost <= VSYNC_60_NS);
+        // Probing stops no more than one probe step short of the budget.
+        assertTrue(cost * 5 / 4 > VSYNC_60_NS);
+        // At least twice the work the throttled level would now take.
+        assertTrue(cost > throttledCost / 3 * 2);
+    }
+
+    @Test
+    public void ignoresPausesAndStaysWithinLimits() {
+        QualityGovernor governor = governor(VSYNC_60_NS);
+        for (int i = 0; i < 10 * QualityGovernor.WINDOW_FRAMES; i++) {
+            assertEquals(false, governor.onFrame(SECOND_NS));
+        }
+        assertEquals(1024, governor.getGridSize());
+        assertEquals(40, governor.getPressureIterations());
+
+        // Far over budget at any level: lowering stops at the floors.
+        for (int i = 0; i < 100 * QualityGovernor.WINDOW_FRAMES; i++) {
+            governor.onFrame(10 * VSYNC_60_NS);
+        }
+        assertEquals(256, governor.getGridSize());
+        assertEquals(4, governor.getPressureIterations());
+        assertEquals(QualityGovernor.Decision.HOLD, governor.getLastDecision());
+    }
+
+    private static QualityGovernor governor(long budgetNs) {
+        QualityGovernor governor = new QualityGovernor();
+        governor.setBudgetNs(budgetNs);
+        governor.setLimits(256, 1024, 4, 40);
+        governor.reset(1024, 40);
+        return governor;
+    }
+
+    /** Finest grid, then most iterations, whose frames fit in one vsync. */
+    private static int[] highestSustainable(Device device) {
+        int[] best = null;
+        for (int gridSize : QualityGovernor.GRID_LEVELS) {
+            for (int iterations = 4; iterations <= 40; iterations++) {
+                if (device.cost(gridSize, iterations) <= device.vsyncNs) {
+                    best = new int[] {gridSize, iterations};
+                }
+            }
+        }
+        return best;
+    }
+
+    private static long windowNs(long vsyncNs) {
+        return QualityGovernor.WINDOW_FRAMES * vsyncNs;
+    }
+
+    /** A GPU whose frame work grows with cells times passes, presented on vsync. */
+    private static final class Device {
+        final long vsyncNs;
+        double nsPerCost;
+        long timeNs;
+        long overBudgetNs;
+
+        Device(long vsyncNs, double nsPerCost) {
+            this.vsyncNs = vsyncNs;
+            this.nsPerCost = nsPerCost;
+        }
+
+        long cost(int gridSize, int iterations) {
+            return (long) ((double) gridSize * gridSize * (8 + iterations) * nsPerCost);
+        }
+
+        List<Change> run(QualityGovernor governor, long durationNs) {
+            List<Change> changes = new ArrayList<>();
+            long endNs = timeNs + durationNs;
+            while (timeNs < endNs) {
+                long workNs = cost(governor.getGridSize(), governor.getPressureIterations());
+                long frameNs = Math.max(1, (workNs + vsyncNs - 1) / vsyncNs) * vsyncNs;
+                timeNs += frameNs;
+                if (frameNs > vsyncNs) {
+                    overBudgetNs += frameNs;
+                }
+                if (governor.onFrame(frameNs)) {
+                    changes.add(new Change(timeNs, governor.getLastDecision(), governor.getGridSize(),
+                            governor.getPressureIterations()));
+                }
+            }
+            return changes;
+        }
+    }
+
+    private static final class Change {
+        final long timeNs;
+        final QualityGovernor.Decision decision;
+        final int gridSize;
+        final int iterations;
+
+        Change(long timeNs, QualityGovernor.Decision decision, int gridSize, int iterations) {
+            this.timeNs = timeNs;
+            this.decision = decision;
+            this.gridSize = gridSize;
+            this.iterations = iterations;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.fluidsim.sim.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+public class ProgramBinaryStoreTest {
+
+    private static final String SOURCE = "#version 310 es\nvoid main() {}\n";
+    private static final String RENDERER = "Adreno (TM) 740";
+    private static final String VERSION = "OpenGL ES 3.2 V@0676.0";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private ProgramBinaryStore store;
+
+    @Before
+    public void setUp() {
+        directory = new File(folder.getRoot(), "programs");
+        store = new ProgramBinaryStore(directory);
+    }
+
+    @Test
+    public void keyDependsOnSourceRendererAndVersion() {
+        String key = ProgramBinaryStore.key(SOURCE, RENDERER, VERSION);
+        assertEquals(key, ProgramBinaryStore.key(SOURCE, RENDERER, VERSION));
+        assertEquals(64, key.length());
+        assertNotEquals(key, ProgramBinaryStore.key(SOURCE + " ", RENDERER, VERSION));
+        assertNotEquals(key, ProgramBinaryStore.key(SOURCE, "Mali-G715", VERSION));
+        assertNotEquals(key, ProgramBinaryStore.key(SOURCE, RENDERER, "OpenGL ES 3.2 V@0677.0"));
+        assertNotEquals(key, ProgramBinaryStore.key(SOURCE, null, VERSION));
+    }
+
+    @Test
+    public void keySeparatesRendererFromVersion() {
+        assertNotEquals(ProgramBinaryStore.key(SOURCE, "ab", "c"),
+                ProgramBinaryStore.key(SOURCE, "a", "bc"));
+    }
+
+    @Test
+    public void storedBinaryLoadsBack() throws IOException {
+        byte[] bytes = binary(300);
+        store.store("k", 0x8E21, ByteBuffer.wrap(bytes));
+
+        ProgramBinaryStore.Binary loaded = store.load("k");
+
+        assertEquals(0x8E21, loaded.format);
+        assertTrue(loaded.data.isDirect());
+        byte[] read = new byte[loaded.data.remaining()];
+        loaded.data.get(read);
+        assertArrayEquals(bytes, read);
+        assertFalse(new File(directory, "k.tmp").exists());
+    }
+
+    @Test
+    public void storeReplacesOldEntry() throws IOException {
+        store.store("k", 1, ByteBuffer.wrap(binary(10)));
+        store.store("k", 2, ByteBuffer.wrap(binary(20)));
+
+        ProgramBinaryStore.Binary loaded = store.load("k");
+
+        assertEquals(2, loaded.format);
+        assertEquals(20, loaded.data.remaining());
+    }
+
+    @Test
+    public void missingEntryLoadsAsNull() throws IOException {
+        assertNull(store.load("absent"));
+    }
+
+    @Test
+    public void corruptedBinaryThrowsAndIsDeleted() throws IOException {
+        store.store("k", 1, ByteBuffer.wrap(binary(64)));
+        File file = new File(directory, "k.bin");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(ProgramBinaryStore.HEADER_BYTES + 10);
+            int b = raf.read();
+            raf.seek(ProgramBinaryStore.HEADER_BYTES + 10);
+            raf.write(b ^ 0x40);
+        }
+
+        assertLoadFails("k");
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void truncatedFileThrowsAndIsDeleted() throws IOException {
+        store.store("k", 1, ByteBuffer.wrap(binary(64)));
+        File file = new File(directory, "k.bin");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(ProgramBinaryStore.HEADER_BYTES + 32);
+        }
+
+        assertLoadFails("k");
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void truncatedHeaderThrowsAndIsDeleted() throws IOException {
+        store.store("k", 1, ByteBuffer.wrap(binary(64)));
+        File file = new File(directory, "k.bin");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(ProgramBinaryStore.HEADER_BYTES - 4);
+        }
+
+        assertLoadFails("k");
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void pruneDeletesLeastRecentlyWritten() throws IOException {
+        long base = System.currentTimeMillis() - 100_000L;
+        for (int i = 0; i < 10; i++) {
+            store.store("k" + i, 1, ByteBuffer.wrap(binary(8)));
+            // Written within the same millisecond otherwise; date them so the order is unambiguous.
+            assertTrue(new File(directory, "k" + i + ".bin").setLastModified(base + i * 10_000L));
+        }
+        // Files that are not entries are left alone.
+        assertTrue(new File(directory, "notes.txt").createNewFile());
+
+        store.prune(6);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("k" + i, i >= 4, new File(directory, "k" + i + ".bin").exists());
+        }
+        assertTrue(new File(directory, "notes.txt").exists());
+    }
+
+    @Test
+    public void storeKeepsAtMostMaxEntries() throws IOException {
+        for (int i = 0; i < ProgramBinaryStore.MAX_ENTRIES + 5; i++) {
+            store.store("k" + i, 1, ByteBuffer.wrap(binary(8)));
+        }
+
+        assertEquals(ProgramBinaryStore.MAX_ENTRIES,
+                directory.list((dir, name) -> name.endsWith(".bin")).length);
+    }
+
+    private void assertLoadFails(String key) {
+        try {
+            store.load(key);
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+            // The entry is rejected.
+        }
+    }
+
+    private static byte[] binary(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31 + 7);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.fluidsim.sim.cpu;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ActiveTileReferenceTest {
+
+    // ActiveTiles.HALO, which is not visible from here.
+    private static final int HALO = 2;
+    private static final float FIELD_THRESHOLD = 1e-3f;
+    private static final int TILES_X = 6;
+    private static final int TILES_Y = 5;
+    // The right and top tiles are partial.
+    private static final int WIDTH = TILES_X * ActiveTileReference.TILE_SIZE - 3;
+    private static final int HEIGHT = TILES_Y * ActiveTileReference.TILE_SIZE - 5;
+
+    private final float[][] field = {new float[WIDTH * HEIGHT]};
+    private final float[] velocityX = new float[WIDTH * HEIGHT];
+    private final float[] velocityY = new float[WIDTH * HEIGHT];
+    private final int[] flags = new int[TILES_X * TILES_Y];
+
+    @Test
+    public void tilesAcrossRoundsUp() {
+        assertEquals(TILES_X, ActiveTileReference.tilesAcross(WIDTH));
+        assertEquals(TILES_Y, ActiveTileReference.tilesAcross(HEIGHT));
+        assertEquals(1, ActiveTileReference.tilesAcross(ActiveTileReference.TILE_SIZE));
+    }
+
+    @Test
+    public void hotTileListsItsHalo() {
+        setCell(2 * 8 + 3, 2 * 8 + 4, 1f);
+        classify();
+
+        assertArrayEquals(tilesWithin(0, 4, 0, 4), list(false));
+    }
+
+    @Test
+    public void haloIsClippedAtTheEdges() {
+        // In the partial top-right tile.
+        setCell(WIDTH - 1, HEIGHT - 1, -1f);
+        classify();
+
+        assertArrayEquals(tilesWithin(TILES_X - 3, TILES_X - 1, TILES_Y - 3, TILES_Y - 1), list(false));
+    }
+
+    @Test
+    public void fastVelocityMakesTileHot() {
+        velocityX[8 * WIDTH + 8] = 50f;
+        classify();
+
+        // Sampled at cell centres on the same grid, the velocity only makes tile 1,1 hot.
+        assertArrayEquals(tilesWithin(0, 3, 0, 3), list(false));
+    }
+
+    @Test
+    public void previousTickKeepsTileListed() {
+        setCell(0, 0, 1f);
+        classify();
+        setCell(0, 0, 0f);
+        classify();
+
+        assertEquals(2, flags[0]);
+        assertArrayEquals(tilesWithin(0, 2, 0, 2), list(false));
+
+        classify();
+
+        assertEquals(0, flags[0]);
+        assertEquals(0, list(false).length);
+    }
+
+    @Test
+    public void quietTilesAreNotListed() {
+        setCell(20, 20, 0.5f * FIELD_THRESHOLD);
+        classify();
+
+        assertEquals(0, list(false).length);
+    }
+
+    @Test
+    public void allActiveListsEveryTile() {
+        classify();
+
+        assertArrayEquals(tilesWithin(0, TILES_X - 1, 0, TILES_Y - 1), list(true));
+    }
+
+    private void setCell(int x, int y, float value) {
+        field[0][y * WIDTH + x] = value;
+    }
+
+    private void classify() {
+        ActiveTileReference.classify(flags, field, WIDTH, HEIGHT, velocityX, velocityY,
+                WIDTH, HEIGHT, FIELD_THRESHOLD, 1f);
+    }
+
+    private int[] list(boolean allActive) {
+        int[] tiles = new int[TILES_X * TILES_Y];
+        int count = ActiveTileReference.compact(tiles, flags, TILES_X, TILES_Y, HALO, allActive);
+        return Arrays.copyOf(tiles, count);
+    }
+
+    // Packed tiles of the inclusive rectangle, in the reference's row-major order.
+    private static int[] tilesWithin(int x0, int x1, int y0, int y1) {
+        List<Integer> tiles = new ArrayList<>();
+        for (int y = Math.max(y0, 0); y <= Math.min(y1, TILES_Y - 1); y++) {
+            for (int x = Math.max(x0, 0); x <= Math.min(x1, TILES_X - 1); x++) {
+                tiles.add(ActiveTileReference.packTile(x, y));
+            }
+        }
+        int[] result = new int[tiles.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = tiles.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.fluidsim.sim.cpu;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks one {@link CpuFluidSolver} tick against a cell-by-cell transcription of the formulas in
+ * {@code splat.comp}, {@code advect.comp}, {@code divergence.comp}, {@code jacobi.comp} and
+ * {@code project.comp}, run in the order {@code FluidSimulation} dispatches them.
+ */
+public class CpuFluidSolverTest {
+
+    private static final int WIDTH = 24;
+    private static final int HEIGHT = 18;
+    private static final float CELL_WIDTH = 1f;
+    private static final float CELL_HEIGHT = 0.8f;
+    private static final float DT = 1f / 60f;
+    private static final float VELOCITY_DISSIPATION = 0.99f;
+    private static final float DYE_DISSIPATION = 0.97f;
+    private static final int JACOBI_ITERATIONS = 20;
+    private static final float ASPECT = (WIDTH * CELL_WIDTH) / (HEIGHT * CELL_HEIGHT);
+    // {x, y, radius, dx, dy, r, g, b}; fast enough to back-trace several cells and into the border.
+    private static final float[][] SPLATS = {
+            {0.3f, 0.4f, 0.02f, 420f, 150f, 1f, 0.2f, 0.1f},
+            {0.75f, 0.6f, 0.01f, -260f, -380f, 0.1f, 0.6f, 1f},
+    };
+
+    @Test
+    public void tickMatchesShaderFormulas() {
+        int cells = WIDTH * HEIGHT;
+        float[] solverX = new float[cells];
+        float[] solverY = new float[cells];
+        HalfFloatField solverDye = new HalfFloatField(WIDTH, HEIGHT, 4);
+        try (CpuFluidSolver solver = new CpuFluidSolver(2)) {
+            solver.resize(WIDTH, HEIGHT);
+            solver.setCellSize(CELL_WIDTH, CELL_HEIGHT);
+            for (float[] s : SPLATS) {
+                solver.splat(s[0], s[1], ASPECT, s[2], s[3], s[4], s[5], s[6], s[7]);
+            }
+            solver.step(DT, VELOCITY_DISSIPATION, DYE_DISSIPATION, JACOBI_ITERATIONS);
+            solver.readVelocity(solverX, solverY);
+            solver.readDye(solverDye);
+        }
+
+        float[][] velocity = new float[2][cells];
+        float[][] dye = new float[4][cells];
+        for (float[] s : SPLATS) {
+            splat(velocity, s[0], s[1], s[2], new float[] {s[3], s[4]}, false);
+            splat(dye, s[0], s[1], s[2], new float[] {s[5], s[6], s[7]}, true);
+        }
+        velocity = advect(velocity, velocity, VELOCITY_DISSIPATION);
+        dye = advect(dye, velocity, DYE_DISSIPATION);
+        float[] divergence = divergence(velocity);
+        float[] pressure = new float[cells];
+        for (int i = 0; i < JACOBI_ITERATIONS; i++) {
+            pressure = jacobi(pressure, divergence);
+        }
+        velocity = project(velocity, pressure);
+
+        float peak = 0f;
+        for (int i = 0; i < cells; i++) {
+            peak = Math.max(peak, Math.abs(velocity[0][i]));
+            assertEquals("x at " + i, velocity[0][i], solverX[i], 1e-4f * (1f + Math.abs(velocity[0][i])));
+            assertEquals("y at " + i, velocity[1][i], solverY[i], 1e-4f * (1f + Math.abs(velocity[1][i])));
+            for (int c = 0; c < 4; c++) {
+                float expected = dye[c][i];
+                // The dye comes back as half floats.
+                assertEquals("dye " + c + " at " + i, expected, solverDye.get(i % WIDTH, i / WIDTH, c),
+                        1e-3f * Math.abs(expected) + 1e-5f);
+            }
+        }
+        assertTrue(peak > 10f);
+    }
+
+    private static void splat(float[][] field, float pointX, float pointY, float radius,
+                              float[] value, boolean dye) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                float offsetX = ((x + 0.5f) / WIDTH - pointX) * ASPECT;
+                float offsetY = (y + 0.5f) / HEIGHT - pointY;
+                float influence = (float) Math.exp(-(offsetX * offsetX + offsetY * offsetY)
+                        / Math.max(radius, 1e-4f));
+                int index = y * WIDTH + x;
+                for (int c = 0; c < value.length; c++) {
+                    field[c][index] += value[c] * influence;
+                }
+                if (dye) {
+                    field[3][index] = Math.max(field[3][index], influence);
+                }
+            }
+        }
+    }
+
+    private static float[][] advect(float[][] source, float[][] velocity, float dissipation) {
+        float[][] target = new float[source.length][WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int index = y * WIDTH + x;
+                // Same-size grids: the filtered velocity lookup at a cell centre is that cell.
+                float backX = x + 0.5f - velocity[0][index] * DT / Math.max(CELL_WIDTH, 1e-6f);
+                float backY = y + 0.5f - velocity[1][index] * DT / Math.max(CELL_HEIGHT, 1e-6f);
+                backX = clamp(backX, 0.5f, WIDTH - 0.5f) - 0.5f;
+                backY = clamp(backY, 0.5f, HEIGHT - 0.5f) - 0.5f;
+                for (int c = 0; c < source.length; c++) {
+                    target[c][index] = bilinearSample(source[c], backX, backY) * dissipation;
+                }
+            }
+        }
+        return target;
+    }
+
+    private static float bilinearSample(float[] source, float coordX, float coordY) {
+        coordX = clamp(coordX, 0f, WIDTH - 1.001f);
+        coordY = clamp(coordY, 0f, HEIGHT - 1.001f);
+        int x0 = (int) Math.floor(coordX);
+        int y0 = (int) Math.floor(coordY);
+        int x1 = Math.min(x0 + 1, WIDTH - 1);
+        int y1 = Math.min(y0 + 1, HEIGHT - 1);
+        float fx = coordX - x0;
+        float fy = coordY - y0;
+        float a = mix(source[y0 * WIDTH + x0], source[y0 * WIDTH + x1], fx);
+        float b = mix(source[y1 * WIDTH + x0], source[y1 * WIDTH + x1], fx);
+        return mix(a, b, fy);
+    }
+
+    private static float[] divergence(float[][] velocity) {
+        float[] target = new float[WIDTH * HEIGHT];
+        float halfX = 0.5f / Math.max(CELL_WIDTH, 1e-6f);
+        float halfY = 0.5f / Math.max(CELL_HEIGHT, 1e-6f);
+        for (int y = 1; y < HEIGHT - 1; y++) {
+            for (int x = 1; x < WIDTH - 1; x++) {
+                int index = y * WIDTH + x;
+                target[index] = halfX * (velocity[0][index + 1] - velocity[0][index - 1])
+                        + halfY * (velocity[1][index + WIDTH] - velocity[1][index - WIDTH]);
+            }
+        }
+        return target;
+    }
+
+    private static float[] jacobi(float[] pressure, float[] divergence) {
+        float[] target = new float[WIDTH * HEIGHT];
+        for (int y = 1; y < HEIGHT - 1; y++) {
+            for (int x = 1; x < WIDTH - 1; x++) {
+                int index = y * WIDTH + x;
+                target[index] = (pressure[index - 1] + pressure[index + 1] + pressure[index - WIDTH]
+                        + pressure[index + WIDTH] - divergence[index]) * 0.25f;
+            }
+        }
+        return target;
+    }
+
+    private static float[][] project(float[][] velocity, float[] pressure) {
+        float[][] target = new float[2][WIDTH * HEIGHT];
+        float scaleX = 0.5f / Math.max(CELL_WIDTH, 1e-6f);
+        float scaleY = 0.5f / Math.max(CELL_HEIGHT, 1e-6f);
+        for (int y = 1; y < HEIGHT - 1; y++) {
+            for (int x = 1; x < WIDTH - 1; x++) {
+                int index = y * WIDTH + x;
+                target[0][index] = velocity[0][index] - scaleX * (pressure[index + 1] - pressure[index - 1]);
+                target[1][index] = velocity[1][index]
+                        - scaleY * (pressure[index + WIDTH] - pressure[index - WIDTH]);
+            }
+        }
+        return target;
+    }
+
+    private static float mix(float a, float b, float t) {
+        return a + (b - a) * t;
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return Math.min(Math.max(value, min), max);
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.fluidsim.sim.cpu;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HalfFloatTest {
+
+    private static final int SIGN = 0x8000;
+    private static final int MAX_FINITE = 0x7bff;
+
+    @Test
+    public void everyHalfRoundTrips() {
+        for (int bits = 0; bits <= 0xffff; bits++) {
+            float value = HalfFloat.toFloat((short) bits);
+            int back = HalfFloat.fromFloat(value) & 0xffff;
+            if (isNaN(bits)) {
+                assertTrue(Float.isNaN(value));
+                assertTrue(isNaN(back));
+                assertEquals(bits & SIGN, back & SIGN);
+            } else {
+                assertEquals("half " + Integer.toHexString(bits), bits, back);
+            }
+        }
+    }
+
+    @Test
+    public void everyHalfDecodesToItsValue() {
+        for (int bits = 0; bits <= 0xffff; bits++) {
+            int exponent = (bits >>> 10) & 0x1f;
+            if (exponent == 0x1f) {
+                continue;
+            }
+            int mantissa = bits & 0x3ff;
+            double magnitude = exponent == 0
+                    ? mantissa * Math.pow(2, -24)
+                    : (1 + mantissa / 1024.0) * Math.pow(2, exponent - 15);
+            double expected = (bits & SIGN) != 0 ? -magnitude : magnitude;
+            float value = HalfFloat.toFloat((short) bits);
+            assertEquals("half " + Integer.toHexString(bits), expected, value, 0.0);
+            assertEquals((bits & SIGN) != 0, (Float.floatToRawIntBits(value) & 0x80000000) != 0);
+        }
+        assertEquals(Float.POSITIVE_INFINITY, HalfFloat.toFloat(HalfFloat.POSITIVE_INFINITY), 0f);
+        assertEquals(Float.NEGATIVE_INFINITY, HalfFloat.toFloat((short) 0xfc00), 0f);
+        assertEquals(HalfFloat.MAX_VALUE, HalfFloat.toFloat((short) MAX_FINITE), 0f);
+    }
+
+    @Test
+    public void midpointsRoundToNearestEven() {
+        for (int bits = 0; bits < MAX_FINITE; bits++) {
+            float low = HalfFloat.toFloat((short) bits);
+            float high = HalfFloat.toFloat((short) (bits + 1));
+            // Exact: adjacent halves differ in the 11th significant bit, well within a float.
+            float middle = (float) (((double) low + high) / 2);
+            int even = (bits & 1) == 0 ? bits : bits + 1;
+            for (int sign : new int[] {0, SIGN}) {
+                float s = sign == 0 ? 1f : -1f;
+                assertEquals(sign | even, HalfFloat.fromFloat(s * middle) & 0xffff);
+                assertEquals(sign | bits, HalfFloat.fromFloat(s * Math.nextDown(middle)) & 0xffff);
+                assertEquals(sign | (bits + 1), HalfFloat.fromFloat(s * Math.nextUp(middle)) & 0xffff);
+            }
+        }
+    }
+
+    @Test
+    public void overflowsToInfinityAndUnderflowsToZero() {
+        // 65520 is halfway from the largest half to the next power of two and rounds to even.
+        assertEquals(MAX_FINITE, HalfFloat.fromFloat(Math.nextDown(65520f)));
+        assertEquals(HalfFloat.POSITIVE_INFINITY, HalfFloat.fromFloat(65520f));
+        assertEquals(HalfFloat.POSITIVE_INFINITY, HalfFloat.fromFloat(Float.MAX_VALUE));
+        assertEquals((short) 0xfc00, HalfFloat.fromFloat(-1e9f));
+        assertEquals(HalfFloat.POSITIVE_INFINITY, HalfFloat.fromFloat(Float.POSITIVE_INFINITY));
+
+        assertEquals(0, HalfFloat.fromFloat(0x1p-25f));
+        assertEquals(1, HalfFloat.fromFloat(Math.nextUp(0x1p-25f)));
+        assertEquals(0, HalfFloat.fromFloat(Float.MIN_VALUE));
+        assertEquals((short) SIGN, HalfFloat.fromFloat(-Float.MIN_VALUE));
+        assertEquals((short) SIGN, HalfFloat.fromFloat(-0f));
+        assertTrue(isNaN(HalfFloat.fromFloat(Float.NaN) & 0xffff));
+    }
+
+    private static boolean isNaN(int bits) {
+        return (bits & 0x7c00) == 0x7c00 && (bits & 0x3ff) != 0;
+    }
+}
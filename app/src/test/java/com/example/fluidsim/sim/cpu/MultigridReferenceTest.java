@@ -0,0 +1,125 @@
+package com.example.fluidsim.sim.cpu;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class MultigridReferenceTest {
+
+    private static final float EPSILON = 1e-5f;
+
+    @Test
+    public void restrictScalesConstantField() {
+        assertRestrictsConstant(16, 12);
+    }
+
+    @Test
+    public void restrictClampsOddSizesToTheEdge() {
+        assertRestrictsConstant(15, 9);
+        assertRestrictsConstant(1, 3);
+    }
+
+    @Test
+    public void prolongAddAddsConstantToInteriorOnly() {
+        int fineWidth = 17;
+        int fineHeight = 11;
+        int coarseWidth = MultigridReference.coarseSize(fineWidth);
+        int coarseHeight = MultigridReference.coarseSize(fineHeight);
+        float[] fine = new float[fineWidth * fineHeight];
+        for (int i = 0; i < fine.length; i++) {
+            fine[i] = i * 0.01f;
+        }
+        float[] coarse = filled(coarseWidth * coarseHeight, 0.75f);
+
+        MultigridReference.prolongAdd(fine, fineWidth, fineHeight, coarse, coarseWidth, coarseHeight);
+
+        for (int y = 0; y < fineHeight; y++) {
+            for (int x = 0; x < fineWidth; x++) {
+                int index = y * fineWidth + x;
+                boolean border = x == 0 || y == 0 || x == fineWidth - 1 || y == fineHeight - 1;
+                float expected = index * 0.01f + (border ? 0f : 0.75f);
+                assertEquals("cell " + x + "," + y, expected, fine[index], EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void coarseSizeRoundsUp() {
+        assertEquals(4, MultigridReference.coarseSize(7));
+        assertEquals(4, MultigridReference.coarseSize(8));
+        assertEquals(1, MultigridReference.coarseSize(1));
+    }
+
+    @Test
+    public void levelCountStopsOnTheShortSide() {
+        // 320x180, 160x90, 80x45, 40x23, 20x12; 10x6 would be below the minimum.
+        assertEquals(5, MultigridReference.levelCount(320, 180));
+        assertEquals(5, MultigridReference.levelCount(180, 320));
+        assertEquals(2, MultigridReference.levelCount(16, 1000));
+        assertEquals(1, MultigridReference.levelCount(15, 1000));
+        assertEquals(5, new MultigridReference.Solver(320, 180).getLevelCount());
+    }
+
+    @Test
+    public void vCyclesReduceResidualBelowJacobi() {
+        int width = 320;
+        int height = 180;
+        float[] rhs = new float[width * height];
+        Random random = new Random(7);
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                rhs[y * width + x] = random.nextFloat() * 2f - 1f;
+            }
+        }
+
+        float[] multigrid = new float[width * height];
+        MultigridReference.Solver solver = new MultigridReference.Solver(width, height);
+        solver.vCycle(multigrid, rhs);
+        solver.vCycle(multigrid, rhs);
+
+        float[] jacobi = new float[width * height];
+        float[] scratch = new float[width * height];
+        for (int i = 0; i < 24; i++) {
+            FluidKernels.jacobi(scratch, jacobi, rhs, width, height, -1f, 0.25f, 0, height);
+            float[] swap = jacobi;
+            jacobi = scratch;
+            scratch = swap;
+        }
+
+        float multigridRms = rms(multigrid, rhs, width, height);
+        float jacobiRms = rms(jacobi, rhs, width, height);
+        assertTrue("multigrid " + multigridRms + " vs jacobi " + jacobiRms,
+                multigridRms < 0.5f * jacobiRms);
+    }
+
+    private static void assertRestrictsConstant(int fineWidth, int fineHeight) {
+        int coarseWidth = MultigridReference.coarseSize(fineWidth);
+        int coarseHeight = MultigridReference.coarseSize(fineHeight);
+        float[] coarse = new float[coarseWidth * coarseHeight];
+
+        MultigridReference.restrict(coarse, coarseWidth, coarseHeight,
+                filled(fineWidth * fineHeight, 1.5f), fineWidth, fineHeight,
+                MultigridReference.RESTRICT_SCALE);
+
+        for (int i = 0; i < coarse.length; i++) {
+            assertEquals(fineWidth + "x" + fineHeight + " cell " + i,
+                    MultigridReference.RESTRICT_SCALE * 1.5f, coarse[i], EPSILON);
+        }
+    }
+
+    private static float rms(float[] pressure, float[] rhs, int width, int height) {
+        float[] norms = new float[2];
+        FluidKernels.residualNorms(pressure, rhs, width, height, norms, 0, height);
+        return (float) Math.sqrt(norms[1] / ((width - 2) * (height - 2)));
+    }
+
+    private static float[] filled(int length, float value) {
+        float[] array = new float[length];
+        Arrays.fill(array, value);
+        return array;
+    }
+}
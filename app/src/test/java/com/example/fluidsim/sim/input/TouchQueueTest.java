@@ -0,0 +1,162 @@
+package com.example.fluidsim.sim.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TouchQueueTest {
+
+    @Test
+    public void capacityRoundsUpToPowerOfTwo() {
+        int[][] cases = {{1, 2}, {2, 2}, {3, 4}, {4, 4}, {5, 8}, {256, 256}, {257, 512}};
+        for (int[] c : cases) {
+            TouchQueue queue = new TouchQueue(c[0]);
+            int accepted = 0;
+            while (queue.add(accepted, 0f, 0f, 0f, 0, 0)) {
+                accepted++;
+            }
+            assertEquals("capacity " + c[0], c[1], accepted);
+        }
+    }
+
+    @Test
+    public void fullRingDropsNewSamples() {
+        TouchQueue queue = new TouchQueue(4);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i < 4, queue.add(i, 0f, 0f, 0f, 0, 0));
+        }
+        assertEquals(2, queue.getDroppedCount());
+
+        Recorder recorder = new Recorder();
+        assertEquals(4, queue.drain(recorder));
+        assertEquals(4, recorder.samples.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, recorder.samples.get(i)[0], 0f);
+        }
+        assertTrue(queue.add(9f, 0f, 0f, 0f, 0, 0));
+        assertEquals(2, queue.getDroppedCount());
+    }
+
+    @Test
+    public void wrapsAroundTheRingInOrder() {
+        TouchQueue queue = new TouchQueue(8);
+        Recorder recorder = new Recorder();
+        int next = 0;
+        // Five per round against a ring of eight: the indices straddle the end of the ring in most
+        // rounds.
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(queue.add(next, -next, i, 2 * i, next % 3, 0));
+                next++;
+            }
+            assertEquals(5, queue.drain(recorder, 5));
+        }
+        assertEquals(100, recorder.samples.size());
+        for (int i = 0; i < 100; i++) {
+            float[] sample = recorder.samples.get(i);
+            assertEquals(i, sample[0], 0f);
+            assertEquals(-i, sample[1], 0f);
+            assertEquals(i % 5, sample[2], 0f);
+            assertEquals(2 * (i % 5), sample[3], 0f);
+            assertEquals(i % 3, sample[4], 0f);
+        }
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void overBudgetMergesRunsOfOnePointer() {
+        TouchQueue queue = new TouchQueue(16);
+        queue.add(1f, 1f, 1f, 2f, 7, 0);
+        queue.add(2f, 2f, 3f, 4f, 7, 0);
+        queue.add(3f, 3f, 5f, 6f, 8, 0);
+        queue.add(10f, 10f, 1f, 1f, 1, 1);
+        queue.add(11f, 11f, 2f, 2f, 1, 1);
+        queue.add(4f, 4f, -1f, -1f, 8, 0);
+
+        Recorder recorder = new Recorder();
+        assertEquals(3, queue.drain(recorder, 4));
+
+        // Each run lands at its last sample with the summed movement.
+        assertSample(recorder.samples.get(0), 3f, 3f, 9f, 12f, 8);
+        assertSample(recorder.samples.get(1), 11f, 11f, 3f, 3f, 1);
+        assertSample(recorder.samples.get(2), 4f, 4f, -1f, -1f, 8);
+        assertEquals(0, queue.drain(recorder, 4));
+    }
+
+    @Test
+    public void withinBudgetDeliversEverySample() {
+        TouchQueue queue = new TouchQueue(16);
+        for (int i = 0; i < 6; i++) {
+            queue.add(i, i, 1f, 1f, 0, 0);
+        }
+        Recorder recorder = new Recorder();
+        assertEquals(6, queue.drain(recorder, 6));
+        assertEquals(6, recorder.samples.size());
+    }
+
+    @Test
+    public void clearDiscardsQueuedSamples() {
+        TouchQueue queue = new TouchQueue(4);
+        for (int i = 0; i < 4; i++) {
+            queue.add(i, 0f, 0f, 0f, 0, 0);
+        }
+        queue.clear();
+        Recorder recorder = new Recorder();
+        assertEquals(0, queue.drain(recorder));
+        assertTrue(queue.add(5f, 0f, 0f, 0f, 0, 0));
+        assertEquals(1, queue.drain(recorder));
+        assertEquals(5f, recorder.samples.get(0)[0], 0f);
+    }
+
+    @Test
+    public void concurrentProducerLosesNothing() throws InterruptedException {
+        TouchQueue queue = new TouchQueue(16);
+        int total = 50_000;
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < total; i++) {
+                while (!queue.add(i, 0f, 0f, 0f, 0, 0)) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+        int[] next = {0};
+        boolean[] ordered = {true};
+        TouchQueue.Consumer consumer = (x, y, dx, dy, colorId) -> {
+            ordered[0] &= x == next[0];
+            next[0]++;
+        };
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (next[0] < total && System.nanoTime() < deadline) {
+            if (queue.drain(consumer) == 0) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+        assertEquals(total, next[0]);
+        assertTrue(ordered[0]);
+        assertFalse(queue.drain(consumer) > 0);
+    }
+
+    private static void assertSample(float[] sample, float x, float y, float dx, float dy, int colorId) {
+        assertEquals(x, sample[0], 0f);
+        assertEquals(y, sample[1], 0f);
+        assertEquals(dx, sample[2], 0f);
+        assertEquals(dy, sample[3], 0f);
+        assertEquals(colorId, sample[4], 0f);
+    }
+
+    private static final class Recorder implements TouchQueue.Consumer {
+        final List<float[]> samples = new ArrayList<>();
+
+        @Override
+        public void accept(float x, float y, float dx, float dy, int colorId) {
+            samples.add(new float[] {x, y, dx, dy, colorId});
+        }
+    }
+}
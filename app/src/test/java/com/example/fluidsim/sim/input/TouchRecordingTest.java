@@ -0,0 +1,133 @@
+package com.example.fluidsim.sim.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TouchRecordingTest {
+
+    private static final int RECORDED_WIDTH = 1080;
+    private static final int RECORDED_HEIGHT = 2400;
+    private static final int REPLAY_WIDTH = 720;
+    private static final int REPLAY_HEIGHT = 1200;
+    private static final long START_NS = 5_000_000_000L;
+    private static final long FRAME_NS = 16_666_667L;
+    // Several writer buffers' worth; the first one also holds the header.
+    private static final int SAMPLES = 2500;
+    private static final int SAMPLES_PER_FRAME = 3;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replayDeliversEveryFrameScaledAndInOrder() throws IOException {
+        File file = record();
+
+        try (TouchReplayer replayer = new TouchReplayer(file)) {
+            assertEquals(RECORDED_WIDTH, replayer.getSurfaceWidth());
+            assertEquals(RECORDED_HEIGHT, replayer.getSurfaceHeight());
+            assertEquals(SAMPLES, replayer.getRecordCount());
+            assertEquals(frame(SAMPLES - 1), replayer.getLastFrame());
+            assertEquals(timestamp(SAMPLES - 1) - START_NS, replayer.getDurationNs());
+
+            float scaleX = REPLAY_WIDTH / (float) RECORDED_WIDTH;
+            float scaleY = REPLAY_HEIGHT / (float) RECORDED_HEIGHT;
+            List<float[]> samples = new ArrayList<>();
+            TouchReplayer.Sink sink = (x, y, dx, dy, colorId, pointerId) ->
+                    samples.add(new float[] {x, y, dx, dy, colorId, pointerId});
+            int expected = 0;
+            for (int frame = 0; frame <= replayer.getLastFrame(); frame++) {
+                int delivered = replayer.replayUntil(frame, REPLAY_WIDTH, REPLAY_HEIGHT, sink);
+                assertEquals(Math.min(SAMPLES - expected, SAMPLES_PER_FRAME), delivered);
+                for (int i = expected; i < expected + delivered; i++) {
+                    float[] sample = samples.get(i);
+                    assertEquals(x(i) * scaleX, sample[0], 0f);
+                    assertEquals(y(i) * scaleY, sample[1], 0f);
+                    assertEquals(dx(i) * scaleX, sample[2], 0f);
+                    assertEquals(dy(i) * scaleY, sample[3], 0f);
+                    assertEquals(i % 7, sample[4], 0f);
+                    assertEquals(i % 2, sample[5], 0f);
+                }
+                expected += delivered;
+            }
+            assertEquals(SAMPLES, samples.size());
+            assertTrue(replayer.isFinished());
+            assertEquals(0, replayer.replayUntil(Integer.MAX_VALUE, REPLAY_WIDTH, REPLAY_HEIGHT, sink));
+
+            replayer.rewind();
+            assertFalse(replayer.isFinished());
+            assertEquals(SAMPLES, replayer.replayUntil(Integer.MAX_VALUE, REPLAY_WIDTH,
+                    REPLAY_HEIGHT, sink));
+        }
+    }
+
+    @Test
+    public void replayWithoutSamplesIsFinished() throws IOException {
+        File file = folder.newFile("empty.trace");
+        new TouchRecorder(file, RECORDED_WIDTH, RECORDED_HEIGHT, START_NS).close();
+
+        try (TouchReplayer replayer = new TouchReplayer(file)) {
+            assertEquals(0, replayer.getRecordCount());
+            assertEquals(0, replayer.getLastFrame());
+            assertTrue(replayer.isFinished());
+        }
+    }
+
+    @Test
+    public void foreignFileIsRejected() throws IOException {
+        File file = folder.newFile("foreign.trace");
+        try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+            access.write(new byte[TouchRecorder.HEADER_BYTES + TouchRecorder.RECORD_BYTES]);
+        }
+        assertThrows(IOException.class, () -> new TouchReplayer(file));
+    }
+
+    private File record() throws IOException {
+        File file = folder.newFile("touches.trace");
+        try (TouchRecorder recorder = new TouchRecorder(file, RECORDED_WIDTH, RECORDED_HEIGHT,
+                START_NS)) {
+            for (int i = 0; i < SAMPLES; i++) {
+                recorder.record(timestamp(i), frame(i), x(i), y(i), dx(i), dy(i), i % 7, i % 2);
+            }
+            assertEquals(SAMPLES, recorder.getRecordCount());
+        }
+        assertEquals(TouchRecorder.HEADER_BYTES + (long) SAMPLES * TouchRecorder.RECORD_BYTES,
+                file.length());
+        return file;
+    }
+
+    private static int frame(int sample) {
+        return sample / SAMPLES_PER_FRAME;
+    }
+
+    private static long timestamp(int sample) {
+        return START_NS + frame(sample) * FRAME_NS + sample % SAMPLES_PER_FRAME;
+    }
+
+    private static float x(int sample) {
+        return (sample * 7) % RECORDED_WIDTH + 0.25f;
+    }
+
+    private static float y(int sample) {
+        return (sample * 13) % RECORDED_HEIGHT + 0.75f;
+    }
+
+    private static float dx(int sample) {
+        return (sample % 11) - 5f;
+    }
+
+    private static float dy(int sample) {
+        return 3f - (sample % 5);
+    }
+}
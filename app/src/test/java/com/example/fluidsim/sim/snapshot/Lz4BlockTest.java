@@ -0,0 +1,80 @@
+package com.example.fluidsim.sim.snapshot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class Lz4BlockTest {
+
+    private final Lz4Block compressor = new Lz4Block();
+
+    @Test
+    public void repetitiveInputRoundTripsAndShrinks() throws IOException {
+        Random random = new Random(7);
+        byte[] input = new byte[64 * 1024];
+        // Short random runs drawn from a small alphabet: plenty of matches at varied offsets.
+        for (int i = 0; i < input.length; ) {
+            byte value = (byte) random.nextInt(8);
+            int run = 1 + random.nextInt(40);
+            for (int j = 0; j < run && i < input.length; j++) {
+                input[i++] = value;
+            }
+        }
+        int compressed = roundTrip(input);
+        assertTrue(compressed < input.length / 2);
+    }
+
+    @Test
+    public void incompressibleInputRoundTripsWithinBound() throws IOException {
+        byte[] input = new byte[64 * 1024];
+        new Random(11).nextBytes(input);
+        int compressed = roundTrip(input);
+        assertTrue(compressed <= Lz4Block.maxCompressedLength(input.length));
+    }
+
+    @Test
+    public void shortAndEmptyInputsRoundTrip() throws IOException {
+        Random random = new Random(3);
+        for (int length = 0; length <= 32; length++) {
+            byte[] input = new byte[length];
+            random.nextBytes(input);
+            roundTrip(input);
+        }
+    }
+
+    @Test
+    public void longLiteralAndMatchRunsRoundTrip() throws IOException {
+        // Runs longer than 15 + 255 exercise the extended length bytes of both fields.
+        byte[] input = new byte[4096];
+        new Random(5).nextBytes(input);
+        Arrays.fill(input, 1000, 3000, (byte) 42);
+        roundTrip(input);
+    }
+
+    @Test
+    public void truncatedBlockIsRejected() {
+        byte[] input = new byte[4096];
+        Arrays.fill(input, (byte) 9);
+        byte[] compressed = new byte[Lz4Block.maxCompressedLength(input.length)];
+        int length = compressor.compress(input, input.length, compressed);
+        assertThrows(IOException.class,
+                () -> Lz4Block.decompress(compressed, length - 1, new byte[input.length], input.length));
+        assertThrows(IOException.class,
+                () -> Lz4Block.decompress(compressed, length, new byte[input.length + 1], input.length + 1));
+    }
+
+    private int roundTrip(byte[] input) throws IOException {
+        byte[] compressed = new byte[Lz4Block.maxCompressedLength(input.length)];
+        int length = compressor.compress(input, input.length, compressed);
+        byte[] output = new byte[input.length];
+        Lz4Block.decompress(compressed, length, output, input.length);
+        assertArrayEquals(input, output);
+        return length;
+    }
+}
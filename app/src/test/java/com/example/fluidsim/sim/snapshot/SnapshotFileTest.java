@@ -0,0 +1,145 @@
+package com.example.fluidsim.sim.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import com.example.fluidsim.sim.cpu.HalfFloatField;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+public class SnapshotFileTest {
+
+    // Velocity header offsets: the file header comes first.
+    private static final int VELOCITY_WIDTH = SnapshotFile.HEADER_BYTES;
+    private static final int VELOCITY_CHECKSUM = SnapshotFile.HEADER_BYTES + 20;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void uncompressedSnapshotRoundTrips() throws IOException {
+        assertRoundTrip(false);
+    }
+
+    @Test
+    public void compressedSnapshotRoundTrips() throws IOException {
+        assertRoundTrip(true);
+    }
+
+    @Test
+    public void velocityKeepsOnlyTwoChannels() throws IOException {
+        File file = folder.newFile("snapshot.bin");
+        FieldSnapshot snapshot = snapshot(12, 7);
+        SnapshotFile.write(file, snapshot, false);
+
+        int velocityBytes = 12 * 7 * 2 * 2;
+        int dyeBytes = 24 * 14 * 4 * 2;
+        assertEquals(SnapshotFile.HEADER_BYTES + 2 * SnapshotFile.FIELD_HEADER_BYTES + velocityBytes
+                + dyeBytes, file.length());
+        FieldSnapshot loaded = SnapshotFile.read(file);
+        for (int y = 0; y < 7; y++) {
+            for (int x = 0; x < 12; x++) {
+                assertEquals(0f, loaded.velocity.get(x, y, 2), 0f);
+                assertEquals(0f, loaded.velocity.get(x, y, 3), 0f);
+            }
+        }
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        for (boolean compress : new boolean[] {false, true}) {
+            File file = folder.newFile("truncated-" + compress + ".bin");
+            SnapshotFile.write(file, snapshot(16, 9), compress);
+            try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+                access.setLength(access.length() - 3);
+            }
+            assertThrows(IOException.class, () -> SnapshotFile.read(file));
+        }
+    }
+
+    @Test
+    public void flippedChecksumByteIsRejected() throws IOException {
+        File file = folder.newFile("checksum.bin");
+        SnapshotFile.write(file, snapshot(16, 9), true);
+        try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+            access.seek(VELOCITY_CHECKSUM);
+            int value = access.read();
+            access.seek(VELOCITY_CHECKSUM);
+            access.write(value ^ 0x01);
+        }
+        IOException error = assertThrows(IOException.class, () -> SnapshotFile.read(file));
+        assertEquals("Snapshot checksum mismatch", error.getMessage());
+    }
+
+    @Test
+    public void oversizedFieldHeaderIsRejected() throws IOException {
+        for (int offset : new int[] {VELOCITY_WIDTH, VELOCITY_WIDTH + 4}) {
+            File file = folder.newFile("oversized-" + offset + ".bin");
+            SnapshotFile.write(file, snapshot(16, 9), false);
+            try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+                access.seek(offset);
+                access.write(new byte[] {0, 0, 1, 0}); // 65536, little endian
+            }
+            IOException error = assertThrows(IOException.class, () -> SnapshotFile.read(file));
+            assertEquals("Corrupt snapshot field header", error.getMessage());
+        }
+    }
+
+    @Test
+    public void foreignFileIsRejected() throws IOException {
+        File file = folder.newFile("foreign.bin");
+        try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+            access.write(new byte[64]);
+        }
+        assertThrows(IOException.class, () -> SnapshotFile.read(file));
+    }
+
+    private void assertRoundTrip(boolean compress) throws IOException {
+        File file = folder.newFile("snapshot-" + compress + ".bin");
+        FieldSnapshot snapshot = snapshot(40, 23);
+        SnapshotFile.write(file, snapshot, compress);
+        FieldSnapshot loaded = SnapshotFile.read(file);
+
+        assertEquals(snapshot.gridSize, loaded.gridSize);
+        assertEquals(snapshot.dyeGridSize, loaded.dyeGridSize);
+        assertFieldEquals(snapshot.velocity, loaded.velocity, 2);
+        assertFieldEquals(snapshot.dye, loaded.dye, 4);
+    }
+
+    /** Random RGBA velocity and dye, the dye grid twice the velocity grid. */
+    private static FieldSnapshot snapshot(int width, int height) {
+        Random random = new Random(width * 31 + height);
+        HalfFloatField velocity = new HalfFloatField(width, height, 4);
+        HalfFloatField dye = new HalfFloatField(width * 2, height * 2, 4);
+        fill(velocity, random);
+        fill(dye, random);
+        return new FieldSnapshot(Math.max(width, height), Math.max(width, height) * 2, velocity, dye);
+    }
+
+    private static void fill(HalfFloatField field, Random random) {
+        for (int y = 0; y < field.getHeight(); y++) {
+            for (int x = 0; x < field.getWidth(); x++) {
+                for (int c = 0; c < 4; c++) {
+                    field.set(x, y, c, random.nextFloat() * 200f - 100f);
+                }
+            }
+        }
+    }
+
+    private static void assertFieldEquals(HalfFloatField expected, HalfFloatField actual, int channels) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int i = 0; i < expected.getWidth() * expected.getHeight(); i++) {
+            for (int c = 0; c < channels; c++) {
+                assertEquals(expected.getBuffer().get(i * 4 + c), actual.getBuffer().get(i * 4 + c));
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+plugins {
+    java
+    id("me.champeau.jmh")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+// The benchmarks and the headless runner exercise the app's GL-free Java sources directly rather
+// than a copy of them.
+sourceSets {
+    main {
+        java {
+            srcDir("../app/src/main/java")
+            include("com/example/fluidsim/bench/**")
+            include("com/example/fluidsim/sim/cpu/**")
+            include("com/example/fluidsim/sim/input/**")
+            include("com/example/fluidsim/sim/PressureSolverType.java")
+            include("com/example/fluidsim/sim/AdvectionScheme.java")
+        }
+    }
+}
+
+dependencies {
+    implementation("androidx.annotation:annotation:1.8.0")
+}
+
+// ./gradlew :bench:runHeadless -PheadlessArgs="--frames 300 --grid 256 --out build/frames"
+tasks.register<JavaExec>("runHeadless") {
+    group = "application"
+    description = "Runs the CPU solver without a display and writes the dye as an image sequence."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.example.fluidsim.bench.HeadlessRunner")
+    workingDir = layout.buildDirectory.get().asFile
+    args = (project.findProperty("headlessArgs") as String?)
+        ?.split(" ")
+        ?.filter { it.isNotEmpty() }
+        ?: emptyList()
+}
+
+// ./gradlew :bench:runAdvectionDetail -PadvectionArgs="256 512 1024"
+tasks.register<JavaExec>("runAdvectionDetail") {
+    group = "application"
+    description = "Prints the detail each advection scheme keeps, and its cost, per grid size."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.example.fluidsim.bench.AdvectionDetail")
+    args = (project.findProperty("advectionArgs") as String?)
+        ?.split(" ")
+        ?.filter { it.isNotEmpty() }
+        ?: emptyList()
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+}
@@ -0,0 +1,71 @@
+package com.example.fluidsim.bench;
+
+import com.example.fluidsim.sim.AdvectionScheme;
+import com.example.fluidsim.sim.cpu.FluidKernels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded cost of advecting the RGBA dye one tick with each {@link AdvectionScheme}. The
+ * detail each scheme keeps at each grid size is measured by {@link AdvectionDetail}; together they
+ * show whether MacCormack at one size beats semi-Lagrangian at twice the size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AdvectionBenchmark {
+
+    @Param({"256", "512", "1024"})
+    public int gridSize;
+
+    @Param({"SEMI_LAGRANGIAN", "MACCORMACK"})
+    public AdvectionScheme scheme;
+
+    private float[][] velocity;
+    private float[][] dye;
+    private float[][] predicted;
+    private float[][] dyeOut;
+
+    @Setup
+    public void setUp() {
+        int cells = gridSize * gridSize;
+        Random random = new Random(42);
+        velocity = new float[][]{KernelBenchmark.noise(random, cells, 40f),
+                KernelBenchmark.noise(random, cells, 40f)};
+        dye = new float[][]{KernelBenchmark.noise(random, cells, 1f), KernelBenchmark.noise(random, cells, 1f),
+                KernelBenchmark.noise(random, cells, 1f), KernelBenchmark.noise(random, cells, 1f)};
+        predicted = new float[][]{new float[cells], new float[cells], new float[cells], new float[cells]};
+        dyeOut = new float[][]{new float[cells], new float[cells], new float[cells], new float[cells]};
+    }
+
+    @Benchmark
+    public void advectDye(Blackhole blackhole) {
+        if (scheme == AdvectionScheme.MACCORMACK) {
+            FluidKernels.advect(predicted, dye, velocity[0], velocity[1], gridSize, gridSize,
+                    1f, 1f, 1f / 60f, 1f, 0, gridSize);
+            FluidKernels.advectMacCormack(dyeOut, dye, predicted, velocity[0], velocity[1],
+                    gridSize, gridSize, 1f, 1f, 1f / 60f, 0.999f, 0, gridSize);
+        } else {
+            FluidKernels.advect(dyeOut, dye, velocity[0], velocity[1], gridSize, gridSize,
+                    1f, 1f, 1f / 60f, 0.999f, 0, gridSize);
+        }
+        blackhole.consume(dyeOut);
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.fluidsim.bench;
+
+import com.example.fluidsim.sim.cpu.ActiveTileReference;
+import com.example.fluidsim.sim.cpu.FluidKernels;
+import com.example.fluidsim.sim.cpu.MultigridReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded cost of one full-grid pass of each Java reference kernel.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KernelBenchmark {
+
+    @Param({"256", "512", "1024"})
+    public int gridSize;
+
+    private float[][] velocity;
+    private float[][] velocityOut;
+    private float[][] dye;
+    private float[][] dyeOut;
+    private float[] pressure;
+    private float[] pressureOut;
+    private float[] divergence;
+    private MultigridReference.Solver multigrid;
+    // A still, empty scene, where classification has to look at every cell.
+    private float[][] stillDye;
+    private float[] stillVelocity;
+    private int[] tileFlags;
+    private int[] tileList;
+
+    @Setup
+    public void setUp() {
+        int cells = gridSize * gridSize;
+        Random random = new Random(42);
+        velocity = new float[][]{noise(random, cells, 40f), noise(random, cells, 40f)};
+        velocityOut = new float[][]{new float[cells], new float[cells]};
+        dye = new float[][]{noise(random, cells, 1f), noise(random, cells, 1f),
+                noise(random, cells, 1f), noise(random, cells, 1f)};
+        dyeOut = new float[][]{new float[cells], new float[cells], new float[cells], new float[cells]};
+        pressure = noise(random, cells, 1f);
+        pressureOut = new float[cells];
+        divergence = noise(random, cells, 1f);
+        multigrid = new MultigridReference.Solver(gridSize, gridSize);
+        stillDye = new float[][]{new float[cells], new float[cells], new float[cells], new float[cells]};
+        stillVelocity = new float[cells];
+        int tiles = ActiveTileReference.tilesAcross(gridSize) * ActiveTileReference.tilesAcross(gridSize);
+        tileFlags = new int[tiles];
+        tileList = new int[tiles];
+    }
+
+    @Benchmark
+    public void advectVelocity(Blackhole blackhole) {
+        FluidKernels.advect(velocityOut, velocity, velocity[0], velocity[1], gridSize, gridSize,
+                1f, 1f, 1f / 60f, 0.995f, 0, gridSize);
+        blackhole.consume(velocityOut);
+    }
+
+    @Benchmark
+    public void advectDye(Blackhole blackhole) {
+        FluidKernels.advect(dyeOut, dye, velocity[0], velocity[1], gridSize, gridSize,
+                1f, 1f, 1f / 60f, 0.999f, 0, gridSize);
+        blackhole.consume(dyeOut);
+    }
+
+    @Benchmark
+    public void divergence(Blackhole blackhole) {
+        FluidKernels.divergence(divergence, velocity[0], velocity[1], gridSize, gridSize,
+                1f, 1f, 0, gridSize);
+        blackhole.consume(divergence);
+    }
+
+    @Benchmark
+    public void jacobiSweep(Blackhole blackhole) {
+        FluidKernels.jacobi(pressureOut, pressure, divergence, gridSize, gridSize,
+                -1f, 0.25f, 0, gridSize);
+        blackhole.consume(pressureOut);
+    }
+
+    @Benchmark
+    public void redBlackSweep(Blackhole blackhole) {
+        FluidKernels.redBlack(pressure, divergence, gridSize, gridSize, -1f, 0.25f, 1.8f, 0, 0, gridSize);
+        FluidKernels.redBlack(pressure, divergence, gridSize, gridSize, -1f, 0.25f, 1.8f, 1, 0, gridSize);
+        blackhole.consume(pressure);
+    }
+
+    @Benchmark
+    public void multigridVCycle(Blackhole blackhole) {
+        multigrid.vCycle(pressure, divergence);
+        blackhole.consume(pressure);
+    }
+
+    @Benchmark
+    public void project(Blackhole blackhole) {
+        FluidKernels.project(velocityOut[0], velocityOut[1], pressure, gridSize, gridSize,
+                1f, 1f, 0, gridSize);
+        blackhole.consume(velocityOut);
+    }
+
+    @Benchmark
+    public void splat(Blackhole blackhole) {
+        FluidKernels.splat(velocity[0], velocity[1], dye, gridSize, gridSize, 0.5f, 0.5f, 16f / 9f,
+                0.02f, 1f, -1f, 0.01f, 0.01f, 0.01f, 0, gridSize);
+        blackhole.consume(dye);
+    }
+
+    @Benchmark
+    public int classifyTiles() {
+        ActiveTileReference.classify(tileFlags, stillDye, gridSize, gridSize,
+                stillVelocity, stillVelocity, gridSize, gridSize, 1f / 512f, 0.05f);
+        int tilesAcross = ActiveTileReference.tilesAcross(gridSize);
+        return ActiveTileReference.compact(tileList, tileFlags, tilesAcross, tilesAcross, 2, false);
+    }
+
+    static float[] noise(Random random, int cells, float amplitude) {
+        float[] values = new float[cells];
+        for (int i = 0; i < cells; i++) {
+            values[i] = (random.nextFloat() * 2f - 1f) * amplitude;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.fluidsim.bench;
+
+import com.example.fluidsim.sim.cpu.CpuFluidSolver;
+import com.example.fluidsim.sim.input.TouchQueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One frame of touch handling: a swipe burst is enqueued as the UI thread would, then drained and
+ * splatted into the grid as {@code FluidSimulation.applyPendingSplats} does on the GL thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TouchPathBenchmark {
+
+    private static final float SURFACE_WIDTH = 2400f;
+    private static final float SURFACE_HEIGHT = 1080f;
+    private static final float SPLAT_RADIUS = 0.02f;
+    private static final float SPLAT_FORCE = 6f;
+
+    @Param({"256", "512", "1024"})
+    public int gridSize;
+
+    @Param({"1", "20"})
+    public int burst;
+
+    /** Samples per frame before coalescing; 8 is the CPU solver's budget. */
+    @Param({"8", "64"})
+    public int budget;
+
+    private final TouchQueue queue = new TouchQueue();
+    private final TouchQueue.Consumer splatter = this::splat;
+    private CpuFluidSolver solver;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        solver = new CpuFluidSolver(1);
+        solver.resize(gridSize, gridSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        solver.close();
+    }
+
+    @Benchmark
+    public int enqueueAndApply() {
+        for (int i = 0; i < burst; i++) {
+            float t = i / (float) burst;
+            queue.add(200f + t * 2000f, 300f + t * 400f, 2000f / burst, 400f / burst, i, 0);
+        }
+        return queue.drain(splatter, budget);
+    }
+
+    private void splat(float x, float y, float dx, float dy, int colorId) {
+        float px = x / SURFACE_WIDTH;
+        float py = 1f - y / SURFACE_HEIGHT;
+        float velocityScale = gridSize * SPLAT_FORCE;
+        float vx = (dx / SURFACE_WIDTH) * velocityScale;
+        float vy = (-dy / SURFACE_HEIGHT) * velocityScale;
+        float shade = (colorId & 1) == 0 ? 1f : 0.3f;
+        solver.splat(px, py, SURFACE_WIDTH / SURFACE_HEIGHT, SPLAT_RADIUS, vx, vy, shade, 0.5f, 1f - shade);
+    }
+}
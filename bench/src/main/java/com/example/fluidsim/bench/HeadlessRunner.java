@@ -0,0 +1,332 @@
+package com.example.fluidsim.bench;
+
+import com.example.fluidsim.sim.AdvectionScheme;
+import com.example.fluidsim.sim.PressureSolverType;
+import com.example.fluidsim.sim.cpu.CpuFluidSolver;
+import com.example.fluidsim.sim.cpu.HalfFloatField;
+import com.example.fluidsim.sim.input.TouchQueue;
+import com.example.fluidsim.sim.input.TouchReplayer;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Runs the simulation without a display or GPU: the CPU solver is driven frame by frame through the
+ * same touch queue, splat conversion and step parameters as {@code FluidSimulation}'s fallback
+ * path, the dye is written out as images, and the time spent in each phase is printed at the end.
+ *
+ * <pre>
+ * ./gradlew :bench:runHeadless -PheadlessArgs="--frames 300 --grid 256 --format png --out build/frames"
+ * </pre>
+ *
+ * <p>Options: {@code --frames N}, {@code --grid N} (cells along the longer side),
+ * {@code --iterations N}, {@code --solver jacobi|multigrid|red_black},
+ * {@code --advection semi_lagrangian|maccormack} (both fields), {@code --vorticity STRENGTH},
+ * {@code --surface WxH},
+ * {@code --dt SECONDS}, {@code --threads N}, {@code --script FILE}, {@code --replay FILE} (a
+ * {@code TouchRecorder} trace, scaled to the surface), {@code --format png|raw|none},
+ * {@code --every K} (write every K-th frame) and {@code --out DIR}.
+ *
+ * <p>A script has one touch sample per line, {@code frame x y dx dy colorId [pointerId]}, in
+ * pixels of the virtual surface with the origin top-left as in {@code MotionEvent}; {@code #}
+ * starts a comment. Samples may be listed in any frame order. Without a script two pointers stir
+ * a figure eight for the whole run.
+ *
+ * <p>PNG frames hold the dye colour clamped to [0, 1], not the on-screen palette. Raw frames
+ * ({@code .f16}) are the RGBA half-float field exactly as uploaded to the GPU, rows bottom to top,
+ * little endian.
+ */
+public final class HeadlessRunner {
+
+    // Mirrors FluidSimulation.
+    private static final float VELOCITY_DISSIPATION = 0.995f;
+    private static final float DYE_DISSIPATION = 0.999f;
+    private static final float VORTICITY = 10f;
+    private static final float SPLAT_RADIUS = 0.02f;
+    private static final float SPLAT_FORCE = 6f;
+    private static final int MIN_GRID_CELLS = 16;
+    private static final int TOUCH_BUDGET = 8;
+    private static final float[][] PALETTE = {{1.2f, 0.5f, 0.2f}, {0.1f, 0.3f, 0.9f}};
+
+    private int frames = 120;
+    private int gridSize = 256;
+    private int iterations = 24;
+    private PressureSolverType solverType = PressureSolverType.JACOBI;
+    private AdvectionScheme advection = AdvectionScheme.SEMI_LAGRANGIAN;
+    private float vorticity = VORTICITY;
+    private int surfaceWidth = 1280;
+    private int surfaceHeight = 720;
+    private float dt = 1f / 60f;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String scriptPath;
+    private String replayPath;
+    private String format = "png";
+    private int every = 1;
+    private File outDir = new File("headless-out");
+
+    private final List<float[]> script = new ArrayList<>();
+    private final TouchQueue touches = new TouchQueue();
+    private final TouchQueue.Consumer splatter = this::splat;
+    private final TouchReplayer.Sink replaySink = this::enqueue;
+    private CpuFluidSolver solver;
+
+    public static void main(String[] args) throws IOException {
+        HeadlessRunner runner = new HeadlessRunner();
+        runner.parse(args);
+        runner.run();
+    }
+
+    private void parse(String[] args) throws IOException {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--frames":
+                    frames = Integer.parseInt(value);
+                    break;
+                case "--grid":
+                    gridSize = Integer.parseInt(value);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(value);
+                    break;
+                case "--solver":
+                    solverType = PressureSolverType.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+                case "--advection":
+                    advection = AdvectionScheme.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+                case "--vorticity":
+                    vorticity = Float.parseFloat(value);
+                    break;
+                case "--surface": {
+                    String[] size = value.toLowerCase(Locale.ROOT).split("x");
+                    surfaceWidth = Integer.parseInt(size[0]);
+                    surfaceHeight = Integer.parseInt(size[1]);
+                    break;
+                }
+                case "--dt":
+                    dt = Float.parseFloat(value);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--script":
+                    scriptPath = value;
+                    break;
+                case "--replay":
+                    replayPath = value;
+                    break;
+                case "--format":
+                    format = value.toLowerCase(Locale.ROOT);
+                    break;
+                case "--every":
+                    every = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "--out":
+                    outDir = new File(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (!format.equals("png") && !format.equals("raw") && !format.equals("none")) {
+            throw new IllegalArgumentException("Unknown format " + format);
+        }
+        if (scriptPath != null) {
+            readScript(scriptPath);
+        }
+    }
+
+    private void readScript(String path) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                float[] sample = new float[7];
+                if (fields.length < 6 || fields.length > sample.length) {
+                    throw new IllegalArgumentException(path + ":" + lineNumber
+                            + ": expected frame x y dx dy colorId [pointerId]");
+                }
+                for (int i = 0; i < fields.length; i++) {
+                    try {
+                        sample[i] = Float.parseFloat(fields[i]);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException(path + ":" + lineNumber
+                                + ": not a number: " + fields[i]);
+                    }
+                }
+                script.add(sample);
+            }
+        }
+        // run() walks the script forwards once; samples of a frame keep their order.
+        script.sort((a, b) -> Float.compare(a[0], b[0]));
+    }
+
+    private void run() throws IOException {
+        int longSide = Math.max(surfaceWidth, surfaceHeight);
+        int width = Math.max(MIN_GRID_CELLS, Math.round(gridSize * (float) surfaceWidth / longSide));
+        int height = Math.max(MIN_GRID_CELLS, Math.round(gridSize * (float) surfaceHeight / longSide));
+        solver = new CpuFluidSolver(threads);
+        solver.setPressureSolver(solverType);
+        solver.setAdvectionScheme(advection, advection);
+        solver.setVorticity(vorticity);
+        solver.resize(width, height);
+        solver.setCellSize((surfaceWidth / (float) width) * (gridSize / (float) longSide),
+                (surfaceHeight / (float) height) * (gridSize / (float) longSide));
+        int pressureSteps = solverType == PressureSolverType.MULTIGRID
+                ? Math.max(1, (iterations + 11) / 12) : iterations;
+        if (!format.equals("none") && !outDir.isDirectory() && !outDir.mkdirs()) {
+            throw new IOException("Cannot create " + outDir);
+        }
+
+        TouchReplayer replayer = replayPath != null ? new TouchReplayer(new File(replayPath)) : null;
+        HalfFloatField dye = new HalfFloatField(width, height, 4);
+        ByteBuffer raw = ByteBuffer.allocate(dye.getByteSize()).order(ByteOrder.LITTLE_ENDIAN);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        long outputNs = 0L;
+        int written = 0;
+        int scriptIndex = 0;
+        long start = System.nanoTime();
+        for (int frame = 0; frame < frames; frame++) {
+            if (replayer != null) {
+                replayer.replayUntil(frame, surfaceWidth, surfaceHeight, replaySink);
+            } else if (scriptPath != null) {
+                while (scriptIndex < script.size() && script.get(scriptIndex)[0] <= frame) {
+                    float[] s = script.get(scriptIndex++);
+                    if ((int) s[0] == frame) {
+                        touches.add(s[1], s[2], s[3], s[4], (int) s[5], (int) s[6]);
+                    }
+                }
+            } else {
+                stir(frame);
+            }
+            touches.drain(splatter, TOUCH_BUDGET);
+            solver.step(dt, VELOCITY_DISSIPATION, DYE_DISSIPATION, pressureSteps);
+
+            if (!format.equals("none") && frame % every == 0) {
+                long outputStart = System.nanoTime();
+                solver.readDye(dye);
+                File file = new File(outDir, String.format(Locale.ROOT, "frame_%05d.%s", frame,
+                        format.equals("png") ? "png" : "f16"));
+                if (format.equals("png")) {
+                    writePng(dye, image, file);
+                } else {
+                    writeRaw(dye, raw, file);
+                }
+                outputNs += System.nanoTime() - outputStart;
+                written++;
+            }
+        }
+        long totalNs = System.nanoTime() - start;
+        solver.close();
+        if (replayer != null) {
+            replayer.close();
+        }
+
+        System.out.printf(Locale.ROOT, "%d frames on a %dx%d grid, %s, %s, %d pressure steps, %d threads%n",
+                frames, width, height, solverType.name().toLowerCase(Locale.ROOT),
+                advection.name().toLowerCase(Locale.ROOT), pressureSteps, threads);
+        for (CpuFluidSolver.Phase phase : CpuFluidSolver.Phase.values()) {
+            printPhase(phase.name().toLowerCase(Locale.ROOT), solver.getPhaseNanos(phase), frames);
+        }
+        printPhase("output", outputNs, Math.max(written, 1));
+        printPhase("total", totalNs, frames);
+        if (written > 0) {
+            System.out.printf(Locale.ROOT, "%d frames written to %s%n", written, outDir.getPath());
+        }
+    }
+
+    private void enqueue(float x, float y, float dx, float dy, int colorId, int pointerId) {
+        touches.add(x, y, dx, dy, colorId, pointerId);
+    }
+
+    /** Two pointers tracing a figure eight around the centre, one sample each per frame. */
+    private void stir(int frame) {
+        for (int pointer = 0; pointer < 2; pointer++) {
+            float phase = frame * 0.05f + pointer * (float) Math.PI;
+            float x = surfaceWidth * (0.5f + 0.3f * (float) Math.sin(phase));
+            float y = surfaceHeight * (0.5f + 0.25f * (float) Math.sin(2f * phase));
+            float dx = surfaceWidth * 0.3f * 0.05f * (float) Math.cos(phase);
+            float dy = surfaceHeight * 0.25f * 0.1f * (float) Math.cos(2f * phase);
+            touches.add(x, y, dx, dy, pointer, pointer);
+        }
+    }
+
+    // Same conversion as FluidSimulation.applyCpuSplat.
+    private void splat(float x, float y, float dx, float dy, int colorId) {
+        float px = x / surfaceWidth;
+        float py = 1f - y / surfaceHeight;
+        float aspect = surfaceWidth / (float) surfaceHeight;
+        int longCells = Math.max(solver.getWidth(), solver.getHeight());
+        float velocityScale = longCells * SPLAT_FORCE / Math.max(surfaceWidth, surfaceHeight);
+        float[] color = PALETTE[colorId % 2 == 0 ? 0 : 1];
+        solver.splat(px, py, aspect, SPLAT_RADIUS, dx * velocityScale, -dy * velocityScale,
+                color[0], color[1], color[2]);
+    }
+
+    private static void writePng(HalfFloatField dye, BufferedImage image, File file) throws IOException {
+        int width = dye.getWidth();
+        int height = dye.getHeight();
+        for (int y = 0; y < height; y++) {
+            // Field rows run bottom to top, image rows top to bottom.
+            int row = height - 1 - y;
+            for (int x = 0; x < width; x++) {
+                int r = toByte(dye.get(x, row, 0));
+                int g = toByte(dye.get(x, row, 1));
+                int b = toByte(dye.get(x, row, 2));
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        ImageIO.write(image, "png", file);
+    }
+
+    private static void writeRaw(HalfFloatField dye, ByteBuffer raw, File file) throws IOException {
+        ShortBuffer source = dye.getBuffer();
+        raw.clear();
+        while (source.hasRemaining()) {
+            raw.putShort(source.get());
+        }
+        raw.flip();
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            while (raw.hasRemaining()) {
+                channel.write(raw);
+            }
+        }
+    }
+
+    private static int toByte(float value) {
+        return Math.round(Math.max(0f, Math.min(value, 1f)) * 255f);
+    }
+
+    private static void printPhase(String name, long nanos, int count) {
+        System.out.printf(Locale.ROOT, "  %-10s %10.2f ms total %8.3f ms/frame%n",
+                name, nanos / 1e6, nanos / 1e6 / count);
+    }
+}
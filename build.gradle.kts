@@ -1,3 +1,4 @@
 plugins {
     id("com.android.application") version "8.13.0" apply false
+    id("me.champeau.jmh") version "0.7.2" apply false
 }
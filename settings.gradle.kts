@@ -18,3 +18,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "MagicSpells"
 include(":app")
+include(":bench")